@@ -0,0 +1,29 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER_NAME=$3
+shift 3
+
+# Runs the JMH benchmarks of bench/src against a database loaded from data/*.csv.
+# Example: source ./bench.sh flightDB 5432 user
+#          source ./bench.sh flightDB 5432 user 'listK.*' -f 1 -wi 2 -i 3
+# Anything after the user is passed to JMH (benchmark regex, -prof gc, -rf json ...).
+JMH_VERSION=1.37
+MAVEN=https://repo1.maven.org/maven2
+mkdir -p lib/bench
+for jar in org/openjdk/jmh/jmh-core/$JMH_VERSION/jmh-core-$JMH_VERSION.jar \
+		org/openjdk/jmh/jmh-generator-annprocess/$JMH_VERSION/jmh-generator-annprocess-$JMH_VERSION.jar \
+		net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar \
+		org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar; do
+	if [ ! -f lib/bench/$(basename $jar) ]; then
+		echo "Downloading $(basename $jar) .. "
+		curl -sfL -o lib/bench/$(basename $jar) $MAVEN/$jar || exit 1
+	fi
+done
+
+rm -rf bench/bin
+mkdir -p bench/bin
+javac -cp "lib/*:lib/bench/*" -d bench/bin src/*.java bench/src/bench/*.java || exit 1
+
+BENCH_DB=$DBNAME BENCH_PORT=$PORT BENCH_USER=$USER_NAME \
+	java -cp "lib/*:lib/bench/*:bench/bin" org.openjdk.jmh.Main "$@"
@@ -0,0 +1,145 @@
+/*
+ * MechanicShop benchmarks
+ * =======================
+ *
+ */
+
+package bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This class measures the ten menu operations of MechanicShop end to end
+ * against a local Postgres loaded from data/*.csv (see java/bench.sh).
+ * Throughput mode reports operations per second and sample-time mode the
+ * latency percentiles (p50 ... p99.99).
+ *
+ * The database is chosen with the BENCH_DB, BENCH_PORT and BENCH_USER
+ * environment variables, which the forked JVMs inherit.  The write
+ * benchmarks add rows with unique names and VINs on every invocation, so
+ * reload the database before comparing runs.
+ *
+ * Scripted answers follow the prompts of each operation; the existing rows
+ * they refer to come from the shipped data set: customer last name
+ * BENCH_LNAME (default Enderle, customer 0), service requests 0..29999 and
+ * mechanics 0..249.
+ *
+ * The report cache stays off in the forked JVMs, so the report benchmarks
+ * always measure the query.
+ */
+
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Dmechanicshop.reportCache.size=0")
+public class MechanicShopBenchmark{
+	private static final String LNAME = env("BENCH_LNAME", "Enderle");
+	private static final int REQUESTS = Integer.parseInt(env("BENCH_REQUESTS", "30000"));
+	private static final int MECHANICS = Integer.parseInt(env("BENCH_MECHANICS", "250"));
+
+	//unique per run so repeated runs against one database never collide
+	private static final String RUN = Long.toString(System.currentTimeMillis() % 2176782336L, 36);
+	private static final AtomicLong SEQ = new AtomicLong();
+
+	@State(Scope.Thread)
+	public static class Session{
+		Shop shop;
+
+		@Setup(Level.Trial)
+		public void open() throws Throwable {
+			this.shop = new Shop(env("BENCH_DB", System.getenv("USER") + "_DB"), env("BENCH_PORT", "5432"),
+				env("BENCH_USER", System.getenv("USER")));
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws Throwable {
+			this.shop.close();
+		}
+	}
+
+	@Benchmark
+	public void addCustomer(Session s) throws Throwable {
+		String lname = uniqueName();
+		//customer fields, then the fields of their first car
+		s.shop.run("AddCustomer", "Bench", lname, "(555)555-0100", "1 Benchmark Way",
+			uniqueVin(), "Toyota", "Prius", "2012");
+	}
+
+	@Benchmark
+	public void addMechanic(Session s) throws Throwable {
+		s.shop.run("AddMechanic", "Bench", uniqueName(), "5");
+	}
+
+	@Benchmark
+	public void addCar(Session s) throws Throwable {
+		s.shop.run("AddCar", uniqueVin(), "Ford", "Focus", "2015", LNAME, "Y", "1");
+	}
+
+	@Benchmark
+	public void insertServiceRequest(Session s) throws Throwable {
+		//customer last name, listed? Y, customer index 1, existing car, car index 1, odometer, complaint
+		s.shop.run("InsertServiceRequest", LNAME, "Y", "1", "1", "1", "42000", "Benchmark complaint");
+	}
+
+	@Benchmark
+	public void closeServiceRequest(Session s) throws Throwable {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		s.shop.run("CloseServiceRequest", Integer.toString(random.nextInt(REQUESTS)),
+			Integer.toString(random.nextInt(MECHANICS)), "Benchmark comment", "150");
+	}
+
+	@Benchmark
+	public void listCustomersWithBillLessThan100(Session s) throws Throwable {
+		s.shop.run("ListCustomersWithBillLessThan100");
+	}
+
+	@Benchmark
+	public void listCustomersWithMoreThan20Cars(Session s) throws Throwable {
+		s.shop.run("ListCustomersWithMoreThan20Cars");
+	}
+
+	@Benchmark
+	public void listCarsBefore1995With50000Milles(Session s) throws Throwable {
+		s.shop.run("ListCarsBefore1995With50000Milles");
+	}
+
+	@Benchmark
+	public void listKCarsWithTheMostServices(Session s) throws Throwable {
+		s.shop.run("ListKCarsWithTheMostServices", "10");
+	}
+
+	@Benchmark
+	public void listCustomersInDescendingOrderOfTheirTotalBill(Session s) throws Throwable {
+		s.shop.run("ListCustomersInDescendingOrderOfTheirTotalBill");
+	}
+
+	private static String uniqueName(){
+		return "B" + RUN + SEQ.incrementAndGet();
+	}
+
+	//16 characters, the width of Car.vin
+	private static String uniqueVin(){
+		return String.format("B%6s%09d", RUN, SEQ.incrementAndGet()).replace(' ', '0').toUpperCase();
+	}
+
+	private static String env(String name, String fallback){
+		String value = System.getenv(name);
+		return value == null || value.isEmpty() ? fallback : value;
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Benchmark bridge to MechanicShop
+ * ================================
+ *
+ */
+
+package bench;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class drives the menu operations of MechanicShop for the
+ * benchmarks.  JMH refuses benchmarks in the default package and Java code
+ * cannot import classes from it, so MechanicShop and SessionIO are reached
+ * through method handles looked up once at setup.
+ *
+ * Every operation runs with MechanicShop.in bound to a scripted list of
+ * answers (through SessionIO) and its console output discarded, then hands
+ * the pooled connection back, exactly like one pass of the main menu.
+ * The operations catch their errors and print them to System.err, so what
+ * an operation writes there is captured and fails the invocation: a
+ * database error or a script that no longer matches the prompts would
+ * otherwise be measured as a fast success.
+ */
+
+final class Shop{
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+	private static final OutputStream DISCARD = new OutputStream(){
+		public void write(int b){}
+		public void write(byte[] b, int off, int len){}
+	};
+
+	//System.err of the thread running an operation, null outside run()
+	private static final ThreadLocal<ByteArrayOutputStream> ERRORS = new ThreadLocal<ByteArrayOutputStream>();
+
+	private static boolean _routed = false;
+
+	private final Object _esql;
+	private final Map<String, MethodHandle> _operations = new HashMap<String, MethodHandle>();
+	private final MethodHandle _bind;
+	private final MethodHandle _unbind;
+	private final MethodHandle _release;
+	private final MethodHandle _cleanup;
+
+	Shop(String dbname, String dbport, String user) throws Throwable {
+		ClassLoader loader = Shop.class.getClassLoader();
+		Class<?> shop = Class.forName("MechanicShop", true, loader);
+		Class<?> sessionIO = Class.forName("SessionIO", true, loader);
+
+		//route the console once per JVM so bound operations write to DISCARD
+		synchronized (Shop.class){
+			if (!_routed){
+				MethodHandle routed = LOOKUP.findStatic(sessionIO, "routed",
+					MethodType.methodType(PrintStream.class, PrintStream.class));
+				System.setOut((PrintStream) routed.invoke(System.out));
+				System.setErr(captured((PrintStream) routed.invoke(System.err)));
+				_routed = true;
+			}//end if
+		}
+
+		this._bind = LOOKUP.findStatic(sessionIO, "bind",
+			MethodType.methodType(void.class, BufferedReader.class, OutputStream.class));
+		this._unbind = LOOKUP.findStatic(sessionIO, "unbind", MethodType.methodType(void.class));
+		this._release = LOOKUP.findVirtual(shop, "releaseConnection", MethodType.methodType(void.class))
+			.asType(MethodType.methodType(void.class, Object.class));
+		this._cleanup = LOOKUP.findVirtual(shop, "cleanup", MethodType.methodType(void.class))
+			.asType(MethodType.methodType(void.class, Object.class));
+		this._esql = LOOKUP.findConstructor(shop,
+			MethodType.methodType(void.class, String.class, String.class, String.class, String.class))
+			.invoke(dbname, dbport, user, "");
+	}
+
+	/**
+	 * Method to run one menu operation with scripted answers to its prompts.
+	 *
+	 * @param operation the name of the static MechanicShop method, e.g. AddCustomer
+	 * @param answers one line per prompt, in prompt order
+	 */
+	void run(String operation, String... answers) throws Throwable {
+		MethodHandle op = this._operations.get(operation);
+		if (op == null){
+			op = LOOKUP.findStatic(this._esql.getClass(), operation,
+				MethodType.methodType(void.class, this._esql.getClass()))
+				.asType(MethodType.methodType(void.class, Object.class));
+			this._operations.put(operation, op);
+		}//end if
+		StringBuilder script = new StringBuilder();
+		for (String answer : answers){
+			script.append(answer).append('\n');
+		}
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		this._bind.invoke(new BufferedReader(new StringReader(script.toString())), DISCARD);
+		ERRORS.set(errors);
+		try{
+			op.invokeExact(this._esql);
+		}finally{
+			ERRORS.remove();
+			this._unbind.invoke();
+			this._release.invokeExact(this._esql);
+		}
+		if (errors.size() > 0){
+			throw new IllegalStateException(operation + " failed: " + errors.toString(StandardCharsets.UTF_8.name()).trim());
+		}//end if
+	}//end run
+
+	/**
+	 * Method to wrap System.err so what a thread inside run() writes is
+	 * kept for it, and everything else goes to err.
+	 */
+	private static PrintStream captured(final PrintStream err){
+		return new PrintStream(new OutputStream(){
+			public void write(int b) throws IOException {
+				ByteArrayOutputStream errors = ERRORS.get();
+				if (errors == null){
+					err.write(b);
+				}else{
+					errors.write(b);
+				}//end if
+			}
+
+			public void write(byte[] b, int off, int len) throws IOException {
+				ByteArrayOutputStream errors = ERRORS.get();
+				if (errors == null){
+					err.write(b, off, len);
+				}else{
+					errors.write(b, off, len);
+				}//end if
+			}
+
+			public void flush(){
+				err.flush();
+			}
+		}, true);
+	}//end captured
+
+	void close() throws Throwable {
+		this._cleanup.invokeExact(this._esql);
+	}
+}
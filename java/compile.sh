@@ -1,3 +1,3 @@
 #! /bin/bash
 rm -rf bin/*.class
-javac -cp ".;lib/postgresql-42.1.4.jar;" src/MechanicShop.java -d bin/
+javac -cp "lib/*" src/*.java -d bin/
@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Writes one report to a CSV or NDJSON file, gzip compressed when the name ends in .gz.
+# Example: source ./export.sh flightDB 5432 user customers-by-total-bill bills.csv.gz
+java -cp lib/*:bin/ ReportExporter $DBNAME $PORT $USER "${@:4}"
@@ -0,0 +1,7 @@
+#! /bin/bash
+OUT=$1
+
+# Writes customer.csv ... closed_request.csv in the format of ../data at any size.
+# Example: source ./generate.sh /tmp/bigdata --requests 10000000 --seed 7
+#          source ./load.sh flightDB 5432 user /tmp/bigdata --truncate
+java -cp lib/*:bin/ DataGenerator $OUT "${@:2}"
@@ -0,0 +1,9 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+LISTEN=$4
+
+# Example: source ./http.sh flightDB 5432 user 8080
+# Then: curl 'localhost:8080/reports/top-cars?k=10'
+java -cp lib/*:bin/ -Dmechanicshop.pool.size=${POOL_SIZE:-16} ShopHttpServer $DBNAME $PORT $USER $LISTEN
@@ -0,0 +1,9 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Enters service requests or closures in batches from a file or stdin.
+# Example: source ./intake.sh flightDB 5432 user closures closures.csv --batch-size 500
+#          cat requests.csv | source ./intake.sh flightDB 5432 user requests
+java -cp lib/*:bin/ BatchIntake $DBNAME $PORT $USER "${@:4}"
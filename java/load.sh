@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Loads ../data/*.csv from this machine with COPY ... FROM STDIN.
+# Example: source ./load.sh flightDB 5432 user [data dir] [--truncate]
+java -cp lib/*:bin/ BulkLoader $DBNAME $PORT $USER "${@:4}"
@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Runs N concurrent clients against the database and prints throughput, latency and contention.
+# Example: source ./loaddriver.sh flightDB 5432 user --clients 1,4,16 --duration 60
+java -cp lib/*:bin/ LoadDriver $DBNAME $PORT $USER "${@:4}"
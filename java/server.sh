@@ -0,0 +1,9 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+LISTEN=$4
+
+# Example: source ./server.sh flightDB 5432 user 5555
+# Each terminal then connects with: nc localhost 5555
+java -cp lib/*:bin/ -Dmechanicshop.pool.size=${POOL_SIZE:-16} ShopServer $DBNAME $PORT $USER $LISTEN
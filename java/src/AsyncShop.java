@@ -0,0 +1,233 @@
+/*
+ * Asynchronous query API
+ * ======================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs MechanicShop queries and updates in the background and
+ * hands back CompletableFutures, so independent lookups can run at the same
+ * time and a caller does not have to block while a report runs.
+ *
+ * Every task gets a session of its own that borrows a connection from the
+ * pool for the length of the task, so concurrent tasks never share a
+ * connection.  The tasks of every AsyncShop in the JVM run on one bounded
+ * executor: -Dmechanicshop.async.threads worker threads (4 when unset,
+ * like the pool) and a queue of -Dmechanicshop.async.queue tasks (1000
+ * when unset).  A task submitted to a full queue fails with a
+ * RejectedExecutionException instead of blocking the caller.  Keep the
+ * number of workers at or below the pool size, or tasks wait for
+ * connections instead of running.
+ * An AsyncShop can also be given an executor of its own, for work that
+ * must not queue behind the shared one.
+ * Statements run here show up in the statement metrics but are not
+ * charged to the menu operation that submitted them.
+ */
+
+public class AsyncShop{
+	/**
+	 * A unit of work run on a background session.
+	 */
+	public interface Work<T>{
+		T run(MechanicShop session) throws SQLException;
+	}
+
+	private static ThreadPoolExecutor _executor = null;
+
+	private final ConnectionPool _pool;
+	//null for the shared executor
+	private final ThreadPoolExecutor _own;
+
+	/**
+	 * @param pool where the background sessions borrow their connections
+	 */
+	public AsyncShop(ConnectionPool pool){
+		this(pool, null);
+	}
+
+	/**
+	 * @param pool where the background sessions borrow their connections
+	 * @param executor runs the tasks, null for the executor shared by the JVM
+	 */
+	public AsyncShop(ConnectionPool pool, ThreadPoolExecutor executor){
+		this._pool = pool;
+		this._own = executor;
+	}
+
+	private static synchronized ThreadPoolExecutor shared(){
+		if (_executor == null){
+			_executor = newExecutor("async-query", Integer.getInteger("mechanicshop.async.threads", 4),
+				Integer.getInteger("mechanicshop.async.queue", 1000));
+		}//end if
+		return _executor;
+	}//end shared
+
+	private ThreadPoolExecutor executor(){
+		return this._own != null ? this._own : shared();
+	}
+
+	/**
+	 * Method to create a bounded executor of daemon threads that exit when
+	 * idle for a minute.
+	 *
+	 * @param name the prefix of the thread names
+	 * @param threads the number of worker threads
+	 * @param queue the most tasks waiting for a worker
+	 */
+	static ThreadPoolExecutor newExecutor(final String name, int threads, int queue){
+		final AtomicInteger count = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<Runnable>(queue),
+			new ThreadFactory(){
+				public Thread newThread(Runnable r){
+					Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}//end newExecutor
+
+	/**
+	 * Method to run a unit of work in the background.
+	 *
+	 * @param work the queries to run, on a session of its own
+	 * @return completes with the result of the work, or exceptionally with its SQLException
+	 */
+	public <T> CompletableFuture<T> submit(final Work<T> work){
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		try{
+			executor().execute(new Runnable(){
+				public void run(){
+					if (result.isCancelled()){
+						return;
+					}//end if
+					MechanicShop session = new MechanicShop(_pool);
+					try{
+						result.complete(work.run(session));
+					}catch (Throwable e){
+						result.completeExceptionally(e);
+					}finally{
+						session.releaseConnection();
+					}
+				}
+			});
+		}catch (RuntimeException e){
+			result.completeExceptionally(e);
+		}
+		return result;
+	}//end submit
+
+	/**
+	 * @see MechanicShop#executeUpdate
+	 */
+	public CompletableFuture<Void> executeUpdate(final String sql, final Object... params){
+		return submit(new Work<Void>(){
+			public Void run(MechanicShop session) throws SQLException {
+				session.executeUpdate(sql, params);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @see MechanicShop#executeQuery
+	 */
+	public CompletableFuture<Integer> executeQuery(final String query, final Object... params){
+		return submit(new Work<Integer>(){
+			public Integer run(MechanicShop session) throws SQLException {
+				return session.executeQuery(query, params);
+			}
+		});
+	}
+
+	/**
+	 * @see MechanicShop#executeQueryAndReturnResult
+	 */
+	public CompletableFuture<List<List<String>>> executeQueryAndReturnResult(final String query, final Object... params){
+		return submit(new Work<List<List<String>>>(){
+			public List<List<String>> run(MechanicShop session) throws SQLException {
+				return session.executeQueryAndReturnResult(query, params);
+			}
+		});
+	}
+
+	/**
+	 * @see MechanicShop#executeQueryAndMap
+	 */
+	public <T> CompletableFuture<List<T>> executeQueryAndMap(final String query, final MechanicShop.RowMapper<T> mapper,
+			final Object... params){
+		return submit(new Work<List<T>>(){
+			public List<T> run(MechanicShop session) throws SQLException {
+				return session.executeQueryAndMap(query, mapper, params);
+			}
+		});
+	}
+
+	/**
+	 * Method to stream a query in the background.  The handler is called
+	 * on the worker thread.
+	 *
+	 * @see MechanicShop#executeQueryAndStream
+	 */
+	public CompletableFuture<Integer> executeQueryAndStream(final String query, final MechanicShop.RowHandler handler,
+			final Object... params){
+		return submit(new Work<Integer>(){
+			public Integer run(MechanicShop session) throws SQLException {
+				return session.executeQueryAndStream(query, handler, params);
+			}
+		});
+	}
+
+	/**
+	 * @see MechanicShop#executeInsertAndReturnKey
+	 */
+	public CompletableFuture<Integer> executeInsertAndReturnKey(final String sql, final Object... params){
+		return submit(new Work<Integer>(){
+			public Integer run(MechanicShop session) throws SQLException {
+				return session.executeInsertAndReturnKey(sql, params);
+			}
+		});
+	}
+
+	/**
+	 * Method to wait for a future and hand back its result, rethrowing the
+	 * SQLException it failed with.
+	 *
+	 * @throws java.sql.SQLException when the work failed or the wait was interrupted
+	 */
+	public static <T> T await(CompletableFuture<T> future) throws SQLException {
+		try{
+			return future.get();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a query");
+		}catch (ExecutionException e){
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException){
+				throw (SQLException) cause;
+			}//end if
+			if (cause instanceof RuntimeException){
+				throw (RuntimeException) cause;
+			}//end if
+			if (cause instanceof Error){
+				throw (Error) cause;
+			}//end if
+			throw new SQLException(cause);
+		}
+	}//end await
+}
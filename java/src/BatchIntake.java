@@ -0,0 +1,259 @@
+/*
+ * Batch intake of service requests and closures
+ * ==============================================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * This class enters many service requests or closures at once, e.g. at
+ * shift change, instead of one interactive prompt and one round trip per
+ * row.  Rows are read from a file or standard in, one per line:
+ *
+ *   requests:  customer_id,car_vin,odometer,complaint
+ *   closures:  rid,mechanic_id,bill,comment
+ *
+ * The complaint or comment is the rest of the line and may contain commas.
+ * Every row is validated with the same rules as InsertServiceRequest and
+ * CloseServiceRequest (MechanicShop.vinCheck and friends) and dated today.
+ * Valid rows are sent with addBatch/executeBatch, batchSize rows per
+ * transaction, on a connection with reWriteBatchedInserts so the driver
+ * turns each batch into multi-row INSERTs.  When the database rejects a
+ * batch it is rolled back and replayed row by row, so every error is
+ * reported against its input line and the good rows still go in.
+ */
+
+public class BatchIntake{
+	/**
+	 * The two kinds of input, with their INSERT and line parser.
+	 */
+	enum Kind{
+		REQUESTS("INSERT INTO Service_Request(customer_id,car_vin,date,odometer,complain) VALUES (?,?,?,?,?)"){
+			Object[] parse(String[] f, java.sql.Date today){
+				requireNumber(f[0], "customer id");
+				if (!MechanicShop.vinCheck(f[1])){
+					throw new IllegalArgumentException("VIN must be 11 to 17 characters: " + f[1]);
+				}//end if
+				int odometer = requirePositive(f[2], "odometer");
+				requireText(f[3], "complaint");
+				return new Object[]{ Integer.parseInt(f[0]), f[1], today, odometer, f[3] };
+			}
+		},
+		CLOSURES("INSERT INTO Closed_Request(rid,mid,date,comment,bill) VALUES (?,?,?,?,?)"){
+			Object[] parse(String[] f, java.sql.Date today){
+				requireNumber(f[0], "service request number");
+				requireNumber(f[1], "mechanic id");
+				int bill = requirePositive(f[2], "bill");
+				requireText(f[3], "comment");
+				return new Object[]{ Integer.parseInt(f[0]), Integer.parseInt(f[1]), today, f[3], bill };
+			}
+		};
+
+		final String sql;
+
+		Kind(String sql){
+			this.sql = sql;
+		}
+
+		abstract Object[] parse(String[] fields, java.sql.Date today);
+	}
+
+	/**
+	 * One validated input line.
+	 */
+	static class Row{
+		final int line;
+		final Object[] params;
+
+		Row(int line, Object[] params){
+			this.line = line;
+			this.params = params;
+		}
+	}
+
+	private final Connection _connection;
+	private final Kind _kind;
+	private final int _batchSize;
+	private long _inserted = 0;
+	private long _rejected = 0;
+
+	public BatchIntake(Connection connection, Kind kind, int batchSize){
+		this._connection = connection;
+		this._kind = kind;
+		this._batchSize = batchSize;
+	}
+
+	/**
+	 * Method to validate and insert every line of the input.  Errors are
+	 * printed to standard error as "line N: reason".
+	 */
+	public void run(BufferedReader input) throws Exception {
+		long start = System.nanoTime();
+		java.sql.Date today = new java.sql.Date(System.currentTimeMillis());
+		PreparedStatement stmt = this._connection.prepareStatement(this._kind.sql);
+		try{
+			List<Row> batch = new ArrayList<Row>(this._batchSize);
+			String line;
+			int lineNo = 0;
+			while ((line = input.readLine()) != null){
+				++lineNo;
+				if (line.trim().length() == 0){
+					continue;
+				}//end if
+				try{
+					String[] fields = line.split(",", 4);
+					if (fields.length != 4){
+						throw new IllegalArgumentException("expected 4 comma separated fields");
+					}//end if
+					for (int i = 0; i < 3; ++i){
+						fields[i] = fields[i].trim();
+					}
+					batch.add(new Row(lineNo, this._kind.parse(fields, today)));
+				}catch (IllegalArgumentException e){
+					reject(lineNo, e.getMessage());
+				}
+				if (batch.size() == this._batchSize){
+					flush(stmt, batch);
+				}//end if
+			}//end while
+			flush(stmt, batch);
+		}finally{
+			stmt.close();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d rows inserted, %d rejected in %.2f s (%.0f rows/sec)%n",
+			this._inserted, this._rejected, seconds, this._inserted / seconds);
+	}//end run
+
+	/**
+	 * Method to insert one batch in one transaction, replaying it row by row
+	 * when the database rejects it.  Any other error, such as a failed
+	 * commit or a lost connection, rolls the batch back and stops the
+	 * intake with the lines of the batch.
+	 */
+	private void flush(PreparedStatement stmt, List<Row> batch) throws SQLException {
+		if (batch.isEmpty()){
+			return;
+		}//end if
+		this._connection.setAutoCommit(false);
+		try{
+			for (Row row : batch){
+				StatementCache.bind(stmt, row.params);
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+			this._connection.commit();
+			this._inserted += batch.size();
+		}catch (BatchUpdateException e){
+			this._connection.rollback();
+			stmt.clearBatch();
+			this._connection.setAutoCommit(true);
+			for (Row row : batch){
+				try{
+					StatementCache.bind(stmt, row.params);
+					stmt.executeUpdate();
+					++this._inserted;
+				}catch (SQLException rowError){
+					reject(row.line, rowError.getMessage());
+				}
+			}
+		}catch (SQLException e){
+			try{
+				this._connection.rollback();
+			}catch (SQLException rollbackError){
+				e.addSuppressed(rollbackError);
+			}
+			stmt.clearBatch();
+			throw new SQLException("lines " + batch.get(0).line + "-" + batch.get(batch.size() - 1).line
+				+ " rolled back: " + e.getMessage(), e.getSQLState(), e);
+		}finally{
+			this._connection.setAutoCommit(true);
+		}
+		batch.clear();
+	}//end flush
+
+	private void reject(int line, String reason){
+		++this._rejected;
+		System.err.println("line " + line + ": " + reason);
+	}
+
+	private static void requireNumber(String value, String field){
+		if (value.length() == 0 || !value.matches("[0-9]+")){
+			throw new IllegalArgumentException("invalid " + field + ": " + value);
+		}//end if
+	}
+
+	private static int requirePositive(String value, String field){
+		requireNumber(value, field);
+		int number = Integer.parseInt(value);
+		if (number <= 0){
+			throw new IllegalArgumentException(field + " must be positive: " + value);
+		}//end if
+		return number;
+	}
+
+	private static void requireText(String value, String field){
+		if (value.trim().length() == 0){
+			throw new IllegalArgumentException(field + " must not be empty");
+		}//end if
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args <dbname> <port> <user> <requests|closures> [file|-] [--batch-size N]
+	 */
+	public static void main (String[] args) {
+		List<String> positional = new ArrayList<String>();
+		int batchSize = 500;
+		for (int i = 0; i < args.length; ++i){
+			if (args[i].equals("--batch-size") && i + 1 < args.length){
+				batchSize = Integer.parseInt(args[++i]);
+			}else{
+				positional.add(args[i]);
+			}//end if
+		}
+		if (positional.size() < 4 || positional.size() > 5 || batchSize < 1
+				|| !(positional.get(3).equals("requests") || positional.get(3).equals("closures"))) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + BatchIntake.class.getName () +
+		            " <dbname> <port> <user> <requests|closures> [file|-] [--batch-size N]");
+			return;
+		}//end if
+		Kind kind = positional.get(3).equals("requests") ? Kind.REQUESTS : Kind.CLOSURES;
+		String file = positional.size() == 5 ? positional.get(4) : "-";
+		try{
+			Class.forName("org.postgresql.Driver");
+			Properties props = MechanicShop.buildProperties(positional.get(2), "");
+			props.setProperty("reWriteBatchedInserts", "true");
+			Connection conn = DriverManager.getConnection(MechanicShop.buildUrl(positional.get(0), positional.get(1)), props);
+			InputStream in = file.equals("-") ? System.in : new FileInputStream(file);
+			BufferedReader input = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+			try{
+				new BatchIntake(conn, kind, batchSize).run(input);
+			}finally{
+				input.close();
+				conn.close();
+			}
+		}catch(Exception e){
+			System.err.println("Intake failed: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
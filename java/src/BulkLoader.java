@@ -0,0 +1,342 @@
+/*
+ * Parallel bulk loader
+ * ====================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class loads data/*.csv into the database from the client with
+ * COPY ... FROM STDIN, so it needs no access to the server's file system
+ * (unlike the COPY ... FROM 'file.csv' of sql/create.sql).
+ *
+ * Tables are loaded in dependency waves: Customer, Mechanic and Car in
+ * parallel, then Owns and Service_Request in parallel, then Closed_Request.
+ * Every table is streamed on its own connection in one transaction with its
+ * foreign keys deferred to commit (sql/migrations/005).  The row triggers
+ * of the summary tables (migrations 003 and 004) and of the table versions
+ * (migration 007) are disabled during the load; the summaries are rebuilt
+ * once at the end and every version bumped once.  Afterwards the key
+ * sequences are moved past the loaded keys and the tables analyzed.
+ */
+
+public class BulkLoader{
+	/**
+	 * One COPY target: the table, its CSV file and the column order of the
+	 * file.
+	 */
+	static class Table{
+		final String name;
+		final String file;
+		final String columns;
+
+		Table(String name, String file, String columns){
+			this.name = name;
+			this.file = file;
+			this.columns = columns;
+		}
+	}
+
+	//tables of one wave only reference tables of earlier waves
+	static final Table[][] WAVES = {
+		{
+			new Table("Customer", "customer.csv", "id, fname, lname, phone, address"),
+			new Table("Mechanic", "mechanic.csv", "id, fname, lname, experience"),
+			new Table("Car", "car.csv", "vin, make, model, year")
+		},
+		{
+			new Table("Owns", "owns.csv", "ownership_id, customer_id, car_vin"),
+			new Table("Service_Request", "service_request.csv", "rid, customer_id, car_vin, date, odometer, complain")
+		},
+		{
+			new Table("Closed_Request", "closed_request.csv", "wid, rid, mid, date, comment, bill")
+		}
+	};
+
+	//summary triggers of the migrations, rebuilt in one pass after the load
+	static final String[][] SUMMARY_TRIGGERS = {
+		{"Closed_Request", "closed_request_bill_total"},
+		{"Service_Request", "service_request_service_count"}
+	};
+
+	//row triggers of the table versions, one bump after the load instead of one per loaded row
+	static final String[][] VERSION_TRIGGERS = {
+		{"Customer", "customer_table_version"},
+		{"Mechanic", "mechanic_table_version"},
+		{"Car", "car_table_version"},
+		{"Owns", "owns_table_version"},
+		{"Service_Request", "service_request_table_version"},
+		{"Closed_Request", "closed_request_table_version"}
+	};
+
+	static final String BUMP_VERSIONS = "UPDATE Table_Version SET version = version + 1";
+
+	static final String[] REBUILD_SUMMARIES = {
+		"TRUNCATE Customer_Bill_Total",
+		"INSERT INTO Customer_Bill_Total (customer_id, bill_sum) SELECT service.customer_id, SUM(close.bill) "
+			+ "FROM Service_Request service, Closed_Request close WHERE service.rid = close.rid GROUP BY service.customer_id",
+		"TRUNCATE Car_Service_Count",
+		"INSERT INTO Car_Service_Count (car_vin, service_count) SELECT service.car_vin, COUNT(*) "
+			+ "FROM Service_Request service GROUP BY service.car_vin"
+	};
+
+	static final String[] RESET_SEQUENCES = {
+		"SELECT setval('customer_id_seq', COALESCE(MAX(id) + 1, 0), false) FROM Customer",
+		"SELECT setval('mechanic_id_seq', COALESCE(MAX(id) + 1, 0), false) FROM Mechanic",
+		"SELECT setval('owns_ownership_id_seq', COALESCE(MAX(ownership_id) + 1, 0), false) FROM Owns",
+		"SELECT setval('service_request_rid_seq', COALESCE(MAX(rid) + 1, 0), false) FROM Service_Request",
+		"SELECT setval('closed_request_wid_seq', COALESCE(MAX(wid) + 1, 0), false) FROM Closed_Request"
+	};
+
+	private static final int COPY_BUFFER = 1 << 20;
+
+	private final String _url;
+	private final Properties _props;
+	private final File _dataDir;
+
+	public BulkLoader(String url, Properties props, File dataDir){
+		this._url = url;
+		this._props = props;
+		this._dataDir = dataDir;
+	}
+
+	/**
+	 * Method to load every table, wave by wave.
+	 *
+	 * @param truncate empty the six tables first
+	 * @throws java.lang.Exception when a table fails to load; tables of
+	 *         earlier waves stay loaded, with their summaries rebuilt and
+	 *         the sequences past their ids
+	 */
+	public void load(boolean truncate) throws Exception {
+		long start = System.nanoTime();
+		long totalRows = 0;
+		Connection admin = connect();
+		try{
+			boolean summaries = hasSummaries(admin);
+			boolean versions = hasVersions(admin);
+			if (truncate){
+				execute(admin, "TRUNCATE Customer, Mechanic, Car, Owns, Service_Request, Closed_Request"
+					+ (summaries ? ", Customer_Bill_Total, Car_Service_Count" : ""));
+			}//end if
+			if (summaries){
+				setTriggers(admin, SUMMARY_TRIGGERS, false);
+			}//end if
+			if (versions){
+				setTriggers(admin, VERSION_TRIGGERS, false);
+			}//end if
+			Exception failure = null;
+			try{
+				ExecutorService workers = Executors.newFixedThreadPool(WAVES[0].length);
+				try{
+					for (Table[] wave : WAVES){
+						List<Future<Long>> loads = new ArrayList<Future<Long>>();
+						for (final Table table : wave){
+							loads.add(workers.submit(new Callable<Long>(){
+								public Long call() throws Exception {
+									return copy(table);
+								}
+							}));
+						}
+						for (Future<Long> load : loads){
+							try{
+								totalRows += load.get();
+							}catch (ExecutionException e){
+								Throwable cause = e.getCause();
+								throw cause instanceof Exception ? (Exception) cause : e;
+							}
+						}
+					}
+				}finally{
+					workers.shutdownNow();
+				}
+			}catch (Exception e){
+				failure = e;
+				throw e;
+			}finally{
+				//the waves that did commit still need their summaries and sequences
+				try{
+					if (summaries){
+						setTriggers(admin, SUMMARY_TRIGGERS, true);
+					}//end if
+					if (versions){
+						setTriggers(admin, VERSION_TRIGGERS, true);
+					}//end if
+					rebuild(admin, summaries, versions);
+				}catch (SQLException e){
+					if (failure == null){
+						throw e;
+					}//end if
+					failure.addSuppressed(e);
+				}
+			}
+			System.out.println("Analyzing .. ");
+			execute(admin, "ANALYZE");
+		}finally{
+			admin.close();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Loaded %d rows in %.2f s (%.0f rows/sec)%n", totalRows, seconds, totalRows / seconds);
+	}//end load
+
+	/**
+	 * Method to recompute the summary tables from the loaded rows, bump the
+	 * table versions and move the sequences past the loaded ids, after the
+	 * load finished or failed.
+	 */
+	private void rebuild(Connection admin, boolean summaries, boolean versions) throws SQLException {
+		if (summaries){
+			System.out.println("Rebuilding summary tables .. ");
+			admin.setAutoCommit(false);
+			try{
+				for (String sql : REBUILD_SUMMARIES){
+					execute(admin, sql);
+				}
+				admin.commit();
+			}catch (SQLException e){
+				admin.rollback();
+				throw e;
+			}finally{
+				admin.setAutoCommit(true);
+			}
+		}//end if
+		if (versions){
+			execute(admin, BUMP_VERSIONS);
+		}//end if
+		if (hasSequences(admin)){
+			for (String sql : RESET_SEQUENCES){
+				execute(admin, sql);
+			}
+		}//end if
+	}//end rebuild
+
+	/**
+	 * Method to stream one CSV file into its table.
+	 *
+	 * @return the number of rows copied
+	 */
+	private long copy(Table table) throws Exception {
+		File file = new File(this._dataDir, table.file);
+		long start = System.nanoTime();
+		Connection conn = connect();
+		try{
+			conn.setAutoCommit(false);
+			execute(conn, "SET CONSTRAINTS ALL DEFERRED");
+			CopyManager copy = conn.unwrap(PGConnection.class).getCopyAPI();
+			BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), COPY_BUFFER);
+			long rows;
+			try{
+				rows = copy.copyIn("COPY " + table.name + " (" + table.columns + ") FROM STDIN WITH DELIMITER ','",
+					reader, COPY_BUFFER);
+			}finally{
+				reader.close();
+			}
+			conn.commit();
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%-16s %10d rows in %7.2f s (%.0f rows/sec)%n", table.name, rows, seconds, rows / seconds);
+			return rows;
+		}finally{
+			conn.close();
+		}
+	}//end copy
+
+	private Connection connect() throws SQLException {
+		Connection conn = DriverManager.getConnection(this._url, this._props);
+		//the CSV dates are month/day/year
+		execute(conn, "SET DateStyle = 'ISO, MDY'");
+		return conn;
+	}
+
+	private static boolean hasSummaries(Connection conn) throws SQLException {
+		return exists(conn, "SELECT 1 FROM pg_trigger WHERE tgname = 'closed_request_bill_total'")
+			&& exists(conn, "SELECT 1 FROM pg_trigger WHERE tgname = 'service_request_service_count'");
+	}
+
+	private static boolean hasVersions(Connection conn) throws SQLException {
+		return exists(conn, "SELECT 1 FROM pg_trigger WHERE tgname = 'closed_request_table_version'");
+	}
+
+	private static boolean hasSequences(Connection conn) throws SQLException {
+		return exists(conn, "SELECT 1 FROM pg_class WHERE relname = 'closed_request_wid_seq' AND relkind = 'S'");
+	}
+
+	private static void setTriggers(Connection conn, String[][] triggers, boolean enabled) throws SQLException {
+		for (String[] trigger : triggers){
+			execute(conn, "ALTER TABLE " + trigger[0] + (enabled ? " ENABLE" : " DISABLE") + " TRIGGER " + trigger[1]);
+		}
+	}
+
+	private static boolean exists(Connection conn, String query) throws SQLException {
+		Statement stmt = conn.createStatement();
+		try{
+			return stmt.executeQuery(query).next();
+		}finally{
+			stmt.close();
+		}
+	}
+
+	private static void execute(Connection conn, String sql) throws SQLException {
+		Statement stmt = conn.createStatement();
+		try{
+			stmt.execute(sql);
+		}finally{
+			stmt.close();
+		}
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args <dbname> <port> <user> [data dir] [--truncate]
+	 */
+	public static void main (String[] args) {
+		List<String> positional = new ArrayList<String>();
+		boolean truncate = false;
+		for (String arg : args){
+			if (arg.equals("--truncate")){
+				truncate = true;
+			}else{
+				positional.add(arg);
+			}//end if
+		}
+		if (positional.size() < 3 || positional.size() > 4) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + BulkLoader.class.getName () +
+		            " <dbname> <port> <user> [data dir] [--truncate]");
+			return;
+		}//end if
+		File dataDir = new File(positional.size() == 4 ? positional.get(3) : "../data");
+		try{
+			Class.forName("org.postgresql.Driver");
+			new BulkLoader(MechanicShop.buildUrl(positional.get(0), positional.get(1)),
+				MechanicShop.buildProperties(positional.get(2), ""), dataDir).load(truncate);
+		}catch(Exception e){
+			System.err.println("Load failed: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,617 @@
+/*
+ * In-memory columnar snapshot for the analytical reports
+ * ======================================================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class holds the columns of Customer, Car, Service_Request and
+ * Closed_Request that reports 6, 8 and 10 read, and answers those reports
+ * from memory instead of joining the tables in the database.
+ *
+ * Every column is a primitive int array: ids, bills, odometer readings,
+ * years and dates (as epoch days), and strings as codes into a dictionary
+ * of the column's distinct values.  A report scans the columns it needs in
+ * tight loops over the arrays, split into chunks that run in parallel on
+ * the common fork-join pool.  The joins probe direct-address tables from
+ * customer id, rid and VIN code to row, which is a hash join on the dense
+ * keys the sequences hand out.
+ *
+ * The snapshot is loaded once and kept current by the insert helpers of
+ * MechanicShop.  Rows written by another process are missed until the
+ * snapshot is reloaded, see MechanicShop.columnarSnapshot.  Appends made
+ * to the old snapshot while its replacement loads are replayed into the
+ * replacement, and those made later through the old one are passed on to
+ * it, so no row written by this JVM is lost to a reload; an append of a
+ * row the load already read is skipped.  Scans share a read lock and
+ * appends take the write lock, so reads and writes are safe from any
+ * number of sessions.
+ */
+
+public class ColumnarSnapshot{
+	//rows a fork-join task scans without splitting further
+	private static final int CHUNK = 4096;
+
+	/**
+	 * A growable column of ints.
+	 */
+	static final class IntColumn{
+		int[] values = new int[1024];
+		int size = 0;
+
+		void add(int value){
+			if (this.size == this.values.length){
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			}//end if
+			this.values[this.size++] = value;
+		}
+
+		/**
+		 * Method to set a slot of a column used as a direct-address table,
+		 * growing it as needed.
+		 */
+		void put(int index, int value){
+			if (index >= this.values.length){
+				this.values = Arrays.copyOf(this.values, Math.max(index + 1, this.values.length * 2));
+			}//end if
+			this.values[index] = value;
+			this.size = Math.max(this.size, index + 1);
+		}
+
+		/**
+		 * @return the slot at the index, or 0 when it was never set
+		 */
+		int at(int index){
+			return index >= 0 && index < this.size ? this.values[index] : 0;
+		}
+	}
+
+	/**
+	 * The distinct values of a string column.  Null has the code -1.
+	 */
+	static final class Dictionary{
+		private final Map<String, Integer> _codes = new HashMap<String, Integer>();
+		private final List<String> _values = new ArrayList<String>();
+
+		int encode(String value){
+			if (value == null){
+				return -1;
+			}//end if
+			Integer code = this._codes.get(value);
+			if (code == null){
+				code = this._values.size();
+				this._codes.put(value, code);
+				this._values.add(value);
+			}//end if
+			return code;
+		}
+
+		String decode(int code){
+			return code < 0 ? null : this._values.get(code);
+		}
+
+		int size(){
+			return this._values.size();
+		}
+	}
+
+	/**
+	 * A scan over rows [from, to) and how to combine the results of two
+	 * adjacent chunks.
+	 */
+	interface Chunk<T>{
+		T scan(int from, int to);
+		T merge(T left, T right);
+	}
+
+	private static final class ScanTask<T> extends RecursiveTask<T>{
+		private static final long serialVersionUID = 1L;
+
+		private final Chunk<T> _chunk;
+		private final int _from;
+		private final int _to;
+
+		private final int _grain;
+
+		ScanTask(Chunk<T> chunk, int from, int to, int grain){
+			this._chunk = chunk;
+			this._from = from;
+			this._to = to;
+			this._grain = grain;
+		}
+
+		protected T compute(){
+			if (this._to - this._from <= this._grain){
+				return this._chunk.scan(this._from, this._to);
+			}//end if
+			int middle = (this._from + this._to) >>> 1;
+			ScanTask<T> left = new ScanTask<T>(this._chunk, this._from, middle, this._grain);
+			left.fork();
+			T right = new ScanTask<T>(this._chunk, middle, this._to, this._grain).compute();
+			return this._chunk.merge(left.join(), right);
+		}
+	}
+
+	private static <T> T scan(int rows, Chunk<T> chunk){
+		return scan(rows, CHUNK, chunk);
+	}
+
+	/**
+	 * Method to scan the rows in tasks of at most grain rows each.
+	 */
+	private static <T> T scan(int rows, int grain, Chunk<T> chunk){
+		if (rows <= grain){
+			return chunk.scan(0, rows);
+		}//end if
+		return ForkJoinPool.commonPool().invoke(new ScanTask<T>(chunk, 0, rows, grain));
+	}//end scan
+
+	/**
+	 * An append made while a replacement of the snapshot loads, kept to be
+	 * replayed into it.
+	 */
+	private interface Append{
+		void to(ColumnarSnapshot snapshot);
+	}
+
+	private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+	private final long _loadedAt = System.currentTimeMillis();
+	//appends made since a reload started, null when none is running; guarded by the write lock
+	private List<Append> _pending = null;
+	//the snapshot that replaced this one, which later appends go to
+	private ColumnarSnapshot _replacement = null;
+
+	//Customer
+	private final IntColumn _customerId = new IntColumn();
+	private final IntColumn _customerFname = new IntColumn();
+	private final IntColumn _customerLname = new IntColumn();
+	private final Dictionary _fnames = new Dictionary();
+	private final Dictionary _lnames = new Dictionary();
+	//customer id to row + 1
+	private final IntColumn _customerRow = new IntColumn();
+
+	//Car
+	private final IntColumn _carMake = new IntColumn();
+	private final IntColumn _carModel = new IntColumn();
+	private final IntColumn _carYear = new IntColumn();
+	private final Dictionary _vins = new Dictionary();
+	private final Dictionary _makes = new Dictionary();
+	private final Dictionary _models = new Dictionary();
+	//VIN code to car row + 1
+	private final IntColumn _carRow = new IntColumn();
+
+	//Service_Request
+	private final IntColumn _serviceCustomerId = new IntColumn();
+	private final IntColumn _serviceVin = new IntColumn();
+	private final IntColumn _serviceOdometer = new IntColumn();
+	//rid to service request row + 1
+	private final IntColumn _serviceRow = new IntColumn();
+
+	//Closed_Request
+	private final IntColumn _closedWid = new IntColumn();
+	private final IntColumn _closedRid = new IntColumn();
+	private final IntColumn _closedBill = new IntColumn();
+	private final IntColumn _closedDate = new IntColumn();
+	private final IntColumn _closedComment = new IntColumn();
+	private final Dictionary _comments = new Dictionary();
+	//wid to closed request row + 1
+	private final IntColumn _closedRow = new IntColumn();
+
+	/**
+	 * Method to read the four tables into a new snapshot.
+	 *
+	 * @throws java.sql.SQLException when a table cannot be read
+	 */
+	public static ColumnarSnapshot load(MechanicShop esql) throws SQLException {
+		final ColumnarSnapshot snapshot = new ColumnarSnapshot();
+		//read in foreign key order, so the rows a row refers to are already there
+		esql.executeQueryAndStream("SELECT id, fname, lname FROM Customer", new MechanicShop.RowHandler(){
+			public void handle(ResultSet rs) throws SQLException {
+				snapshot.appendCustomer(rs.getInt(1), rs.getString(2), rs.getString(3));
+			}
+		});
+		esql.executeQueryAndStream("SELECT vin, make, model, year FROM Car", new MechanicShop.RowHandler(){
+			public void handle(ResultSet rs) throws SQLException {
+				snapshot.appendCar(rs.getString(1), rs.getString(2), rs.getString(3), rs.getInt(4));
+			}
+		});
+		esql.executeQueryAndStream("SELECT rid, customer_id, car_vin, odometer FROM Service_Request", new MechanicShop.RowHandler(){
+			public void handle(ResultSet rs) throws SQLException {
+				snapshot.appendServiceRequest(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getInt(4));
+			}
+		});
+		esql.executeQueryAndStream("SELECT wid, rid, bill, date, comment FROM Closed_Request", new MechanicShop.RowHandler(){
+			public void handle(ResultSet rs) throws SQLException {
+				snapshot.appendClosedRequest(rs.getInt(1), rs.getInt(2), rs.getInt(3),
+					rs.getDate(4).toLocalDate(), rs.getString(5));
+			}
+		});
+		return snapshot;
+	}//end load
+
+	/**
+	 * Method to load a new snapshot to replace this one.  The appends made
+	 * to this snapshot meanwhile are replayed into the new one, and later
+	 * ones are passed on to it.
+	 *
+	 * @throws java.sql.SQLException when a table cannot be read; this
+	 *         snapshot is then kept as it is
+	 */
+	public ColumnarSnapshot reload(MechanicShop esql) throws SQLException {
+		this._lock.writeLock().lock();
+		try{
+			this._pending = new ArrayList<Append>();
+		}finally{
+			this._lock.writeLock().unlock();
+		}
+		ColumnarSnapshot snapshot = null;
+		try{
+			snapshot = load(esql);
+		}finally{
+			this._lock.writeLock().lock();
+			try{
+				if (snapshot != null){
+					//not shared yet, so its own lock is not needed
+					for (Append append : this._pending){
+						append.to(snapshot);
+					}
+					this._replacement = snapshot;
+				}//end if
+				this._pending = null;
+			}finally{
+				this._lock.writeLock().unlock();
+			}
+		}
+		return snapshot;
+	}//end reload
+
+	/**
+	 * @return when the snapshot was loaded, in milliseconds since the epoch
+	 */
+	public long getLoadedAt(){
+		return this._loadedAt;
+	}
+
+	/*
+	 * Appends, called with the row the insert helpers of MechanicShop wrote.
+	 */
+
+	public void addCustomer(final int id, final String fname, final String lname){
+		append(new Append(){
+			public void to(ColumnarSnapshot snapshot){
+				snapshot.appendCustomer(id, fname, lname);
+			}
+		});
+	}
+
+	public void addCar(final String vin, final String make, final String model, final int year){
+		append(new Append(){
+			public void to(ColumnarSnapshot snapshot){
+				snapshot.appendCar(vin, make, model, year);
+			}
+		});
+	}
+
+	public void addServiceRequest(final int rid, final int customerID, final String vin, final int odometer){
+		append(new Append(){
+			public void to(ColumnarSnapshot snapshot){
+				snapshot.appendServiceRequest(rid, customerID, vin, odometer);
+			}
+		});
+	}
+
+	public void addClosedRequest(final int wid, final int rid, final int bill, final LocalDate date, final String comment){
+		append(new Append(){
+			public void to(ColumnarSnapshot snapshot){
+				snapshot.appendClosedRequest(wid, rid, bill, date, comment);
+			}
+		});
+	}
+
+	/**
+	 * Method to apply an append under the write lock, keeping it for a
+	 * reload that is running, or to pass it on to the snapshot that
+	 * replaced this one.
+	 */
+	private void append(Append append){
+		ColumnarSnapshot replacement;
+		this._lock.writeLock().lock();
+		try{
+			replacement = this._replacement;
+			if (replacement == null){
+				append.to(this);
+				if (this._pending != null){
+					this._pending.add(append);
+				}//end if
+				return;
+			}//end if
+		}finally{
+			this._lock.writeLock().unlock();
+		}
+		replacement.append(append);
+	}//end append
+
+	/*
+	 * A row that is already in the snapshot is skipped, as when an append
+	 * is replayed into a snapshot whose load read its row.
+	 */
+
+	private void appendCustomer(int id, String fname, String lname){
+		if (this._customerRow.at(id) > 0){
+			return;
+		}//end if
+		this._customerRow.put(id, this._customerId.size + 1);
+		this._customerId.add(id);
+		this._customerFname.add(this._fnames.encode(trim(fname)));
+		this._customerLname.add(this._lnames.encode(trim(lname)));
+	}
+
+	private void appendCar(String vin, String make, String model, int year){
+		int code = this._vins.encode(trim(vin));
+		if (this._carRow.at(code) > 0){
+			return;
+		}//end if
+		this._carRow.put(code, this._carYear.size + 1);
+		this._carMake.add(this._makes.encode(trim(make)));
+		this._carModel.add(this._models.encode(trim(model)));
+		this._carYear.add(year);
+	}
+
+	private void appendServiceRequest(int rid, int customerID, String vin, int odometer){
+		if (this._serviceRow.at(rid) > 0){
+			return;
+		}//end if
+		this._serviceRow.put(rid, this._serviceCustomerId.size + 1);
+		this._serviceCustomerId.add(customerID);
+		this._serviceVin.add(this._vins.encode(trim(vin)));
+		this._serviceOdometer.add(odometer);
+	}
+
+	private void appendClosedRequest(int wid, int rid, int bill, LocalDate date, String comment){
+		if (this._closedRow.at(wid) > 0){
+			return;
+		}//end if
+		this._closedRow.put(wid, this._closedWid.size + 1);
+		this._closedWid.add(wid);
+		this._closedRid.add(rid);
+		this._closedBill.add(bill);
+		this._closedDate.add((int) date.toEpochDay());
+		this._closedComment.add(this._comments.encode(comment));
+	}
+
+	private static String trim(String value){
+		return value == null ? null : value.trim();
+	}
+
+	/**
+	 * @return the customer row of a closed request through its service request, or -1 when either is missing
+	 */
+	private int customerOfClosed(int row){
+		int service = this._serviceRow.at(this._closedRid.values[row]) - 1;
+		if (service < 0){
+			return -1;
+		}//end if
+		return this._customerRow.at(this._serviceCustomerId.values[service]) - 1;
+	}
+
+	/*
+	 * The reports.  Rows come back as strings in the column order of the
+	 * SQL of the same report, ordered by the key ReportPager pages them on.
+	 */
+
+	/**
+	 * Report 6: fname, lname, date, comment and bill of every closed
+	 * request with a bill under 100, by bill and then wid.
+	 */
+	public List<String[]> billsUnder100(){
+		this._lock.readLock().lock();
+		try{
+			final int[] bills = this._closedBill.values;
+			final int[] wids = this._closedWid.values;
+			//(bill, wid, row) of the matches; the bill and wid sort as one long
+			long[][] matches = scan(this._closedBill.size, new Chunk<long[][]>(){
+				public long[][] scan(int from, int to){
+					long[] keys = new long[to - from];
+					long[] rows = new long[to - from];
+					int found = 0;
+					for (int row = from; row < to; ++row){
+						if (bills[row] < 100 && customerOfClosed(row) >= 0){
+							keys[found] = ((long) bills[row] << 32) | (wids[row] & 0xFFFFFFFFL);
+							rows[found++] = row;
+						}//end if
+					}
+					return new long[][]{ Arrays.copyOf(keys, found), Arrays.copyOf(rows, found) };
+				}
+				public long[][] merge(long[][] left, long[][] right){
+					return new long[][]{ concat(left[0], right[0]), concat(left[1], right[1]) };
+				}
+			});
+
+			Integer[] order = sortedPositions(matches[0].length, matches[0]);
+			List<String[]> result = new ArrayList<String[]>(order.length);
+			for (Integer position : order){
+				int row = (int) matches[1][position];
+				int customer = customerOfClosed(row);
+				result.add(new String[]{
+					this._fnames.decode(this._customerFname.values[customer]),
+					this._lnames.decode(this._customerLname.values[customer]),
+					LocalDate.ofEpochDay(this._closedDate.values[row]).toString(),
+					this._comments.decode(this._closedComment.values[row]),
+					Integer.toString(bills[row]) });
+			}
+			return result;
+		}finally{
+			this._lock.readLock().unlock();
+		}
+	}//end billsUnder100
+
+	/**
+	 * Report 8: make, model and year of the cars before 1995 with a service
+	 * request under 50000 miles, distinct, by make, model and year.
+	 */
+	public List<String[]> carsBefore1995(){
+		this._lock.readLock().lock();
+		try{
+			final int[] odometers = this._serviceOdometer.values;
+			final int[] vins = this._serviceVin.values;
+			final int[] years = this._carYear.values;
+			BitSet cars = scan(this._serviceOdometer.size, new Chunk<BitSet>(){
+				public BitSet scan(int from, int to){
+					BitSet found = new BitSet();
+					for (int row = from; row < to; ++row){
+						if (odometers[row] < 50000){
+							int car = _carRow.at(vins[row]) - 1;
+							if (car >= 0 && years[car] < 1995){
+								found.set(car);
+							}//end if
+						}//end if
+					}
+					return found;
+				}
+				public BitSet merge(BitSet left, BitSet right){
+					left.or(right);
+					return left;
+				}
+			});
+
+			Set<Long> distinct = new HashSet<Long>();
+			for (int car = cars.nextSetBit(0); car >= 0; car = cars.nextSetBit(car + 1)){
+				distinct.add(((long) this._carMake.values[car] << 40) | ((long) this._carModel.values[car] << 16)
+					| (years[car] & 0xFFFF));
+			}
+			List<String[]> result = new ArrayList<String[]>(distinct.size());
+			for (long key : distinct){
+				result.add(new String[]{
+					this._makes.decode((int) (key >>> 40)),
+					this._models.decode((int) ((key >>> 16) & 0xFFFFFF)),
+					Integer.toString((int) (key & 0xFFFF)) });
+			}
+			result.sort(new Comparator<String[]>(){
+				public int compare(String[] a, String[] b){
+					int order = a[0].compareTo(b[0]);
+					if (order == 0){
+						order = a[1].compareTo(b[1]);
+					}//end if
+					return order != 0 ? order : Integer.compare(Integer.parseInt(a[2]), Integer.parseInt(b[2]));
+				}
+			});
+			return result;
+		}finally{
+			this._lock.readLock().unlock();
+		}
+	}//end carsBefore1995
+
+	/**
+	 * Report 10: id, fname, lname and total bill of every customer with a
+	 * closed request, by total bill descending and then id.
+	 */
+	public List<String[]> totalBills(){
+		this._lock.readLock().lock();
+		try{
+			final int customers = this._customerId.size;
+			final int[] bills = this._closedBill.values;
+			int closed = this._closedBill.size;
+			//the partial sums span every customer, so the rows are split into about one range per worker, not per CHUNK
+			int workers = ForkJoinPool.getCommonPoolParallelism();
+			//per customer row: the bill total, and the number of closed requests in slot customers + row
+			long[] totals = scan(closed, Math.max(CHUNK, (closed + workers - 1) / workers), new Chunk<long[]>(){
+				public long[] scan(int from, int to){
+					long[] sums = new long[customers * 2];
+					for (int row = from; row < to; ++row){
+						int customer = customerOfClosed(row);
+						if (customer >= 0){
+							sums[customer] += bills[row];
+							++sums[customers + customer];
+						}//end if
+					}
+					return sums;
+				}
+				public long[] merge(long[] left, long[] right){
+					for (int i = 0; i < left.length; ++i){
+						left[i] += right[i];
+					}
+					return left;
+				}
+			});
+
+			final long[] sums = totals;
+			final int[] ids = this._customerId.values;
+			List<Integer> rows = new ArrayList<Integer>();
+			for (int customer = 0; customer < customers; ++customer){
+				if (sums[customers + customer] > 0){
+					rows.add(customer);
+				}//end if
+			}
+			rows.sort(new Comparator<Integer>(){
+				public int compare(Integer a, Integer b){
+					int order = Long.compare(sums[b], sums[a]);
+					return order != 0 ? order : Integer.compare(ids[a], ids[b]);
+				}
+			});
+			List<String[]> result = new ArrayList<String[]>(rows.size());
+			for (int customer : rows){
+				result.add(new String[]{
+					Integer.toString(ids[customer]),
+					this._fnames.decode(this._customerFname.values[customer]),
+					this._lnames.decode(this._customerLname.values[customer]),
+					Long.toString(sums[customer]) });
+			}
+			return result;
+		}finally{
+			this._lock.readLock().unlock();
+		}
+	}//end totalBills
+
+	/**
+	 * @return the number of rows of each table and of each dictionary, for the stats output
+	 */
+	public String getStats(){
+		this._lock.readLock().lock();
+		try{
+			return "customers " + this._customerId.size + ", cars " + this._carYear.size
+				+ ", service requests " + this._serviceOdometer.size + ", closed requests " + this._closedBill.size
+				+ "; dictionaries: makes " + this._makes.size() + ", models " + this._models.size()
+				+ ", comments " + this._comments.size();
+		}finally{
+			this._lock.readLock().unlock();
+		}
+	}
+
+	private static long[] concat(long[] left, long[] right){
+		long[] result = Arrays.copyOf(left, left.length + right.length);
+		System.arraycopy(right, 0, result, left.length, right.length);
+		return result;
+	}
+
+	private static Integer[] sortedPositions(int count, final long[] keys){
+		Integer[] positions = new Integer[count];
+		for (int i = 0; i < count; ++i){
+			positions[i] = i;
+		}
+		Arrays.sort(positions, new Comparator<Integer>(){
+			public int compare(Integer a, Integer b){
+				return Long.compare(keys[a], keys[b]);
+			}
+		});
+		return positions;
+	}
+}
@@ -0,0 +1,356 @@
+/*
+ * Bounded JDBC connection pool
+ * ============================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps a bounded set of physical connections that are shared by
+ * every session of the JVM.  A session borrows a connection for the length
+ * of one statement or transaction and hands it back afterwards, never
+ * across a prompt, so the connection setup cost is paid once per pooled
+ * connection instead of once per client.
+ *
+ * Each pooled connection carries its own StatementCache, which therefore
+ * survives across borrows.  Idle connections are validated before they are
+ * handed out again, connections held longer than the leak threshold are
+ * reported together with the stack of the code that borrowed them, and the
+ * time spent waiting for a free connection is recorded.
+ */
+
+public class ConnectionPool{
+	/**
+	 * A physical connection owned by the pool together with its prepared
+	 * statement cache.
+	 */
+	public static class PooledConnection{
+		private final Connection _connection;
+		private final StatementCache _statements;
+		private long _lastUsed;
+		private long _borrowedAt;
+		private Throwable _borrowedBy;
+
+		PooledConnection(Connection connection, int cacheSize){
+			this._connection = connection;
+			this._statements = new StatementCache(connection, cacheSize);
+			this._lastUsed = System.currentTimeMillis();
+		}
+
+		public Connection getConnection(){
+			return this._connection;
+		}
+
+		public StatementCache getStatementCache(){
+			return this._statements;
+		}
+	}
+
+	private final String _url;
+	private final Properties _props;
+	private final int _maxSize;
+	private final int _cacheSize;
+	private final long _acquireTimeoutMs;
+	private final int _validationTimeoutSec;
+	private final long _validationIntervalMs;
+	private final long _leakThresholdMs;
+
+	private final Semaphore _permits;
+	private final ArrayDeque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+	private final Set<PooledConnection> _borrowed =
+		Collections.newSetFromMap(new IdentityHashMap<PooledConnection, Boolean>());
+	private final ScheduledExecutorService _reaper;
+	private volatile boolean _closed = false;
+
+	//wait time metrics
+	private final AtomicLong _acquires = new AtomicLong();
+	private final AtomicLong _timeouts = new AtomicLong();
+	private final AtomicLong _created = new AtomicLong();
+	private final AtomicLong _discarded = new AtomicLong();
+	private final AtomicLong _leaks = new AtomicLong();
+	private final AtomicLong _totalWaitNanos = new AtomicLong();
+	private final AtomicLong _maxWaitNanos = new AtomicLong();
+
+	/**
+	 * Creates a pool whose limits are read from the mechanicshop.pool.*
+	 * system properties.
+	 *
+	 * @param url the JDBC connection URL
+	 * @param props the connection properties (user, password, driver options)
+	 */
+	public ConnectionPool(String url, Properties props){
+		this(url, props,
+			Integer.getInteger("mechanicshop.pool.size", 4),
+			Long.getLong("mechanicshop.pool.timeout", 30000L),
+			Integer.getInteger("mechanicshop.pool.validationTimeout", 2),
+			Long.getLong("mechanicshop.pool.validationInterval", 5000L),
+			Long.getLong("mechanicshop.pool.leakThreshold", 300000L));
+	}
+
+	/**
+	 * @param url the JDBC connection URL
+	 * @param props the connection properties (user, password, driver options)
+	 * @param maxSize the maximum number of physical connections
+	 * @param acquireTimeoutMs how long a borrower waits for a free connection
+	 * @param validationTimeoutSec timeout of the validity check on borrow
+	 * @param validationIntervalMs connections idle for less than this are not re-validated
+	 * @param leakThresholdMs connections held longer than this are reported as leaked, 0 disables it
+	 */
+	public ConnectionPool(String url, Properties props, int maxSize, long acquireTimeoutMs,
+			int validationTimeoutSec, long validationIntervalMs, long leakThresholdMs){
+		if (maxSize < 1){
+			throw new IllegalArgumentException("pool size must be at least 1: " + maxSize);
+		}//end if
+		this._url = url;
+		this._props = props;
+		this._maxSize = maxSize;
+		this._cacheSize = Integer.getInteger("mechanicshop.statementCacheSize", StatementCache.DEFAULT_CAPACITY);
+		this._acquireTimeoutMs = acquireTimeoutMs;
+		this._validationTimeoutSec = validationTimeoutSec;
+		this._validationIntervalMs = validationIntervalMs;
+		this._leakThresholdMs = leakThresholdMs;
+		this._permits = new Semaphore(maxSize, true);
+
+		if (leakThresholdMs > 0){
+			this._reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+				public Thread newThread(Runnable r){
+					Thread t = new Thread(r, "pool-leak-detector");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			long period = Math.max(1000L, leakThresholdMs / 2);
+			this._reaper.scheduleAtFixedRate(new Runnable(){
+				public void run(){
+					detectLeaks();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		}else{
+			this._reaper = null;
+		}//end if
+	}
+
+	/**
+	 * Method to borrow a connection, waiting up to the configured timeout for
+	 * one to become free.  Every borrowed connection must be handed back
+	 * with release().
+	 *
+	 * @return a validated pooled connection
+	 * @throws java.sql.SQLException when the pool is exhausted or a connection cannot be opened
+	 */
+	public PooledConnection acquire() throws SQLException {
+		if (this._closed){
+			throw new SQLException("Connection pool is closed");
+		}//end if
+		long start = System.nanoTime();
+		try{
+			if (!this._permits.tryAcquire(this._acquireTimeoutMs, TimeUnit.MILLISECONDS)){
+				this._timeouts.incrementAndGet();
+				throw new SQLException("Timed out after " + this._acquireTimeoutMs
+					+ " ms waiting for a free connection (pool size " + this._maxSize + ")");
+			}//end if
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a free connection");
+		}
+		recordWait(System.nanoTime() - start);
+
+		try{
+			PooledConnection pc;
+			while ((pc = pollIdle()) != null){
+				if (isUsable(pc)){
+					break;
+				}//end if
+				discard(pc);
+			}//end while
+			if (pc == null){
+				pc = new PooledConnection(DriverManager.getConnection(this._url, this._props), this._cacheSize);
+				this._created.incrementAndGet();
+			}//end if
+			pc._borrowedAt = System.currentTimeMillis();
+			pc._borrowedBy = this._leakThresholdMs > 0
+				? new Throwable("Connection borrowed by " + Thread.currentThread().getName()) : null;
+			synchronized (this){
+				this._borrowed.add(pc);
+			}
+			return pc;
+		}catch (SQLException e){
+			this._permits.release();
+			throw e;
+		}catch (RuntimeException e){
+			this._permits.release();
+			throw e;
+		}
+	}//end acquire
+
+	/**
+	 * Method to hand a borrowed connection back to the pool.  A connection
+	 * left inside a transaction is rolled back first; one that cannot be
+	 * reset is closed instead of being reused.
+	 *
+	 * @param pc the connection returned by acquire()
+	 */
+	public void release(PooledConnection pc){
+		if (pc == null){
+			return;
+		}//end if
+		synchronized (this){
+			if (!this._borrowed.remove(pc)){
+				return; //already released
+			}//end if
+		}
+		boolean reusable = !this._closed;
+		try{
+			if (reusable && !pc._connection.getAutoCommit()){
+				pc._connection.rollback();
+				pc._connection.setAutoCommit(true);
+			}//end if
+		}catch (SQLException e){
+			reusable = false;
+		}
+		pc._lastUsed = System.currentTimeMillis();
+		pc._borrowedBy = null;
+		if (reusable){
+			synchronized (this){
+				this._idle.push(pc);
+			}
+		}else{
+			discard(pc);
+		}//end if
+		this._permits.release();
+	}//end release
+
+	private synchronized PooledConnection pollIdle(){
+		return this._idle.poll();
+	}
+
+	private boolean isUsable(PooledConnection pc){
+		if (System.currentTimeMillis() - pc._lastUsed < this._validationIntervalMs){
+			return true;
+		}//end if
+		try{
+			return pc._connection.isValid(this._validationTimeoutSec);
+		}catch (SQLException e){
+			return false;
+		}
+	}//end isUsable
+
+	private void discard(PooledConnection pc){
+		this._discarded.incrementAndGet();
+		pc._statements.close();
+		try{
+			pc._connection.close();
+		}catch (SQLException e){
+			// ignored.
+		}
+	}//end discard
+
+	private void recordWait(long nanos){
+		this._acquires.incrementAndGet();
+		this._totalWaitNanos.addAndGet(nanos);
+		long max;
+		while (nanos > (max = this._maxWaitNanos.get())){
+			if (this._maxWaitNanos.compareAndSet(max, nanos)){
+				break;
+			}//end if
+		}//end while
+	}//end recordWait
+
+	private void detectLeaks(){
+		long now = System.currentTimeMillis();
+		PooledConnection[] borrowed;
+		synchronized (this){
+			borrowed = this._borrowed.toArray(new PooledConnection[0]);
+		}
+		for (PooledConnection pc : borrowed){
+			Throwable by = pc._borrowedBy;
+			if (by != null && now - pc._borrowedAt > this._leakThresholdMs){
+				this._leaks.incrementAndGet();
+				System.err.println("WARNING: connection held for " + (now - pc._borrowedAt)
+					+ " ms, possible leak");
+				by.printStackTrace();
+				pc._borrowedBy = null; //report each borrow once
+			}//end if
+		}
+	}//end detectLeaks
+
+	public String getUrl(){
+		return this._url;
+	}
+
+	public Properties getProperties(){
+		return this._props;
+	}
+
+	public int getMaxSize(){
+		return this._maxSize;
+	}
+
+	public synchronized int getActiveCount(){
+		return this._borrowed.size();
+	}
+
+	public synchronized int getIdleCount(){
+		return this._idle.size();
+	}
+
+	/**
+	 * Method to render the pool counters on one line: connections in use,
+	 * idle and created, acquire count, average and maximum wait time,
+	 * timeouts, suspected leaks and the statement cache hits and misses
+	 * of the pooled connections.
+	 */
+	public String getStats(){
+		long acquires = this._acquires.get();
+		double avgWaitMs = acquires == 0 ? 0.0 : this._totalWaitNanos.get() / 1e6 / acquires;
+		long hits = 0;
+		long misses = 0;
+		synchronized (this){
+			for (PooledConnection pc : this._idle){
+				hits += pc._statements.getHits();
+				misses += pc._statements.getMisses();
+			}
+			for (PooledConnection pc : this._borrowed){
+				hits += pc._statements.getHits();
+				misses += pc._statements.getMisses();
+			}
+		}
+		return String.format("pool: %d/%d active, %d idle, %d created, %d discarded, %d acquires, "
+				+ "avg wait %.3f ms, max wait %.3f ms, %d timeouts, %d leaks; statement cache: %d hits, %d misses",
+			getActiveCount(), this._maxSize, getIdleCount(), this._created.get(), this._discarded.get(),
+			acquires, avgWaitMs, this._maxWaitNanos.get() / 1e6, this._timeouts.get(), this._leaks.get(),
+			hits, misses);
+	}//end getStats
+
+	/**
+	 * Method to close the idle connections and stop the leak detector.
+	 * Borrowed connections are closed when they are released.
+	 */
+	public void close(){
+		this._closed = true;
+		if (this._reaper != null){
+			this._reaper.shutdownNow();
+		}//end if
+		PooledConnection pc;
+		while ((pc = pollIdle()) != null){
+			discard(pc);
+		}//end while
+	}//end close
+}
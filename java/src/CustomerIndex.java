@@ -0,0 +1,351 @@
+/*
+ * In-memory customer index
+ * ========================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class keeps every customer in memory keyed by last name, so the
+ * customer pickers of AddCar and InsertServiceRequest are answered without
+ * scanning Customer on UPPER(lname).
+ *
+ * Keys are the trimmed, upper-cased last names held in a sorted map, which
+ * gives exact and prefix lookups.  Typos are tolerated through a second
+ * map from every one-letter deletion of a key to the keys it came from: two
+ * names one edit apart (a letter added, dropped or changed, or two adjacent
+ * letters swapped) always share a deletion, and the candidates found that
+ * way are confirmed with an edit distance check.
+ *
+ * The index is filled from the database and kept current by the insert
+ * helpers of MechanicShop, so a lookup never leaves memory unless it finds
+ * no exact match.  That miss falls back to the database and adds what it
+ * finds, which covers a customer inserted by another process under a name
+ * the picker spells out; the prefix and typo suggestions only offer such
+ * customers once the index is reloaded (see MechanicShop.customerIndex).
+ * Reads and writes are safe from any number of sessions.
+ *
+ * The index holds at most -Dmechanicshop.customerIndex.maxSize customers
+ * (100000 when unset).  Once the table outgrows it the index empties
+ * itself and reports isFull(), and the pickers query the database.
+ */
+
+public class CustomerIndex{
+	private static final ShopRows.Customer[] NONE = new ShopRows.Customer[0];
+	//one customer more than fit tells that the table outgrew the index
+	private static final String LOAD_SQL = "SELECT id, fname, lname, phone, address FROM Customer LIMIT ?";
+
+	//customers by normalized last name; an array is replaced as a whole, never changed in place
+	private final ConcurrentSkipListMap<String, ShopRows.Customer[]> _byLastName =
+		new ConcurrentSkipListMap<String, ShopRows.Customer[]>();
+	//one-letter deletions of the keys, and the keys themselves, to the keys they came from
+	private final ConcurrentHashMap<String, Set<String>> _deletions = new ConcurrentHashMap<String, Set<String>>();
+	private final int _maxSuggestions;
+	private final int _maxSize;
+	private final AtomicInteger _size = new AtomicInteger();
+	private volatile boolean _full = false;
+	private volatile long _loadedAt = 0;
+	//the index being loaded to replace this one, which later adds go to as well
+	private volatile CustomerIndex _replacement = null;
+
+	public CustomerIndex(){
+		this(Integer.getInteger("mechanicshop.customerIndex.maxSuggestions", 20),
+			Integer.getInteger("mechanicshop.customerIndex.maxSize", 100000));
+	}
+
+	/**
+	 * @param maxSuggestions the most customers returned by a prefix or typo lookup
+	 * @param maxSize the most customers held
+	 */
+	public CustomerIndex(int maxSuggestions, int maxSize){
+		this._maxSuggestions = maxSuggestions;
+		this._maxSize = maxSize;
+	}
+
+	/**
+	 * Method to fill the empty index with the customers of the database.
+	 * The rows are streamed, so only the index itself is held in memory.
+	 *
+	 * @return the number of customers loaded
+	 * @throws java.sql.SQLException when the customers cannot be read
+	 */
+	public int load(MechanicShop esql) throws SQLException {
+		this._loadedAt = System.currentTimeMillis();
+		return esql.executeQueryAndStream(LOAD_SQL, new MechanicShop.RowHandler(){
+			public void handle(ResultSet rs) throws SQLException {
+				if (_full){
+					return;
+				}//end if
+				if (size() >= _maxSize){
+					clear();
+					return;
+				}//end if
+				add(ShopRows.Customer.MAPPER.map(rs));
+			}
+		}, this._maxSize + 1);
+	}//end load
+
+	/**
+	 * Method to load a new index from the database while this one keeps
+	 * answering lookups.  Customers added to this one from now on are added
+	 * to the new one too, so none added during the load is lost.
+	 *
+	 * @return the new index, to use in place of this one
+	 * @throws java.sql.SQLException when the customers cannot be read
+	 */
+	public CustomerIndex reload(MechanicShop esql) throws SQLException {
+		CustomerIndex index = new CustomerIndex(this._maxSuggestions, this._maxSize);
+		this._replacement = index;
+		index.load(esql);
+		return index;
+	}//end reload
+
+	/**
+	 * @return when the last load started, in milliseconds
+	 */
+	public long getLoadedAt(){
+		return this._loadedAt;
+	}
+
+	/**
+	 * @return true once the table outgrew the index, which then holds nothing
+	 */
+	public boolean isFull(){
+		return this._full;
+	}
+
+	private void clear(){
+		this._full = true;
+		this._byLastName.clear();
+		this._deletions.clear();
+		this._size.set(0);
+	}//end clear
+
+	/**
+	 * Method to add a customer, or replace the entry with the same id.
+	 */
+	public void add(ShopRows.Customer customer){
+		put(customer);
+		CustomerIndex replacement = this._replacement;
+		if (replacement != null){
+			replacement.add(customer);
+		}//end if
+	}//end add
+
+	private void put(ShopRows.Customer customer){
+		if (this._full){
+			return;
+		}//end if
+		String key = normalize(customer.lname);
+		while (true){
+			ShopRows.Customer[] current = this._byLastName.get(key);
+			ShopRows.Customer[] next;
+			if (current == null){
+				next = new ShopRows.Customer[]{ customer };
+				if (this._byLastName.putIfAbsent(key, next) == null){
+					indexDeletions(key);
+					this._size.incrementAndGet();
+					return;
+				}//end if
+				continue;
+			}//end if
+			int at = -1;
+			for (int i = 0; i < current.length; ++i){
+				if (current[i].id == customer.id){
+					at = i;
+				}//end if
+			}
+			if (at >= 0){
+				next = current.clone();
+				next[at] = customer;
+			}else{
+				next = Arrays.copyOf(current, current.length + 1);
+				next[current.length] = customer;
+			}//end if
+			if (this._byLastName.replace(key, current, next)){
+				if (at < 0){
+					this._size.incrementAndGet();
+				}//end if
+				return;
+			}//end if
+		}//end while
+	}//end put
+
+	/**
+	 * Method to return the customers whose last name matches exactly,
+	 * ignoring case and padding.
+	 */
+	public List<ShopRows.Customer> exact(String lname){
+		ShopRows.Customer[] found = this._byLastName.get(normalize(lname));
+		return Arrays.asList(found == null ? NONE : found);
+	}
+
+	/**
+	 * Method to return the customers whose last name starts with a prefix,
+	 * in last name order and at most maxSuggestions of them.
+	 */
+	public List<ShopRows.Customer> prefix(String prefix){
+		String from = normalize(prefix);
+		List<ShopRows.Customer> result = new ArrayList<ShopRows.Customer>();
+		if (from.length() == 0){
+			return result;
+		}//end if
+		for (Map.Entry<String, ShopRows.Customer[]> entry : this._byLastName.tailMap(from, true).entrySet()){
+			if (!entry.getKey().startsWith(from) || !addAll(result, entry.getValue())){
+				break;
+			}//end if
+		}
+		return result;
+	}//end prefix
+
+	/**
+	 * Method to return the customers whose last name is exactly one typo
+	 * away from the given one, at most maxSuggestions of them.
+	 */
+	public List<ShopRows.Customer> similar(String lname){
+		String key = normalize(lname);
+		List<ShopRows.Customer> result = new ArrayList<ShopRows.Customer>();
+		Set<String> candidates = new TreeSet<String>();
+		collect(candidates, key);
+		for (int i = 0; i < key.length(); ++i){
+			collect(candidates, deleteAt(key, i));
+		}
+		for (String candidate : candidates){
+			if (!candidate.equals(key) && withinOneEdit(key, candidate)){
+				ShopRows.Customer[] found = this._byLastName.get(candidate);
+				if (found != null && !addAll(result, found)){
+					break;
+				}//end if
+			}//end if
+		}
+		return result;
+	}//end similar
+
+	/**
+	 * Method to return the customers a picker should offer for a last name:
+	 * the exact matches in the index, else those found by the database,
+	 * else those with a similar or longer last name.
+	 *
+	 * @param esql looks the name up when the index has no exact match or is full
+	 * @return the matching customers, possibly none
+	 * @throws java.sql.SQLException when a query fails
+	 */
+	public List<ShopRows.Customer> find(MechanicShop esql, String lname) throws SQLException {
+		List<ShopRows.Customer> found;
+		if (!this._full){
+			found = exact(lname);
+			if (!found.isEmpty()){
+				return found;
+			}//end if
+		}//end if
+		found = esql.executeQueryAndMap("SELECT * FROM Customer customer WHERE UPPER(customer.lname) = UPPER(?)",
+			ShopRows.Customer.MAPPER, lname.trim());
+		if (this._full){
+			return found;
+		}//end if
+		for (ShopRows.Customer customer : found){
+			add(customer);
+		}
+		if (!found.isEmpty()){
+			return found;
+		}//end if
+		found = similar(lname);
+		if (found.isEmpty()){
+			found = prefix(lname);
+		}//end if
+		return found;
+	}//end find
+
+	/**
+	 * @return the number of customers in the index
+	 */
+	public int size(){
+		return this._size.get();
+	}
+
+	private boolean addAll(List<ShopRows.Customer> result, ShopRows.Customer[] customers){
+		for (ShopRows.Customer customer : customers){
+			if (result.size() >= this._maxSuggestions){
+				return false;
+			}//end if
+			result.add(customer);
+		}
+		return result.size() < this._maxSuggestions;
+	}//end addAll
+
+	private void indexDeletions(String key){
+		link(key, key);
+		for (int i = 0; i < key.length(); ++i){
+			link(deleteAt(key, i), key);
+		}
+	}//end indexDeletions
+
+	private void link(String deletion, String key){
+		Set<String> keys = this._deletions.get(deletion);
+		if (keys == null){
+			Set<String> created = ConcurrentHashMap.newKeySet();
+			keys = this._deletions.putIfAbsent(deletion, created);
+			if (keys == null){
+				keys = created;
+			}//end if
+		}//end if
+		keys.add(key);
+	}//end link
+
+	private void collect(Set<String> candidates, String deletion){
+		Set<String> keys = this._deletions.get(deletion);
+		if (keys != null){
+			candidates.addAll(keys);
+		}//end if
+	}//end collect
+
+	private static String deleteAt(String s, int i){
+		return s.substring(0, i) + s.substring(i + 1);
+	}
+
+	/**
+	 * Method to tell whether two names differ by at most one insertion,
+	 * deletion, substitution or swap of adjacent letters.
+	 */
+	static boolean withinOneEdit(String a, String b){
+		int la = a.length();
+		int lb = b.length();
+		if (Math.abs(la - lb) > 1){
+			return false;
+		}//end if
+		int i = 0;
+		while (i < la && i < lb && a.charAt(i) == b.charAt(i)){
+			++i;
+		}//end while
+		if (la == lb){
+			if (i == la){
+				return true;
+			}//end if
+			//substitution, or swap with the next letter
+			return a.substring(i + 1).equals(b.substring(i + 1))
+				|| (i + 1 < la && a.charAt(i) == b.charAt(i + 1) && a.charAt(i + 1) == b.charAt(i)
+					&& a.substring(i + 2).equals(b.substring(i + 2)));
+		}//end if
+		//one extra letter in the longer name
+		return la > lb ? a.substring(i + 1).equals(b.substring(i)) : b.substring(i + 1).equals(a.substring(i));
+	}//end withinOneEdit
+
+	static String normalize(String lname){
+		return lname == null ? "" : lname.trim().toUpperCase(Locale.ROOT);
+	}
+}
@@ -0,0 +1,451 @@
+/*
+ * Synthetic data generator
+ * ========================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class writes customer.csv, mechanic.csv, car.csv, owns.csv,
+ * service_request.csv and closed_request.csv in the format of data/*.csv
+ * at any size, for checking the query plans and the bulk loader against
+ * production volumes.
+ *
+ * Names, addresses, makes and models, complaints and comments are drawn
+ * from the values of the shipped files.  The rows are consistent: every
+ * customer owns at least one car, every car has one owner, a service
+ * request is opened by the owner of its car and a closed request is dated
+ * on or after its service request.  Two kinds of skew can be dialed in:
+ * fleet owners that own more than 20 cars each (report 7), and hot VINs
+ * that get a share of all service requests (report 9).
+ *
+ * Rows are generated in blocks on several threads and written in order.
+ * Every block draws from a random generator seeded with the seed, the
+ * table and the block number, and every cross-table value (the VIN of a
+ * car, the owner of a car) is a function of the seed and the row number,
+ * so the same seed writes the same files whatever the number of threads.
+ */
+
+public class DataGenerator{
+	//rows generated by one task
+	private static final int BLOCK = 1 << 16;
+	private static final String EOL = "\r\n";
+	private static final LocalDate FIRST_DAY = LocalDate.of(2016, 1, 1);
+	//odometer readings span the shipped range, odometer is a positive integer in the schema
+	static final int MIN_ODOMETER = 27000;
+	static final int MAX_ODOMETER = 230000;
+
+	/**
+	 * Appends the rows [from, to) of a table, one StringBuilder per file
+	 * the table writes.
+	 */
+	interface Block{
+		void rows(int from, int to, SplittableRandom random, StringBuilder[] out);
+	}
+
+	/**
+	 * A generated block encoded for writing and its number of lines, per
+	 * file.
+	 */
+	static final class Chunk{
+		final byte[][] bytes;
+		final long[] lines;
+
+		Chunk(int files){
+			this.bytes = new byte[files][];
+			this.lines = new long[files];
+		}
+	}
+
+	//settings
+	private final long _seed;
+	private final int _threads;
+	private final int _customers;
+	private final int _mechanics;
+	private final int _cars;
+	private final int _requests;
+	private final int _fleetOwners;
+	private final int _fleetCars;
+	private final int _hotVins;
+	private final double _hotShare;
+	private final double _closed;
+
+	//values of the shipped files
+	private final String[] _fnames;
+	private final String[] _lnames;
+	private final String[] _streets;
+	private final String[] _makeModels;
+	private final String[] _complaints;
+	private final String[] _comments;
+
+	/**
+	 * @param vocabulary the directory of the shipped CSV files the values are drawn from
+	 * @param seed seeds every random choice
+	 * @param threads the number of generating threads
+	 * @param customers, mechanics, cars, requests the number of rows of each table
+	 * @param fleetOwners the number of customers that own fleetCars cars each
+	 * @param hotVins the number of cars that get hotShare of the service requests
+	 * @param closed the share of service requests that are closed
+	 */
+	public DataGenerator(File vocabulary, long seed, int threads, int customers, int mechanics, int cars, int requests,
+			int fleetOwners, int fleetCars, int hotVins, double hotShare, double closed) throws IOException {
+		if (customers < 1 || mechanics < 1 || requests < 0){
+			throw new IllegalArgumentException("need at least one customer and one mechanic");
+		}//end if
+		if (cars < customers + (long) fleetOwners * (fleetCars - 1)){
+			throw new IllegalArgumentException("every customer owns a car and every fleet owner " + fleetCars
+				+ ": need at least " + (customers + (long) fleetOwners * (fleetCars - 1)) + " cars");
+		}//end if
+		if (fleetOwners > customers || hotVins > cars || hotShare < 0 || hotShare > 1 || closed < 0 || closed > 1){
+			throw new IllegalArgumentException("fleet owners, hot VINs or shares out of range");
+		}//end if
+		this._seed = seed;
+		this._threads = threads;
+		this._customers = customers;
+		this._mechanics = mechanics;
+		this._cars = cars;
+		this._requests = requests;
+		this._fleetOwners = fleetOwners;
+		this._fleetCars = fleetCars;
+		this._hotVins = hotVins;
+		this._hotShare = hotVins == 0 ? 0 : hotShare;
+		this._closed = closed;
+
+		List<String[]> customerRows = read(new File(vocabulary, "customer.csv"));
+		List<String[]> mechanicRows = read(new File(vocabulary, "mechanic.csv"));
+		Set<String> fnames = new LinkedHashSet<String>();
+		Set<String> lnames = new LinkedHashSet<String>();
+		Set<String> streets = new LinkedHashSet<String>();
+		for (String[] row : customerRows){
+			fnames.add(row[1]);
+			lnames.add(row[2]);
+			//"9497 Chapel Drive Melbourne": the house number is generated
+			streets.add(row[4].substring(row[4].indexOf(' ') + 1));
+		}
+		for (String[] row : mechanicRows){
+			fnames.add(row[1]);
+			lnames.add(row[2]);
+		}
+		this._fnames = fnames.toArray(new String[0]);
+		this._lnames = lnames.toArray(new String[0]);
+		this._streets = streets.toArray(new String[0]);
+		this._makeModels = column(read(new File(vocabulary, "car.csv")), 1, 2);
+		this._complaints = column(read(new File(vocabulary, "service_request.csv")), 5, 5);
+		this._comments = column(read(new File(vocabulary, "closed_request.csv")), 4, 4);
+	}
+
+	private static List<String[]> read(File file) throws IOException {
+		List<String[]> rows = new ArrayList<String[]>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try{
+			String line;
+			while ((line = in.readLine()) != null){
+				if (line.length() > 0){
+					rows.add(line.split(",", -1));
+				}//end if
+			}//end while
+		}finally{
+			in.close();
+		}
+		if (rows.isEmpty()){
+			throw new IOException(file + " is empty");
+		}//end if
+		return rows;
+	}//end read
+
+	/**
+	 * @return the distinct values of the columns first to last, joined by commas
+	 */
+	private static String[] column(List<String[]> rows, int first, int last){
+		Set<String> values = new LinkedHashSet<String>();
+		for (String[] row : rows){
+			StringBuilder value = new StringBuilder(row[first]);
+			for (int i = first + 1; i <= last; ++i){
+				value.append(',').append(row[i]);
+			}
+			values.add(value.toString());
+		}
+		return values.toArray(new String[0]);
+	}//end column
+
+	/*
+	 * Row number functions shared by the tables.
+	 */
+
+	//the finalizer of MurmurHash3, spreads a row number over 64 bits
+	private static long mix(long x){
+		x ^= x >>> 33;
+		x *= 0xff51afd7ed558ccdL;
+		x ^= x >>> 33;
+		x *= 0xc4ceb93fe1a85a53L;
+		return x ^ (x >>> 33);
+	}
+
+	private long hash(int table, long row){
+		return mix(this._seed * 0x9E3779B97F4A7C15L + mix(table * 0x100000000L + row));
+	}
+
+	/**
+	 * @return the VIN of a car: six letters and ten digits like the shipped
+	 *         ones, unique because the digits are a bijection of the car number
+	 */
+	String vin(int car){
+		long h = hash(1, car);
+		char[] vin = new char[16];
+		for (int i = 0; i < 6; ++i){
+			vin[i] = (char) ('A' + (int) ((h >>> (i * 5)) & 0xFFFF) % 26);
+		}
+		//the multiplier is prime to 10^10, so this is a permutation of 0 .. 10^10 - 1
+		long digits = (car * 3141592653L + Long.remainderUnsigned(mix(this._seed), 10000000000L)) % 10000000000L;
+		for (int i = 15; i >= 6; --i){
+			vin[i] = (char) ('0' + digits % 10);
+			digits /= 10;
+		}
+		return new String(vin);
+	}
+
+	/**
+	 * Cars 0 to customers - 1 are the first car of each customer, the next
+	 * ones the extra cars of the fleet owners, the rest owned at random.
+	 *
+	 * @return the customer id of the owner of a car
+	 */
+	int owner(int car){
+		if (car < this._customers){
+			return car;
+		}//end if
+		int fleetCar = car - this._customers;
+		if (fleetCar < this._fleetOwners * (this._fleetCars - 1)){
+			return fleetOwner(fleetCar / (this._fleetCars - 1));
+		}//end if
+		return (int) Long.remainderUnsigned(hash(2, car), this._customers);
+	}
+
+	//fleet owners are spread over the customer ids
+	private int fleetOwner(int fleet){
+		return (int) ((long) fleet * this._customers / this._fleetOwners);
+	}
+
+	//hot VINs are spread over the car numbers
+	private int hotCar(int hot){
+		return (int) Long.remainderUnsigned(hash(3, hot), this._cars);
+	}
+
+	private static String date(LocalDate day){
+		return day.getMonthValue() + "/" + day.getDayOfMonth() + "/" + day.getYear() + " 00:00";
+	}
+
+	private static String pick(String[] values, SplittableRandom random){
+		return values[random.nextInt(values.length)];
+	}
+
+	/**
+	 * Method to write the six files.
+	 *
+	 * @param out the directory the files are written to
+	 */
+	public void generate(File out) throws Exception {
+		if (!out.isDirectory() && !out.mkdirs()){
+			throw new IOException("Cannot create " + out);
+		}//end if
+		long start = System.nanoTime();
+		long rows = 0;
+		ExecutorService workers = Executors.newFixedThreadPool(this._threads);
+		try{
+			rows += write(workers, out, 0, this._customers, new Block(){
+				public void rows(int from, int to, SplittableRandom random, StringBuilder[] out){
+					for (int id = from; id < to; ++id){
+						out[0].append(id).append(',').append(pick(_fnames, random)).append(',').append(pick(_lnames, random))
+							.append(",(").append(100 + random.nextInt(900)).append(')').append(100 + random.nextInt(900))
+							.append('-').append(1000 + random.nextInt(9000)).append(',')
+							.append(1 + random.nextInt(9999)).append(' ').append(pick(_streets, random)).append(EOL);
+					}
+				}
+			}, "customer.csv");
+			rows += write(workers, out, 1, this._mechanics, new Block(){
+				public void rows(int from, int to, SplittableRandom random, StringBuilder[] out){
+					for (int id = from; id < to; ++id){
+						out[0].append(id).append(',').append(pick(_fnames, random)).append(',').append(pick(_lnames, random))
+							.append(',').append(random.nextInt(11)).append(EOL);
+					}
+				}
+			}, "mechanic.csv");
+			rows += write(workers, out, 2, this._cars, new Block(){
+				public void rows(int from, int to, SplittableRandom random, StringBuilder[] out){
+					for (int car = from; car < to; ++car){
+						String vin = vin(car);
+						out[0].append(vin).append(',').append(pick(_makeModels, random)).append(',')
+							.append(1990 + random.nextInt(29)).append(EOL);
+						out[1].append(car).append(',').append(owner(car)).append(',').append(vin).append(EOL);
+					}
+				}
+			}, "car.csv", "owns.csv");
+			final int days = 366;
+			rows += write(workers, out, 3, this._requests, new Block(){
+				public void rows(int from, int to, SplittableRandom random, StringBuilder[] out){
+					for (int rid = from; rid < to; ++rid){
+						int car = random.nextDouble() < _hotShare ? hotCar(random.nextInt(_hotVins)) : random.nextInt(_cars);
+						LocalDate opened = FIRST_DAY.plusDays(random.nextInt(days));
+						out[0].append(rid).append(',').append(owner(car)).append(',').append(vin(car)).append(',')
+							.append(date(opened)).append(',').append(MIN_ODOMETER + random.nextInt(MAX_ODOMETER - MIN_ODOMETER)).append(',')
+							.append(pick(_complaints, random)).append(EOL);
+						if (random.nextDouble() < _closed){
+							//the wid is the rid it closes, so blocks need not count the closed requests before them
+							out[1].append(rid).append(',').append(rid).append(',').append(random.nextInt(_mechanics)).append(',')
+								.append(date(opened.plusDays(random.nextInt(31)))).append(',').append(pick(_comments, random))
+								.append(',').append(50 + random.nextInt(951)).append(EOL);
+						}//end if
+					}
+				}
+			}, "service_request.csv", "closed_request.csv");
+		}finally{
+			workers.shutdown();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Wrote %d rows to %s in %.1f s (%.0f rows/s)%n", rows, out, seconds, rows / seconds);
+		System.out.println(this._fleetOwners + " customers own " + this._fleetCars + " cars or more; "
+			+ this._hotVins + " VINs get about " + Math.round(this._hotShare * 100) + "% of the service requests");
+	}//end generate
+
+	/**
+	 * Method to generate a table block by block on the workers and write
+	 * the blocks in order.  At most two blocks per thread are held in
+	 * memory.
+	 *
+	 * @param table numbers the table in the block seeds
+	 * @return the number of lines written
+	 */
+	private long write(ExecutorService workers, File dir, final int table, int rows, final Block block, String... files)
+			throws Exception {
+		long start = System.nanoTime();
+		OutputStream[] out = new OutputStream[files.length];
+		long[] lines = new long[files.length];
+		try{
+			for (int i = 0; i < files.length; ++i){
+				out[i] = new FileOutputStream(new File(dir, files[i]));
+			}
+			ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+			for (long from = 0; from < rows || !pending.isEmpty(); from += BLOCK){
+				if (from < rows){
+					final int first = (int) from;
+					final int last = (int) Math.min(from + BLOCK, rows);
+					final int outputs = files.length;
+					pending.add(workers.submit(new Callable<Chunk>(){
+						public Chunk call(){
+							StringBuilder[] text = new StringBuilder[outputs];
+							for (int i = 0; i < outputs; ++i){
+								text[i] = new StringBuilder((last - first) * 64);
+							}
+							block.rows(first, last, new SplittableRandom(mix(_seed + mix(table * 0x100000000L + first / BLOCK))), text);
+							//encoded here, so the one writing thread only copies bytes
+							Chunk chunk = new Chunk(outputs);
+							for (int i = 0; i < outputs; ++i){
+								chunk.bytes[i] = text[i].toString().getBytes(StandardCharsets.UTF_8);
+								for (byte b : chunk.bytes[i]){
+									if (b == '\n'){
+										++chunk.lines[i];
+									}//end if
+								}
+							}
+							return chunk;
+						}
+					}));
+				}//end if
+				if (pending.size() >= this._threads * 2 || (from >= rows && !pending.isEmpty())){
+					Chunk chunk = pending.poll().get();
+					for (int i = 0; i < files.length; ++i){
+						out[i].write(chunk.bytes[i]);
+						lines[i] += chunk.lines[i];
+					}
+				}//end if
+			}
+		}finally{
+			for (OutputStream stream : out){
+				if (stream != null){
+					stream.close();
+				}//end if
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long total = 0;
+		for (int i = 0; i < files.length; ++i){
+			System.out.printf("%-20s %,12d rows%n", files[i], lines[i]);
+			total += lines[i];
+		}
+		System.out.printf("%-20s %12.1f s%n", "", seconds);
+		return total;
+	}//end write
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args <out dir> [--requests N] [--customers N] [--mechanics N] [--cars N] [--seed N] [--threads N]
+	 *             [--fleet-owners N] [--fleet-cars N] [--hot-vins N] [--hot-share P] [--closed P] [--vocabulary dir]
+	 */
+	public static void main (String[] args) {
+		if (args.length < 1 || args.length % 2 != 1 || args[0].startsWith("--")) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + DataGenerator.class.getName () +
+		            " <out dir> [--requests N] [--customers N] [--mechanics N] [--cars N] [--seed N] [--threads N]"
+		            + " [--fleet-owners N] [--fleet-cars N] [--hot-vins N] [--hot-share P] [--closed P] [--vocabulary dir]");
+			return;
+		}//end if
+		try{
+			Map<String, String> options = new HashMap<String, String>();
+			for (int i = 1; i < args.length; i += 2){
+				options.put(args[i], args[i + 1]);
+			}
+			//the shipped proportions: 30000 requests, 500 customers, 250 mechanics, 5000 cars
+			int requests = Integer.parseInt(option(options, "--requests", "30000"));
+			int customers = Integer.parseInt(option(options, "--customers", Integer.toString(Math.max(1, requests / 60))));
+			int mechanics = Integer.parseInt(option(options, "--mechanics", Integer.toString(Math.max(1, requests / 120))));
+			int fleetOwners = Integer.parseInt(option(options, "--fleet-owners", Integer.toString(customers / 100)));
+			int fleetCars = Integer.parseInt(option(options, "--fleet-cars", "25"));
+			int cars = Integer.parseInt(option(options, "--cars",
+				Long.toString(Math.max(requests / 6, customers + (long) fleetOwners * (fleetCars - 1)))));
+			int hotVins = Integer.parseInt(option(options, "--hot-vins", Integer.toString(cars / 100)));
+			double hotShare = Double.parseDouble(option(options, "--hot-share", "0.2"));
+			double closed = Double.parseDouble(option(options, "--closed", "1.0"));
+			long seed = Long.parseLong(option(options, "--seed", "1"));
+			int threads = Integer.parseInt(option(options, "--threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+			File vocabulary = new File(option(options, "--vocabulary", "../data"));
+			if (!options.isEmpty()){
+				throw new IllegalArgumentException("Unknown option " + options.keySet().iterator().next());
+			}//end if
+			new DataGenerator(vocabulary, seed, threads, customers, mechanics, cars, requests,
+				fleetOwners, fleetCars, hotVins, hotShare, closed).generate(new File(args[0]));
+		}catch(Exception e){
+			System.err.println("Generation failed: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	private static String option(Map<String, String> options, String name, String otherwise){
+		String value = options.remove(name);
+		return value == null ? otherwise : value;
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * Minimal JSON reader and writer helpers
+ * ======================================
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class reads the small JSON documents sent to the HTTP service and
+ * quotes strings for the JSON it writes, so the tree does not need a JSON
+ * library.  Objects become LinkedHashMaps, arrays ArrayLists, numbers Long
+ * or Double, and true/false/null Boolean or null.
+ */
+
+public class Json{
+	private final String _text;
+	private int _pos = 0;
+
+	private Json(String text){
+		this._text = text;
+	}
+
+	/**
+	 * Method to parse one JSON value.
+	 *
+	 * @param text the document
+	 * @return the value, see the class comment for the types
+	 * @throws IllegalArgumentException when the document is not valid JSON
+	 */
+	public static Object parse(String text){
+		Json reader = new Json(text);
+		Object value = reader.value();
+		reader.skipSpace();
+		if (reader._pos != text.length()){
+			throw reader.error("unexpected text after the value");
+		}//end if
+		return value;
+	}//end parse
+
+	/**
+	 * Method to parse a document that must be a JSON object.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, Object> parseObject(String text){
+		Object value = parse(text);
+		if (!(value instanceof Map)){
+			throw new IllegalArgumentException("expected a JSON object");
+		}//end if
+		return (Map<String, Object>) value;
+	}//end parseObject
+
+	/**
+	 * Method to quote a string as a JSON string literal, or return null for
+	 * null.
+	 */
+	public static String quote(String value){
+		if (value == null){
+			return "null";
+		}//end if
+		StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+		for (int i = 0; i < value.length(); ++i){
+			char c = value.charAt(i);
+			switch (c){
+				case '"': out.append("\\\""); break;
+				case '\\': out.append("\\\\"); break;
+				case '\n': out.append("\\n"); break;
+				case '\r': out.append("\\r"); break;
+				case '\t': out.append("\\t"); break;
+				default:
+					if (c < 0x20){
+						out.append(String.format("\\u%04x", (int) c));
+					}else{
+						out.append(c);
+					}//end if
+			}
+		}
+		return out.append('"').toString();
+	}//end quote
+
+	private Object value(){
+		skipSpace();
+		if (this._pos >= this._text.length()){
+			throw error("unexpected end of input");
+		}//end if
+		char c = this._text.charAt(this._pos);
+		switch (c){
+			case '{': return object();
+			case '[': return array();
+			case '"': return string();
+			case 't': literal("true"); return Boolean.TRUE;
+			case 'f': literal("false"); return Boolean.FALSE;
+			case 'n': literal("null"); return null;
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')){
+					return number();
+				}//end if
+				throw error("unexpected character '" + c + "'");
+		}
+	}//end value
+
+	private Map<String, Object> object(){
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		++this._pos;
+		skipSpace();
+		if (peek('}')){
+			++this._pos;
+			return result;
+		}//end if
+		while (true){
+			skipSpace();
+			if (!peek('"')){
+				throw error("expected a member name");
+			}//end if
+			String name = string();
+			skipSpace();
+			expect(':');
+			result.put(name, value());
+			skipSpace();
+			if (peek(',')){
+				++this._pos;
+			}else{
+				expect('}');
+				return result;
+			}//end if
+		}//end while
+	}//end object
+
+	private List<Object> array(){
+		List<Object> result = new ArrayList<Object>();
+		++this._pos;
+		skipSpace();
+		if (peek(']')){
+			++this._pos;
+			return result;
+		}//end if
+		while (true){
+			result.add(value());
+			skipSpace();
+			if (peek(',')){
+				++this._pos;
+			}else{
+				expect(']');
+				return result;
+			}//end if
+		}//end while
+	}//end array
+
+	private String string(){
+		StringBuilder out = new StringBuilder();
+		++this._pos;
+		while (this._pos < this._text.length()){
+			char c = this._text.charAt(this._pos++);
+			if (c == '"'){
+				return out.toString();
+			}//end if
+			if (c != '\\'){
+				out.append(c);
+				continue;
+			}//end if
+			if (this._pos >= this._text.length()){
+				break;
+			}//end if
+			char e = this._text.charAt(this._pos++);
+			switch (e){
+				case '"': case '\\': case '/': out.append(e); break;
+				case 'b': out.append('\b'); break;
+				case 'f': out.append('\f'); break;
+				case 'n': out.append('\n'); break;
+				case 'r': out.append('\r'); break;
+				case 't': out.append('\t'); break;
+				case 'u':
+					if (this._pos + 4 > this._text.length()){
+						throw error("bad unicode escape");
+					}//end if
+					try{
+						out.append((char) Integer.parseInt(this._text.substring(this._pos, this._pos + 4), 16));
+					}catch (NumberFormatException ex){
+						throw error("bad unicode escape");
+					}
+					this._pos += 4;
+					break;
+				default: throw error("bad escape '\\" + e + "'");
+			}
+		}//end while
+		throw error("unterminated string");
+	}//end string
+
+	private Object number(){
+		int start = this._pos;
+		while (this._pos < this._text.length() && "+-0123456789.eE".indexOf(this._text.charAt(this._pos)) >= 0){
+			++this._pos;
+		}//end while
+		String token = this._text.substring(start, this._pos);
+		try{
+			if (token.indexOf('.') < 0 && token.indexOf('e') < 0 && token.indexOf('E') < 0){
+				return Long.valueOf(token);
+			}//end if
+			return Double.valueOf(token);
+		}catch (NumberFormatException e){
+			throw error("bad number '" + token + "'");
+		}
+	}//end number
+
+	private void literal(String word){
+		if (!this._text.startsWith(word, this._pos)){
+			throw error("unexpected character '" + this._text.charAt(this._pos) + "'");
+		}//end if
+		this._pos += word.length();
+	}
+
+	private void skipSpace(){
+		while (this._pos < this._text.length() && Character.isWhitespace(this._text.charAt(this._pos))){
+			++this._pos;
+		}//end while
+	}
+
+	private boolean peek(char c){
+		return this._pos < this._text.length() && this._text.charAt(this._pos) == c;
+	}
+
+	private void expect(char c){
+		if (!peek(c)){
+			throw error("expected '" + c + "'");
+		}//end if
+		++this._pos;
+	}
+
+	private IllegalArgumentException error(String message){
+		return new IllegalArgumentException("Invalid JSON at offset " + this._pos + ": " + message);
+	}
+}
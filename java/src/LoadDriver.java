@@ -0,0 +1,440 @@
+/*
+ * Concurrent load driver
+ * ======================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class measures how the shop scales with concurrent users: N client
+ * threads run a weighted mix of the core write operations of MechanicShop
+ * and the five reports for a fixed time, each client on a session of its
+ * own that borrows a pooled connection per operation like the console menu
+ * does.  The run is repeated for every client count asked for.
+ *
+ * Per operation it reports throughput, latency percentiles, errors and
+ * duplicate key violations (SQLState 23505).  While clients run, a
+ * separate connection samples pg_locks ten times a second for lock
+ * requests that are not granted, and the deadlocks counted by
+ * pg_stat_database during the run are reported with them.  Pool waits show
+ * up in the pool statistics printed after each run.
+ *
+ * Writes go through insertCustomerWithCar, insertServiceRequest and
+ * closeServiceRequest; a share of the new cars reuse a VIN that is already
+ * in the system, to measure how duplicate keys are handled under load.
+ * Every run adds rows, so reload the database before comparing two runs.
+ */
+
+public class LoadDriver{
+	/**
+	 * The latency and failures of one operation during one run.
+	 */
+	static final class Result{
+		final ShopMetrics.Histogram latency = new ShopMetrics.Histogram();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong duplicates = new AtomicLong();
+		final Map<String, AtomicLong> states = new TreeMap<String, AtomicLong>();
+
+		synchronized void failed(SQLException e){
+			if ("23505".equals(e.getSQLState())){
+				this.duplicates.incrementAndGet();
+				return;
+			}//end if
+			this.errors.incrementAndGet();
+			String state = String.valueOf(e.getSQLState());
+			AtomicLong count = this.states.get(state);
+			if (count == null){
+				this.states.put(state, count = new AtomicLong());
+			}//end if
+			count.incrementAndGet();
+		}
+	}
+
+	static final String[] OPERATIONS = { "AddCustomer", "InsertServiceRequest", "CloseServiceRequest", "Reports" };
+
+	static final String[][] REPORTS = {
+		{ "ListCustomersWithBillLessThan100", MechanicShop.BILL_UNDER_100_REPORT },
+		{ "ListCustomersWithMoreThan20Cars", MechanicShop.MORE_THAN_20_CARS_REPORT },
+		{ "ListCarsBefore1995With50000Milles", MechanicShop.CARS_BEFORE_1995_REPORT },
+		{ "ListKCarsWithTheMostServices", MechanicShop.TOP_K_CARS_REPORT },
+		{ "ListCustomersInDescendingOrderOfTheirTotalBill", MechanicShop.TOTAL_BILL_REPORT }
+	};
+
+	//unique per run so repeated runs against one database never collide
+	private static final String RUN = Long.toString(System.currentTimeMillis() % 2176782336L, 36);
+	private static final AtomicLong SEQ = new AtomicLong();
+
+	private final String _url;
+	private final Properties _props;
+	//weight of each of OPERATIONS
+	private final int[] _weights;
+	private final int _totalWeight;
+	private final double _duplicateShare;
+
+	//rows the clients pick from: (customer id, VIN) of the cars, mechanics and open service requests
+	private final List<Object[]> _owned = new ArrayList<Object[]>();
+	private int[] _mechanics;
+	private final ConcurrentLinkedQueue<Integer> _open = new ConcurrentLinkedQueue<Integer>();
+	//service requests known to exist, closed again once no open one is left
+	private final List<Integer> _rids = new ArrayList<Integer>();
+
+	public LoadDriver(String url, Properties props, int[] weights, double duplicateShare){
+		this._url = url;
+		this._props = props;
+		this._weights = weights;
+		int total = 0;
+		for (int weight : weights){
+			total += weight;
+		}
+		if (total <= 0){
+			throw new IllegalArgumentException("the mix needs at least one operation");
+		}//end if
+		this._totalWeight = total;
+		this._duplicateShare = duplicateShare;
+	}
+
+	/**
+	 * Method to read the cars with their owners, the mechanics and the open
+	 * service requests the clients pick from.
+	 */
+	void prepare(MechanicShop session) throws SQLException {
+		session.executeQueryAndStream("SELECT owns.customer_id, owns.car_vin FROM Owns owns", new MechanicShop.RowHandler(){
+			public void handle(ResultSet rs) throws SQLException {
+				_owned.add(new Object[]{ rs.getInt(1), rs.getString(2).trim() });
+			}
+		});
+		final List<Integer> mechanics = new ArrayList<Integer>();
+		session.executeQueryAndStream("SELECT mechanic.id FROM Mechanic mechanic", new MechanicShop.RowHandler(){
+			public void handle(ResultSet rs) throws SQLException {
+				mechanics.add(rs.getInt(1));
+			}
+		});
+		this._mechanics = new int[mechanics.size()];
+		for (int i = 0; i < this._mechanics.length; ++i){
+			this._mechanics[i] = mechanics.get(i);
+		}
+		session.executeQueryAndStream("SELECT service.rid FROM Service_Request service WHERE NOT EXISTS "
+				+ "(SELECT 1 FROM Closed_Request close WHERE close.rid = service.rid)", new MechanicShop.RowHandler(){
+			public void handle(ResultSet rs) throws SQLException {
+				_open.add(rs.getInt(1));
+			}
+		});
+		session.executeQueryAndStream("SELECT service.rid FROM Service_Request service ORDER BY service.rid DESC LIMIT 10000",
+				new MechanicShop.RowHandler(){
+			public void handle(ResultSet rs) throws SQLException {
+				_rids.add(rs.getInt(1));
+			}
+		});
+		if (this._owned.isEmpty() || this._mechanics.length == 0){
+			throw new SQLException("The database needs at least one car and one mechanic");
+		}//end if
+		if (this._rids.isEmpty() && this._weights[2] > 0){
+			throw new SQLException("CloseServiceRequest needs at least one service request in the database");
+		}//end if
+		//the customer index is loaded by the first AddCustomer otherwise
+		MechanicShop.customerIndex(session);
+	}//end prepare
+
+	private Object[] randomCar(ThreadLocalRandom random){
+		synchronized (this._owned){
+			return this._owned.get(random.nextInt(this._owned.size()));
+		}
+	}
+
+	/**
+	 * Method to run one operation of the mix.
+	 *
+	 * @param operation an index of OPERATIONS for a write, 3 + an index of REPORTS for a report
+	 */
+	private void runOne(MechanicShop session, ThreadLocalRandom random, int operation) throws SQLException {
+		switch (operation){
+			case 0: {
+				long seq = SEQ.incrementAndGet();
+				String vin = random.nextDouble() < this._duplicateShare ? (String) randomCar(random)[1]
+					: String.format("L%6s%09d", RUN, seq).replace(' ', '0').toUpperCase();
+				int id = MechanicShop.insertCustomerWithCar(session, "Load", "L" + RUN + seq, "(555)555-0100",
+					"1 Load Test Way", vin, "Toyota", "Prius", 2012);
+				synchronized (this._owned){
+					this._owned.add(new Object[]{ id, vin });
+				}
+				break;
+			}
+			case 1: {
+				Object[] car = randomCar(random);
+				int rid = MechanicShop.insertServiceRequest(session, (Integer) car[0], (String) car[1],
+					DataGenerator.MIN_ODOMETER + random.nextInt(DataGenerator.MAX_ODOMETER - DataGenerator.MIN_ODOMETER),
+					"Load test complaint");
+				this._open.add(rid);
+				synchronized (this._rids){
+					this._rids.add(rid);
+				}
+				break;
+			}
+			case 2: {
+				//with no open request left, a known one is closed again, which the schema allows
+				Integer rid = this._open.poll();
+				if (rid == null){
+					synchronized (this._rids){
+						rid = this._rids.get(random.nextInt(this._rids.size()));
+					}
+				}//end if
+				MechanicShop.closeServiceRequest(session, rid,
+					this._mechanics[random.nextInt(this._mechanics.length)], "Load test comment", 50 + random.nextInt(951));
+				break;
+			}
+			default: {
+				MechanicShop.RowHandler ignore = new MechanicShop.RowHandler(){
+					public void handle(ResultSet rs){
+					}
+				};
+				//report 9 takes K; reports run on the replica when one is configured
+				if (operation - 3 == 3){
+					session.reportSession().executeQueryAndStream(REPORTS[operation - 3][1], ignore, 10);
+				}else{
+					session.reportSession().executeQueryAndStream(REPORTS[operation - 3][1], ignore);
+				}//end if
+			}
+		}
+	}//end runOne
+
+	/**
+	 * @return an operation of the mix as runOne takes it, a report picked at random for Reports
+	 */
+	private int pickOperation(ThreadLocalRandom random){
+		int ticket = random.nextInt(this._totalWeight);
+		int operation = this._weights.length - 1;
+		for (int i = 0; i < this._weights.length; ++i){
+			ticket -= this._weights[i];
+			if (ticket < 0){
+				operation = i;
+				break;
+			}//end if
+		}
+		return operation < 3 ? operation : 3 + random.nextInt(REPORTS.length);
+	}
+
+	/**
+	 * Method to run the mix with a number of clients and print what was
+	 * measured.
+	 *
+	 * @param clients the number of concurrent clients
+	 * @param poolSize the most connections the clients share
+	 * @param warmupSeconds how long the clients run before measuring
+	 * @param seconds how long the clients are measured
+	 * @return a one line summary of the run
+	 */
+	String run(int clients, int poolSize, int warmupSeconds, int seconds) throws Exception {
+		final Map<String, Result> results = new LinkedHashMap<String, Result>();
+		for (String operation : OPERATIONS){
+			if (!operation.equals("Reports")){
+				results.put(operation, new Result());
+			}//end if
+		}
+		for (String[] report : REPORTS){
+			results.put(report[0], new Result());
+		}
+
+		final ShopMetrics.Histogram all = new ShopMetrics.Histogram();
+		final ConnectionPool pool = new ConnectionPool(this._url, this._props, poolSize, 30000L, 2, 5000L, 0L);
+		Connection monitor = DriverManager.getConnection(this._url, this._props);
+		try{
+			final long measureFrom = System.nanoTime() + warmupSeconds * 1000000000L;
+			final long stopAt = measureFrom + seconds * 1000000000L;
+			final CountDownLatch done = new CountDownLatch(clients);
+			for (int c = 0; c < clients; ++c){
+				Thread client = new Thread(new Runnable(){
+					public void run(){
+						MechanicShop session = new MechanicShop(pool);
+						ThreadLocalRandom random = ThreadLocalRandom.current();
+						try{
+							long now;
+							while ((now = System.nanoTime()) < stopAt){
+								int operation = pickOperation(random);
+								Result result = results.get(operation < 3 ? OPERATIONS[operation] : REPORTS[operation - 3][0]);
+								try{
+									runOne(session, random, operation);
+									long end = System.nanoTime();
+									if (now >= measureFrom){
+										result.latency.record(end - now);
+										all.record(end - now);
+									}//end if
+								}catch (SQLException e){
+									if (now >= measureFrom){
+										result.failed(e);
+									}//end if
+								}finally{
+									session.releaseConnection();
+								}
+							}//end while
+						}finally{
+							done.countDown();
+						}
+					}
+				}, "load-client-" + (c + 1));
+				client.setDaemon(true);
+				client.start();
+			}
+
+			//lock requests that are not granted, sampled while the clients are measured
+			long samples = 0;
+			long waiting = 0;
+			long maxWaiting = 0;
+			long deadlocks = -deadlocks(monitor);
+			while (!done.await(100, TimeUnit.MILLISECONDS)){
+				if (System.nanoTime() < measureFrom){
+					deadlocks = -deadlocks(monitor);
+					continue;
+				}//end if
+				long count = count(monitor, "SELECT count(*) FROM pg_locks WHERE NOT granted");
+				++samples;
+				waiting += count;
+				maxWaiting = Math.max(maxWaiting, count);
+			}//end while
+			deadlocks += deadlocks(monitor);
+
+			long operations = 0;
+			long failures = 0;
+			long duplicates = 0;
+			System.out.println();
+			System.out.printf("== %d clients, %d connections, %d s%n", clients, poolSize, seconds);
+			System.out.printf("%-48s %9s %9s %8s %8s %8s %8s %7s %9s%n", "operation", "ops", "ops/s",
+				"p50 ms", "p90 ms", "p99 ms", "p999 ms", "errors", "dup keys");
+			for (Map.Entry<String, Result> entry : results.entrySet()){
+				Result result = entry.getValue();
+				ShopMetrics.Histogram latency = result.latency;
+				long count = latency.getCount();
+				operations += count;
+				failures += result.errors.get();
+				duplicates += result.duplicates.get();
+				if (count == 0 && result.errors.get() == 0 && result.duplicates.get() == 0){
+					continue;
+				}//end if
+				System.out.printf("%-48s %9d %9.1f %8.2f %8.2f %8.2f %8.2f %7d %9d%s%n", entry.getKey(), count,
+					count / (double) seconds, latency.percentile(0.5) / 1e6, latency.percentile(0.9) / 1e6,
+					latency.percentile(0.99) / 1e6, latency.percentile(0.999) / 1e6, result.errors.get(),
+					result.duplicates.get(), result.states.isEmpty() ? "" : "  SQLState " + result.states);
+			}
+			long attempts = operations + failures + duplicates;
+			System.out.printf("lock waits: %.2f waiting on average, %d at most (%d samples); %d deadlocks%n",
+				samples == 0 ? 0.0 : waiting / (double) samples, maxWaiting, samples, deadlocks);
+			System.out.println(pool.getStats());
+			if (MechanicShop.getReplicaStats() != null){
+				System.out.println(MechanicShop.getReplicaStats());
+			}//end if
+			return String.format("%7d %10.1f %9.2f %9.2f %8.2f %8.2f", clients, operations / (double) seconds,
+				all.percentile(0.5) / 1e6, all.percentile(0.99) / 1e6,
+				attempts == 0 ? 0.0 : 100.0 * failures / attempts, attempts == 0 ? 0.0 : 100.0 * duplicates / attempts);
+		}finally{
+			monitor.close();
+			pool.close();
+		}
+	}//end run
+
+	private static long deadlocks(Connection monitor) throws SQLException {
+		return count(monitor, "SELECT deadlocks FROM pg_stat_database WHERE datname = current_database()");
+	}
+
+	private static long count(Connection connection, String sql) throws SQLException {
+		Statement stmt = connection.createStatement();
+		try{
+			ResultSet rs = stmt.executeQuery(sql);
+			return rs.next() ? rs.getLong(1) : 0L;
+		}finally{
+			stmt.close();
+		}
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args <dbname> <port> <user> [--clients 1,2,4,8] [--pool N] [--warmup S] [--duration S]
+	 *             [--mix AddCustomer=10,InsertServiceRequest=30,CloseServiceRequest=30,Reports=30] [--duplicates P]
+	 */
+	public static void main (String[] args) {
+		if (args.length < 3 || args.length % 2 != 1) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + LoadDriver.class.getName () +
+		            " <dbname> <port> <user> [--clients 1,2,4,8] [--pool N] [--warmup S] [--duration S]"
+		            + " [--mix AddCustomer=10,InsertServiceRequest=30,CloseServiceRequest=30,Reports=30] [--duplicates P]");
+			return;
+		}//end if
+		try{
+			Map<String, String> options = new HashMap<String, String>();
+			for (int i = 3; i < args.length; i += 2){
+				options.put(args[i], args[i + 1]);
+			}
+			String[] clients = option(options, "--clients", "1,2,4,8").split(",");
+			String pool = options.remove("--pool");
+			int warmup = Integer.parseInt(option(options, "--warmup", "5"));
+			int duration = Integer.parseInt(option(options, "--duration", "30"));
+			double duplicates = Double.parseDouble(option(options, "--duplicates", "0.01"));
+			int[] weights = new int[OPERATIONS.length];
+			for (String part : option(options, "--mix",
+					"AddCustomer=10,InsertServiceRequest=30,CloseServiceRequest=30,Reports=30").split(",")){
+				String[] pair = part.split("=");
+				int operation = Arrays.asList(OPERATIONS).indexOf(pair[0].trim());
+				if (pair.length != 2 || operation < 0){
+					throw new IllegalArgumentException("Unknown mix entry " + part + ", expected one of "
+						+ Arrays.toString(OPERATIONS) + " = weight");
+				}//end if
+				weights[operation] = Integer.parseInt(pair[1].trim());
+			}
+			if (!options.isEmpty()){
+				throw new IllegalArgumentException("Unknown option " + options.keySet().iterator().next());
+			}//end if
+
+			Class.forName("org.postgresql.Driver");
+			String url = MechanicShop.buildUrl(args[0], args[1]);
+			Properties props = MechanicShop.buildProperties(args[2], "");
+			LoadDriver driver = new LoadDriver(url, props, weights, duplicates);
+			ConnectionPool setup = new ConnectionPool(url, props, 1, 30000L, 2, 5000L, 0L);
+			MechanicShop session = new MechanicShop(setup);
+			try{
+				driver.prepare(session);
+			}finally{
+				session.releaseConnection();
+				setup.close();
+			}
+
+			List<String> summary = new ArrayList<String>();
+			for (String count : clients){
+				int n = Integer.parseInt(count.trim());
+				summary.add(driver.run(n, pool == null ? n : Integer.parseInt(pool), warmup, duration));
+			}
+			System.out.println();
+			System.out.printf("%7s %10s %9s %9s %8s %8s%n", "clients", "ops/s", "p50 ms", "p99 ms", "error %", "dup %");
+			for (String line : summary){
+				System.out.println(line);
+			}
+		}catch(Exception e){
+			System.err.println("Load test failed: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	private static String option(Map<String, String> options, String name, String otherwise){
+		String value = options.remove(name);
+		return value == null ? otherwise : value;
+	}
+}
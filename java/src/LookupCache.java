@@ -0,0 +1,170 @@
+/*
+ * Read-through lookup cache
+ * =========================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps the results of a keyed lookup query, so rows of the
+ * reference tables (Mechanic, Car, Owns) that are read again and again by
+ * the menu operations are fetched once and then served from memory.
+ *
+ * The cache is read-through: get() runs the loader on a miss and keeps its
+ * result.  It holds at most maxSize entries, evicting the least recently
+ * used one first, and an entry older than the time to live is loaded again
+ * so rows changed by another process are picked up.  A loader result of
+ * null means "not found" and is not kept, so a row inserted later is seen
+ * on the next lookup.  Writers call invalidate() for the keys they change.
+ *
+ * One cache is shared by every session of the JVM.  The loader runs
+ * outside the lock, so two sessions missing the same key may both load it;
+ * a load that overlaps an invalidation is returned but not kept.
+ */
+
+public class LookupCache<K, V>{
+	/**
+	 * Loads the value of a key from the database, or returns null when
+	 * there is none.
+	 */
+	public interface Loader<K, V>{
+		V load(K key) throws SQLException;
+	}
+
+	private static final class Entry<V>{
+		final V value;
+		final long loadedAt;
+
+		Entry(V value, long loadedAt){
+			this.value = value;
+			this.loadedAt = loadedAt;
+		}
+	}
+
+	private final String _name;
+	private final int _maxSize;
+	private final long _ttlMs;
+	private final LinkedHashMap<K, Entry<V>> _entries;
+	//bumped by every invalidation, a load only keeps its result when it did not change meanwhile
+	private long _generation = 0;
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+	private long _expirations = 0;
+
+	/**
+	 * @param name the name printed with the statistics
+	 * @param maxSize the most entries kept
+	 * @param ttlMs how long an entry is served before it is loaded again, 0 for no limit
+	 */
+	public LookupCache(String name, final int maxSize, long ttlMs){
+		this._name = name;
+		this._maxSize = maxSize;
+		this._ttlMs = ttlMs;
+		//access ordered so the eldest entry is the least recently used one
+		this._entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest){
+				if (size() > maxSize){
+					++_evictions;
+					return true;
+				}//end if
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Method to return the value of a key, loading it on a miss.
+	 *
+	 * @param key the lookup key
+	 * @param loader runs the lookup query on a miss
+	 * @return the value, or null when the loader found none
+	 * @throws java.sql.SQLException when the loader fails
+	 */
+	public V get(K key, Loader<K, V> loader) throws SQLException {
+		long generation;
+		synchronized (this){
+			Entry<V> entry = this._entries.get(key);
+			if (entry != null){
+				if (this._ttlMs <= 0 || System.currentTimeMillis() - entry.loadedAt < this._ttlMs){
+					++this._hits;
+					return entry.value;
+				}//end if
+				this._entries.remove(key);
+				++this._expirations;
+			}//end if
+			++this._misses;
+			generation = this._generation;
+		}
+		long loadedAt = System.currentTimeMillis();
+		V value = loader.load(key);
+		if (value != null && this._maxSize > 0){
+			synchronized (this){
+				if (generation == this._generation){
+					this._entries.put(key, new Entry<V>(value, loadedAt));
+				}//end if
+			}
+		}//end if
+		return value;
+	}//end get
+
+	/**
+	 * Method to return the value of a key only when it is cached, so a
+	 * caller can tell whether get() would run a query.  A miss is counted
+	 * by the get() that follows it.
+	 *
+	 * @return the value, or null when it is not cached or has expired
+	 */
+	public synchronized V peek(K key){
+		Entry<V> entry = this._entries.get(key);
+		if (entry == null || (this._ttlMs > 0 && System.currentTimeMillis() - entry.loadedAt >= this._ttlMs)){
+			return null;
+		}//end if
+		++this._hits;
+		return entry.value;
+	}//end peek
+
+	/**
+	 * Method to drop the entry of a key after its rows were changed.
+	 */
+	public synchronized void invalidate(K key){
+		++this._generation;
+		this._entries.remove(key);
+	}
+
+	/**
+	 * Method to drop every entry.
+	 */
+	public synchronized void invalidateAll(){
+		++this._generation;
+		this._entries.clear();
+	}
+
+	public synchronized int size(){
+		return this._entries.size();
+	}
+
+	/**
+	 * @return the share of lookups answered from the cache, between 0 and 1
+	 */
+	public synchronized double getHitRate(){
+		long lookups = this._hits + this._misses;
+		return lookups == 0 ? 0.0 : (double) this._hits / lookups;
+	}
+
+	/**
+	 * Method to render the cache counters on one line: entries, hits,
+	 * misses, hit rate, evictions and expired entries.
+	 */
+	public synchronized String getStats(){
+		return String.format("%s cache: %d/%d entries, %d hits, %d misses, %.1f%% hit rate, %d evictions, %d expired",
+			this._name, this._entries.size(), this._maxSize, this._hits, this._misses, getHitRate() * 100,
+			this._evictions, this._expirations);
+	}
+}
@@ -13,7 +13,7 @@
 
 import java.sql.DriverManager;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -24,6 +24,10 @@ import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.text.SimpleDateFormat;
 
 /**
@@ -33,19 +37,53 @@ import java.text.SimpleDateFormat;
  */
 
 public class MechanicShop{
+	//pool the physical connections are borrowed from
+	private ConnectionPool _pool = null;
+	//true when this session created the pool and has to close it
+	private boolean _ownsPool = false;
+	//pooled connection bound while a statement or transaction runs, null between them
+	private ConnectionPool.PooledConnection _pooled = null;
 	//reference to physical database connection
 	private Connection _connection = null;
-	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	//prepared statements of the physical connection, keyed by SQL template
+	private StatementCache _statements = null;
+	//true for the read-only session of a replica, which is never routed further
+	private final boolean _readOnly;
+	//session on the replica pool the reads of this session are routed to, created on the first one
+	private MechanicShop _replicaSession = null;
+	static BufferedReader in = new SessionIO.Input(System.in);
+	//rows fetched per round trip by the streaming reports
+	static final int DEFAULT_FETCH_SIZE = Integer.getInteger("mechanicshop.fetchSize", 1000);
+	//customers by last name for the customer pickers, shared by every session of the JVM
+	private static volatile CustomerIndex _customerIndex = null;
+	//set while one session reloads the customer index
+	private static final AtomicBoolean CUSTOMER_INDEX_RELOADING = new AtomicBoolean();
+	//columns of the tables reports 6, 8 and 10 read, when -Dmechanicshop.columnar=true
+	private static volatile ColumnarSnapshot _columnarSnapshot = null;
+	//read replica configured with -Dmechanicshop.replica.*, null when there is none
+	private static volatile ReplicaRouter _replica = null;
+	private static volatile boolean _replicaConfigured = false;
+	//reference rows read by the menu operations, shared by every session of the JVM
+	private static final LookupCache<Integer, ShopRows.Mechanic> MECHANICS = newLookupCache("mechanic");
+	private static final LookupCache<Integer, List<ShopRows.Car>> CARS_BY_OWNER = newLookupCache("cars by owner");
+	private static final LookupCache<String, Integer> OWNER_BY_VIN = newLookupCache("owner by VIN");
+	//rows of the reports printed in one go, kept when -Dmechanicshop.reportCache.size=ENTRIES is set
+	static final ReportCache REPORT_CACHE = Integer.getInteger("mechanicshop.reportCache.size", 0) <= 0 ? null
+		: new ReportCache(Integer.getInteger("mechanicshop.reportCache.size", 0),
+			Long.getLong("mechanicshop.reportCache.ttl", 60000L), Integer.getInteger("mechanicshop.reportCache.maxRows", 10000));
 	
 	public MechanicShop(String dbname, String dbport, String user, String passwd) throws SQLException {
+		this._readOnly = false;
 		System.out.print("Connecting to database...");
 		try{
 			// constructs the connection URL
-			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+			String url = buildUrl(dbname, dbport);
 			System.out.println ("Connection URL: " + url + "\n");
 			
 			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			this._pool = new ConnectionPool(url, buildProperties(user, passwd));
+			this._ownsPool = true;
+			statements();
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -53,23 +91,204 @@ public class MechanicShop{
 	        System.exit(-1);
 		}
 	}
+
+	/**
+	 * Creates a session that borrows its connections from a shared pool, one
+	 * per statement or transaction.
+	 *
+	 * @param pool the pool shared by the sessions of this JVM
+	 */
+	public MechanicShop(ConnectionPool pool){
+		this(pool, false);
+	}
+
+	private MechanicShop(ConnectionPool pool, boolean readOnly){
+		this._pool = pool;
+		this._readOnly = readOnly;
+	}
+
+	/**
+	 * Method to build the JDBC URL of a database on this machine.
+	 */
+	public static String buildUrl(String dbname, String dbport){
+		return "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+	}
+
+	/**
+	 * Method to build the connection properties shared by every physical
+	 * connection.
+	 */
+	public static Properties buildProperties(String user, String passwd){
+		Properties props = new Properties();
+		props.setProperty("user", user);
+		props.setProperty("password", passwd);
+		// number of executions of a statement before the driver switches to a named server-side prepare
+		props.setProperty("prepareThreshold", System.getProperty("mechanicshop.prepareThreshold", "1"));
+		return props;
+	}
+
+	/**
+	 * Method to return the statement cache of the bound connection,
+	 * borrowing a connection from the pool first if none is bound.
+	 */
+	private StatementCache statements() throws SQLException {
+		if (this._pooled == null){
+			this._pooled = this._pool.acquire();
+			this._connection = this._pooled.getConnection();
+			this._statements = this._pooled.getStatementCache();
+		}//end if
+		return this._statements;
+	}
+
+	/**
+	 * Method to borrow a connection for this session now rather than at its
+	 * next statement, e.g. to time the wait for a free one on its own.
+	 */
+	public void bind() throws SQLException {
+		statements();
+	}
+
+	/**
+	 * Method to hand the bound connections of this session and its replica
+	 * session back to the pool.  The next statement borrows a connection
+	 * again.
+	 */
+	public void releaseConnection(){
+		if (this._replicaSession != null){
+			this._replicaSession.releaseConnection();
+		}//end if
+		release();
+	}
+
+	private void release(){
+		if (this._pooled != null){
+			ConnectionPool.PooledConnection pc = this._pooled;
+			this._pooled = null;
+			this._connection = null;
+			this._statements = null;
+			this._pool.release(pc);
+		}//end if
+	}
+
+	/**
+	 * Method to hand the connection back after a statement unless a
+	 * transaction is open on it, so a session holds no connection while
+	 * the menu waits for the user.
+	 */
+	private void releaseIdle(){
+		boolean idle;
+		try{
+			idle = this._connection == null || this._connection.getAutoCommit();
+		}catch (SQLException e){
+			//the pool validates it
+			idle = true;
+		}
+		if (idle){
+			release();
+		}//end if
+	}
+
+	public ConnectionPool getPool(){
+		return this._pool;
+	}
+
+	/**
+	 * Method to return the replica router of the pool, configuring it on
+	 * the first call.
+	 *
+	 * @return the router, or null when no replica is configured
+	 */
+	static ReplicaRouter replica(ConnectionPool primary){
+		if (!_replicaConfigured){
+			synchronized (ReplicaRouter.class){
+				if (!_replicaConfigured){
+					_replica = ReplicaRouter.configure(primary);
+					_replicaConfigured = true;
+				}//end if
+			}
+		}//end if
+		return _replica;
+	}//end replica
+
+	/**
+	 * Method to return the session a report runs on: the replica's when
+	 * one is configured and not too far behind, this one otherwise.
+	 */
+	public MechanicShop reportSession(){
+		return readSession(false);
+	}
+
+	/**
+	 * Method to return the session a lookup runs on.  Unlike a report, a
+	 * lookup only goes to the replica once it has replayed the last write
+	 * of this JVM, so the caches never keep a row from before a write, and
+	 * it stays on this session inside a transaction.
+	 */
+	public MechanicShop lookupSession() throws SQLException {
+		if (this._connection != null && !this._connection.getAutoCommit()){
+			return this;
+		}//end if
+		return readSession(true);
+	}
+
+	private MechanicShop readSession(boolean afterWrites){
+		if (this._readOnly){
+			return this;
+		}//end if
+		ReplicaRouter router = replica(this._pool);
+		if (router == null || !router.useReplica(afterWrites)){
+			return this;
+		}//end if
+		if (this._replicaSession == null){
+			this._replicaSession = new MechanicShop(router.getPool(), true);
+		}//end if
+		return this._replicaSession;
+	}//end readSession
+
+	//called once a write has committed on the bound connection, to record its WAL position for the lookups
+	private void wrote(){
+		ReplicaRouter router = replica(this._pool);
+		if (router != null){
+			router.wrote(this._connection);
+		}//end if
+	}
+
+	/**
+	 * Method to return the asynchronous API of this session.  Its tasks
+	 * borrow their own connections from the same pool.
+	 */
+	public AsyncShop async(){
+		return new AsyncShop(this._pool);
+	}
 	
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
 	 * 
-	 * @param sql the input SQL string
+	 * @param sql the input SQL string, with '?' placeholders for the parameters
+	 * @param params the values bound to the placeholders
 	 * @throws java.sql.SQLException when update failed
 	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
-
-		// close the instruction
-	    stmt.close ();
+	public void executeUpdate (String sql, Object... params) throws SQLException { 
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		boolean failed = true;
+		try{
+			// fetches the cached statement object
+			PreparedStatement stmt = statements ().prepare (sql);
+			StatementCache.bind (stmt, params);
+
+			// issues the update instruction
+			rowCount = stmt.executeUpdate ();
+			failed = false;
+			//inside a transaction, executeInTransaction records the write once it commits
+			if (this._connection.getAutoCommit ()){
+				wrote ();
+			}//end if
+		}finally{
+			ShopMetrics.statement (sql, System.nanoTime () - start, rowCount, 0, failed);
+			releaseIdle ();
+		}
 	}//end executeUpdate
 
 	/**
@@ -77,42 +296,56 @@ public class MechanicShop{
 	 * method issues the query to the DBMS and outputs the results to
 	 * standard out.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with '?' placeholders for the parameters
+	 * @param params the values bound to the placeholders
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
 		int rowCount = 0;
+		long bytes = 0;
+		boolean failed = true;
+		try{
+			//fetches the cached statement object
+			PreparedStatement stmt = statements ().prepare (query);
+			StatementCache.bind (stmt, params);
+
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery ();
+
+			/*
+			 *  obtains the metadata object for the returned result set.  The metadata
+			 *  contains row and column info.
+			 */
+			ResultSetMetaData rsmd = rs.getMetaData ();
+			int numCol = rsmd.getColumnCount ();
 		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			//iterates through the result set and output them to standard out.
+			boolean outputHeader = true;
+			while (rs.next()){
+				if(outputHeader){
+					for(int i = 1; i <= numCol; i++){
+						System.out.print(rsmd.getColumnName(i) + "\t");
+				    }
+				    System.out.println();
+				    outputHeader = false;
+				}
+				for (int i=1; i<=numCol; ++i){
+					String value = rs.getString (i);
+					bytes += textBytes (value);
+					System.out.print (value + "\t");
+				}
+				System.out.println ();
+				++rowCount;
+			}//end while
+			rs.close ();
+			failed = false;
+			return rowCount;
+		}finally{
+			ShopMetrics.statement (query, System.nanoTime () - start, rowCount, bytes, failed);
+			releaseIdle ();
+		}
 	}
 	
 	/**
@@ -120,67 +353,393 @@ public class MechanicShop{
 	 * method issues the query to the DBMS and returns the results as
 	 * a list of records. Each record in turn is a list of attribute values
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with '?' placeholders for the parameters
+	 * @param params the values bound to the placeholders
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException { 
+		long start = System.nanoTime ();
+		long bytes = 0;
+		int rows = 0;
+		boolean failed = true;
+		try{
+			//fetches the cached statement object 
+			PreparedStatement stmt = statements ().prepare (query); 
+			StatementCache.bind (stmt, params);
 		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
+			//issues the query instruction 
+			ResultSet rs = stmt.executeQuery (); 
 	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
+			/*
+			 * obtains the metadata object for the returned result set.  The metadata 
+			 * contains row and column info. 
+			*/ 
+			ResultSetMetaData rsmd = rs.getMetaData (); 
+			int numCol = rsmd.getColumnCount (); 
+			int rowCount = 0; 
 	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+			//iterates through the result set and saves the data returned by the query. 
+			boolean outputHeader = false;
+			List<List<String>> result  = new ArrayList<List<String>>(); 
+			while (rs.next()){
+				List<String> record = new ArrayList<String>(); 
+				for (int i=1; i<=numCol; ++i){
+					String value = rs.getString (i);
+					bytes += textBytes (value);
+					record.add(value); 
+				}
+				result.add(record); 
+			}//end while 
+			rs.close (); 
+			rows = result.size ();
+			failed = false;
+			return result; 
+		}finally{
+			ShopMetrics.statement (query, System.nanoTime () - start, rows, bytes, failed);
+			releaseIdle ();
+		}
 	}//end executeQueryAndReturnResult
 	
+	/**
+	 * Callback that receives the rows of a streamed query one at a time.
+	 * The ResultSet is positioned on the current row and must not be
+	 * advanced or kept by the handler.
+	 */
+	public interface RowHandler{
+		void handle(ResultSet rs) throws SQLException;
+	}
+
+	/**
+	 * A RowHandler that is also told the columns of the result before its
+	 * first row, or when it has none, e.g. to write a header.
+	 */
+	public interface ColumnHandler extends RowHandler{
+		void columns(ResultSetMetaData meta) throws SQLException;
+	}
+
+	/**
+	 * Builds one typed row object from the current row of a ResultSet.
+	 * The row types of the schema and their mappers are in ShopRows.
+	 */
+	public interface RowMapper<T>{
+		T map(ResultSet rs) throws SQLException;
+	}
+
+	/**
+	 * Prints numbered report rows, whether they are streamed from the
+	 * database or come from the columnar snapshot as strings.  A streamed
+	 * row is read into one array reused for every row, so print() must not
+	 * keep it; only the rows kept for the report cache get their own.
+	 */
+	static abstract class RowPrinter implements RowHandler{
+		private int _count = 0;
+		private String[] _row = null;
+		//the streamed rows kept for the report cache, null when not kept or over _maxKept
+		private List<String[]> _kept = null;
+		private int _maxKept = 0;
+
+		public void handle(ResultSet rs) throws SQLException {
+			if (this._row == null){
+				this._row = new String[rs.getMetaData().getColumnCount()];
+			}//end if
+			String[] row = this._kept != null ? new String[this._row.length] : this._row;
+			for (int i = 0; i < row.length; ++i){
+				row[i] = rs.getString(i + 1);
+			}
+			print(++this._count, row);
+			if (this._kept != null){
+				if (this._kept.size() < this._maxKept){
+					this._kept.add(row);
+				}else{
+					this._kept = null;
+				}//end if
+			}//end if
+		}
+
+		/**
+		 * Method to keep the rows streamed from now on, up to maxRows.
+		 */
+		void keep(int maxRows){
+			this._kept = new ArrayList<String[]>();
+			this._maxKept = maxRows;
+		}
+
+		/**
+		 * @return the rows kept since keep(), or null when there were more than maxRows
+		 */
+		List<String[]> kept(){
+			return this._kept;
+		}
+
+		void printAll(List<String[]> rows){
+			for (String[] row : rows){
+				print(++this._count, row);
+			}
+		}
+
+		abstract void print(int i, String[] row);
+	}
+
+	//size of a value read as text, counted for the statement metrics
+	private static long textBytes(String value){
+		return value == null ? 0 : value.length ();
+	}
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
-	 * method issues the query to the DBMS and returns the number of results
+	 * method issues the query to the DBMS and returns the results as a list
+	 * of typed rows built by the mapper, reading every column once with its
+	 * own type instead of going through strings.
 	 * 
-	 * @param query the input query string
-	 * @return the number of rows returned
+	 * @param query the input query string, with '?' placeholders for the parameters
+	 * @param mapper builds one row object per result row
+	 * @param params the values bound to the placeholders
+	 * @return the query result as a list of typed rows
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public <T> List<T> executeQueryAndMap (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		List<T> result = new ArrayList<T>();
+		boolean failed = true;
+		try{
+			PreparedStatement stmt = statements ().prepare (query);
+			StatementCache.bind (stmt, params);
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+			ResultSet rs = stmt.executeQuery ();
+			try{
+				while (rs.next()){
+					result.add(mapper.map (rs));
+				}//end while
+			}finally{
+				rs.close ();
+			}
+			failed = false;
+		}finally{
+			ShopMetrics.statement (query, System.nanoTime () - start, result.size (), 0, failed);
+			releaseIdle ();
+		}
+		return result;
+	}//end executeQueryAndMap
 
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * hand every row to a callback as it arrives.  The query runs in a
+	 * transaction with a fetch size, so the driver reads the result through
+	 * a server-side cursor in batches of fetchSize rows: memory stays flat
+	 * however many rows come back, and the first row is handled before the
+	 * server has sent the last one.
+	 * 
+	 * @param query the input query string, with '?' placeholders for the parameters
+	 * @param fetchSize the number of rows fetched per round trip
+	 * @param handler the callback invoked once per row
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows streamed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndStream (String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+		long start = System.nanoTime ();
 		int rowCount = 0;
+		boolean failed = true;
+		try{
+			PreparedStatement stmt = statements ().prepare (query);
+			StatementCache.bind (stmt, params);
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			//cursors are only used outside autocommit
+			boolean autoCommit = this._connection.getAutoCommit ();
+			if (autoCommit){
+				this._connection.setAutoCommit (false);
+			}//end if
+			try{
+				stmt.setFetchSize (fetchSize);
+				ResultSet rs = stmt.executeQuery ();
+				try{
+					if (handler instanceof ColumnHandler){
+						((ColumnHandler) handler).columns (rs.getMetaData ());
+					}//end if
+					while (rs.next()){
+						handler.handle (rs);
+						++rowCount;
+					}//end while
+				}finally{
+					rs.close ();
+					stmt.setFetchSize (0);
+				}
+				if (autoCommit){
+					this._connection.commit ();
+				}//end if
+			}finally{
+				if (autoCommit){
+					//no-op after the commit above, ends the transaction when the query failed
+					this._connection.rollback ();
+					this._connection.setAutoCommit (true);
+				}//end if
+			}
+			failed = false;
+			return rowCount;
+		}finally{
+			//includes the time the handler spent on the rows
+			ShopMetrics.statement (query, System.nanoTime () - start, rowCount, 0, failed);
+			releaseIdle ();
+		}
+	}//end executeQueryAndStream
+
+	/**
+	 * Method to stream a query with the default fetch size, which is set
+	 * with -Dmechanicshop.fetchSize (1000 rows when unset).
+	 */
+	public int executeQueryAndStream (String query, RowHandler handler, Object... params) throws SQLException {
+		return executeQueryAndStream (query, DEFAULT_FETCH_SIZE, handler, params);
+	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the number of results
+	 * 
+	 * @param query the input query string, with '?' placeholders for the parameters
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQuery (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		boolean failed = true;
+		try{
+			//fetches the cached statement object
+			PreparedStatement stmt = statements ().prepare (query);
+			StatementCache.bind (stmt, params);
+
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery ();
+
+			//iterates through the result set and count nuber of results.
+			if(rs.next()){
+				rowCount++;
+			}//end while
+			rs.close ();
+			failed = false;
+			return rowCount;
+		}finally{
+			ShopMetrics.statement (query, System.nanoTime () - start, rowCount, 0, failed);
+			releaseIdle ();
+		}
 	}
 	
+	/**
+	 * Method to execute an INSERT ... RETURNING instruction and return the
+	 * generated key.  Keys come from the table sequences, so the insert and
+	 * the key allocation take a single round trip.
+	 * 
+	 * @param sql the INSERT statement, ending in RETURNING <key column>
+	 * @param params the values bound to the placeholders
+	 * @return the generated key of the inserted row
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public int executeInsertAndReturnKey (String sql, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		boolean failed = true;
+		try{
+			PreparedStatement stmt = statements ().prepare (sql);
+			StatementCache.bind (stmt, params);
+
+			ResultSet rs = stmt.executeQuery ();
+			try{
+				if (!rs.next()){
+					throw new SQLException("INSERT returned no key: " + sql);
+				}//end if
+				int key = rs.getInt (1);
+				failed = false;
+				if (this._connection.getAutoCommit ()){
+					wrote ();
+				}//end if
+				return key;
+			}finally{
+				rs.close ();
+			}
+		}finally{
+			ShopMetrics.statement (sql, System.nanoTime () - start, failed ? 0 : 1, 0, failed);
+			releaseIdle ();
+		}
+	}//end executeInsertAndReturnKey
+
+	/**
+	 * A unit of work run by executeInTransaction.  It may be run more than
+	 * once, so it must not have side effects outside the database.
+	 */
+	public interface Transaction<T>{
+		T run() throws SQLException;
+	}
+
+	/**
+	 * Method to run a unit of work in one transaction and commit it.  When
+	 * the server aborts the transaction with a serialization failure or a
+	 * deadlock (SQLSTATE 40001/40P01) the work is rolled back and run again,
+	 * up to -Dmechanicshop.maxRetries times (5 when unset), after a short
+	 * randomized back-off.  Any other failure rolls the work back once and is
+	 * rethrown.  Work started while a transaction is already open joins it
+	 * and is neither committed nor retried here.  A single statement does
+	 * not need this: it is atomic in autocommit and saves the COMMIT round
+	 * trip.
+	 * 
+	 * @param work the statements to run
+	 * @return the value returned by the work
+	 * @throws java.sql.SQLException when the work failed or ran out of retries
+	 */
+	public <T> T executeInTransaction (Transaction<T> work) throws SQLException {
+		statements ();
+		if (!this._connection.getAutoCommit ()){
+			return work.run ();
+		}//end if
+		int maxRetries = Integer.getInteger("mechanicshop.maxRetries", 5);
+		this._connection.setAutoCommit (false);
+		try{
+			for (int attempt = 0; ; ++attempt){
+				try{
+					T result = work.run ();
+					this._connection.commit ();
+					wrote ();
+					return result;
+				}catch (Throwable e){
+					//before autocommit is restored, which would commit what the work left
+					try{
+						this._connection.rollback ();
+					}catch (SQLException rollbackError){
+						e.addSuppressed (rollbackError);
+						throw e;
+					}
+					String state = e instanceof SQLException ? ((SQLException) e).getSQLState () : null;
+					if (attempt >= maxRetries || !("40001".equals(state) || "40P01".equals(state))){
+						throw e;
+					}//end if
+				}
+				backOff (attempt);
+			}//end for
+		}finally{
+			try{
+				this._connection.setAutoCommit (true);
+			}finally{
+				release ();
+			}
+		}
+	}//end executeInTransaction
+
+	private static void backOff(int attempt) throws SQLException {
+		long ceiling = 10L << Math.min(attempt, 6);
+		try{
+			Thread.sleep((long) (Math.random() * ceiling) + 1);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while retrying a transaction");
+		}
+	}//end backOff
+
 	/**
 	 * Method to fetch the last value from sequence. This
 	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
+	 * value of sequence used for autogenerated keys.  The connection is
+	 * handed back after every statement, so the insert must have run in
+	 * the same executeInTransaction.
 	 * 
 	 * @param sequence name of the DB sequence
 	 * @return current value of a sequence
@@ -188,24 +747,185 @@ public class MechanicShop{
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
+		PreparedStatement stmt = statements ().prepare ("SELECT currval(?::regclass)");
+		StatementCache.bind (stmt, sequence);
 		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+		ResultSet rs = stmt.executeQuery ();
+		try{
+			if (rs.next()) return rs.getInt(1);
+			return -1;
+		}finally{
+			rs.close ();
+			releaseIdle ();
+		}
+	}
+
+	/**
+	 * Method to return the prepared statement cache of the bound
+	 * connection, or null between statements.
+	 */
+	public StatementCache getStatementCache(){
+		return this._statements;
+	}
+
+	/**
+	 * Method to return the customer index, filling it from the database on
+	 * the first call.  It is reloaded once it is older than
+	 * -Dmechanicshop.customerIndex.maxAge seconds (300 when unset), which
+	 * picks up customers inserted by other processes; one session reloads
+	 * while the others keep using the old index.  Returns null when it is
+	 * turned off with -Dmechanicshop.customerIndex=false or the table
+	 * outgrew it.
+	 */
+	public static CustomerIndex customerIndex(MechanicShop esql) throws SQLException {
+		if (!Boolean.parseBoolean(System.getProperty("mechanicshop.customerIndex", "true"))){
+			return null;
+		}//end if
+		CustomerIndex index = _customerIndex;
+		if (index == null){
+			synchronized (MechanicShop.class){
+				index = _customerIndex;
+				if (index == null){
+					index = new CustomerIndex();
+					index.load(esql.lookupSession());
+					_customerIndex = index;
+				}//end if
+			}
+		}else if (System.currentTimeMillis() - index.getLoadedAt() > Long.getLong("mechanicshop.customerIndex.maxAge", 300L) * 1000L
+				&& CUSTOMER_INDEX_RELOADING.compareAndSet(false, true)){
+			try{
+				index = index.reload(esql.lookupSession());
+				_customerIndex = index;
+			}finally{
+				CUSTOMER_INDEX_RELOADING.set(false);
+			}
+		}//end if
+		return index.isFull() ? null : index;
+	}//end customerIndex
+
+	/**
+	 * Method to return the columnar snapshot reports 6, 8 and 10 are
+	 * answered from, loading it on the first call.  It is reloaded once it
+	 * is older than -Dmechanicshop.columnar.maxAge seconds (300 when unset),
+	 * which picks up rows written by other processes.  Returns null, and
+	 * the reports run in the database, unless -Dmechanicshop.columnar=true.
+	 */
+	public static ColumnarSnapshot columnarSnapshot(MechanicShop esql) throws SQLException {
+		if (!Boolean.getBoolean("mechanicshop.columnar")){
+			return null;
+		}//end if
+		long maxAge = Long.getLong("mechanicshop.columnar.maxAge", 300L) * 1000L;
+		ColumnarSnapshot snapshot = _columnarSnapshot;
+		if (snapshot == null || System.currentTimeMillis() - snapshot.getLoadedAt() > maxAge){
+			synchronized (ColumnarSnapshot.class){
+				snapshot = _columnarSnapshot;
+				if (snapshot == null){
+					snapshot = ColumnarSnapshot.load(esql.lookupSession());
+					_columnarSnapshot = snapshot;
+				}else if (System.currentTimeMillis() - snapshot.getLoadedAt() > maxAge){
+					//the writes of this JVM made during the reload are carried over by reload()
+					snapshot = snapshot.reload(esql.lookupSession());
+					_columnarSnapshot = snapshot;
+				}//end if
+			}
+		}//end if
+		return snapshot;
+	}//end columnarSnapshot
+
+	private static <K, V> LookupCache<K, V> newLookupCache(String name){
+		return new LookupCache<K, V>(name, Integer.getInteger("mechanicshop.cache.size", 10000),
+			Long.getLong("mechanicshop.cache.ttl", 60000L));
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to look a mechanic up by id through the mechanic cache.
+	 *
+	 * @return the mechanic, or null when there is none with this id
+	 */
+	public static ShopRows.Mechanic findMechanic(final MechanicShop esql, int id) throws SQLException {
+		return MECHANICS.get(id, new LookupCache.Loader<Integer, ShopRows.Mechanic>(){
+			public ShopRows.Mechanic load(Integer key) throws SQLException {
+				List<ShopRows.Mechanic> found = esql.lookupSession().executeQueryAndMap(
+					"SELECT * FROM Mechanic mechanic WHERE mechanic.id = ?", ShopRows.Mechanic.MAPPER, key);
+				return found.isEmpty() ? null : found.get(0);
+			}
+		});
+	}//end findMechanic
+
+	/**
+	 * Method to list the cars of a customer through the cars-by-owner cache.
+	 *
+	 * @return the cars the customer owns, possibly none
+	 */
+	public static List<ShopRows.Car> findCarsOfOwner(final MechanicShop esql, int customerID) throws SQLException {
+		return CARS_BY_OWNER.get(customerID, new LookupCache.Loader<Integer, List<ShopRows.Car>>(){
+			public List<ShopRows.Car> load(Integer key) throws SQLException {
+				return java.util.Collections.unmodifiableList(esql.lookupSession().executeQueryAndMap(
+					"SELECT car.vin, car.make, car.model, car.year FROM Owns owns, Car car WHERE owns.customer_id = ? AND car.vin = owns.car_vin",
+					ShopRows.Car.MAPPER, key));
+			}
+		});
+	}//end findCarsOfOwner
+
+	/**
+	 * Method to find who owns a car through the owner-by-VIN cache.
+	 *
+	 * @return the owner's customer id, -1 for a car without an owner, or
+	 *         null when the VIN is not in the system
+	 */
+	public static Integer findOwnerOfVin(final MechanicShop esql, String vin) throws SQLException {
+		return OWNER_BY_VIN.get(vin, new LookupCache.Loader<String, Integer>(){
+			public Integer load(String key) throws SQLException {
+				List<Integer> found = esql.lookupSession().executeQueryAndMap(
+					"SELECT owns.customer_id FROM Car car LEFT JOIN Owns owns ON owns.car_vin = car.vin WHERE car.vin = ?",
+					new RowMapper<Integer>(){
+						public Integer map(ResultSet rs) throws SQLException {
+							int owner = rs.getInt(1);
+							return rs.wasNull() ? -1 : owner;
+						}
+					}, key);
+				return found.isEmpty() ? null : found.get(0);
+			}
+		});
+	}//end findOwnerOfVin
+
+	/**
+	 * Method to render the statistics of the lookup caches, one per line.
+	 */
+	public static String getCacheStats(){
+		ColumnarSnapshot snapshot = _columnarSnapshot;
+		return MECHANICS.getStats() + "\n" + CARS_BY_OWNER.getStats() + "\n" + OWNER_BY_VIN.getStats()
+			+ (REPORT_CACHE == null ? "" : "\n" + REPORT_CACHE.getStats())
+			+ (snapshot == null ? "" : "\ncolumnar snapshot: " + snapshot.getStats());
+	}
+
+	/**
+	 * Method to render the replica lag and routing counters, or null when
+	 * no replica is configured.
+	 */
+	public static String getReplicaStats(){
+		ReplicaRouter router = _replica;
+		return router == null ? null : router.getStats();
+	}
+
+	/**
+	 * @return the replica lag at its last sample in milliseconds, -1 when
+	 *         unknown or no replica is configured
+	 */
+	public static long getReplicaLagMs(){
+		ReplicaRouter router = _replica;
+		return router == null ? -1 : router.getLagMs();
+	}
+
+	/**
+	 * Method to hand back the bound connection and, when this session
+	 * created the pool, close the physical connections.
 	 */
 	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+		releaseConnection ();
+		if (this._ownsPool){
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
 	/**
@@ -241,7 +961,52 @@ public class MechanicShop{
 			String user = args[2];
 			
 			esql = new MechanicShop (dbname, dbport, user, "");
+
+			//warms the customer index so the first customer lookup does not pay for it
+			customerIndex(esql);
+			esql.releaseConnection();
+			ShopMetrics.startExporters();
 			
+			runMenu(esql);
+		}catch(Exception e){
+			System.err.println (e.getMessage ());
+		}finally{
+			try{
+				if(esql != null) {
+					System.out.println(esql.getPool().getStats());
+					if (getReplicaStats() != null){
+						System.out.println(getReplicaStats());
+					}//end if
+					System.out.println(getCacheStats());
+					System.out.print(ShopMetrics.toText());
+					ShopMetrics.stopExporters();
+					System.out.print("Disconnecting from database...");
+					esql.cleanup ();
+					if (_replica != null){
+						_replica.close ();
+					}//end if
+					System.out.println("Done\n\nBye !");
+				}//end if				
+			}catch(Exception e){
+				// ignored.
+			}
+		}
+	}
+
+	//names of the menu operations in the statement metrics, by menu number
+	static final String[] OPERATIONS = { null, "AddCustomer", "AddMechanic", "AddCar", "InsertServiceRequest",
+		"CloseServiceRequest", "ListCustomersWithBillLessThan100", "ListCustomersWithMoreThan20Cars",
+		"ListCarsBefore1995With50000Milles", "ListKCarsWithTheMostServices", "ListCustomersInDescendingOrderOfTheirTotalBill",
+		null, "Dashboard" };
+
+	/**
+	 * Method to run the main menu of one session until the user exits.  The
+	 * statements hand their pooled connection back as they finish, so none
+	 * is held while the menu waits for input.
+	 *
+	 * @param esql the session
+	 */
+	public static void runMenu(MechanicShop esql) throws Exception {
 			boolean keepon = true;
 			while(keepon){
 				System.out.println("MAIN MENU");
@@ -257,11 +1022,15 @@ public class MechanicShop{
 				System.out.println("9. ListKCarsWithTheMostServices");
 				System.out.println("10. ListCustomersInDescendingOrderOfTheirTotalBill");
 				System.out.println("11. < EXIT");
+				System.out.println("12. Dashboard");
 				
 				/*
 				 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
 				 */
-				switch (readChoice()){
+				int choice = readChoice();
+				ShopMetrics.beginOperation();
+				try{
+				switch (choice){
 					case 1: AddCustomer(esql); break;
 					case 2: AddMechanic(esql); break;
 					case 3: AddCar(esql); break;
@@ -273,22 +1042,14 @@ public class MechanicShop{
 					case 9: ListKCarsWithTheMostServices(esql); break;
 					case 10: ListCustomersInDescendingOrderOfTheirTotalBill(esql); break;
 					case 11: keepon = false; break;
+					case 12: Dashboard(esql); break;
 				}
+				}finally{
+					ShopMetrics.endOperation(choice >= 0 && choice < OPERATIONS.length ? OPERATIONS[choice] : null);
+				}
+				esql.releaseConnection();
 			}
-		}catch(Exception e){
-			System.err.println (e.getMessage ());
-		}finally{
-			try{
-				if(esql != null) {
-					System.out.print("Disconnecting from database...");
-					esql.cleanup ();
-					System.out.println("Done\n\nBye !");
-				}//end if				
-			}catch(Exception e){
-				// ignored.
-			}
-		}
-	}
+	}//end runMenu
 
 	public static int readChoice() {
 		int input;
@@ -296,7 +1057,11 @@ public class MechanicShop{
 		do {
 			System.out.print("Please make your choice: ");
 			try { // read the integer, parse it and break.
-				input = Integer.parseInt(in.readLine());
+				String line = in.readLine();
+				if (line == null) {
+					return 11; // input closed, leave the menu
+				}
+				input = Integer.parseInt(line);
 				break;
 			}catch (Exception e) {
 				System.out.println("Your input is invalid!");
@@ -407,7 +1172,133 @@ public class MechanicShop{
 	}
 //--------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
  
+	/*
+	 * Core write operations.  Each one is a single INSERT ... RETURNING,
+	 * with CTEs where it writes several tables, run in autocommit: it is
+	 * atomic on its own and takes one round trip.  The menu flows below
+	 * only gather and check the input before calling them.
+	 */
+
+	/**
+	 * Inserts a customer together with the first car they own.
+	 *
+	 * @return the id of the new customer
+	 */
+	public static int insertCustomerWithCar(MechanicShop esql, String fname, String lname, String phone, String address,
+			String vin, String make, String model, int year) throws SQLException {
+		int id = esql.executeInsertAndReturnKey(
+			"WITH customer AS (INSERT INTO Customer(fname,lname,phone,address) VALUES (?,?,?,?) RETURNING id), "
+			+ "car AS (INSERT INTO Car(vin,make,model,year) VALUES (?,?,?,?) RETURNING vin) "
+			+ "INSERT INTO Owns(customer_id,car_vin) SELECT customer.id, car.vin FROM customer, car RETURNING customer_id",
+			fname, lname, phone, address, vin, make, model, year);
+		CARS_BY_OWNER.invalidate(id);
+		OWNER_BY_VIN.invalidate(vin);
+		CustomerIndex index = customerIndex(esql);
+		if (index != null){
+			index.add(new ShopRows.Customer(id, fname.trim(), lname.trim(), phone.trim(), address.trim()));
+		}//end if
+		ColumnarSnapshot snapshot = _columnarSnapshot;
+		if (snapshot != null){
+			snapshot.addCustomer(id, fname, lname);
+			snapshot.addCar(vin, make, model, year);
+		}//end if
+		return id;
+	}
+
+	/**
+	 * Finds the customers to offer for a last name entered at a customer
+	 * picker.  With the customer index this is answered from memory and
+	 * also tolerates a typo or an incomplete name; without it the database
+	 * is asked for exact matches.
+	 */
+	static List<ShopRows.Customer> findCustomers(MechanicShop esql, String lname) throws SQLException {
+		CustomerIndex index = customerIndex(esql);
+		if (index == null){
+			String findCustomerQuery = "SELECT * FROM Customer customer WHERE UPPER(customer.lname) = UPPER(?)"; //This makes sure if someone enters all upper or mix of upper or lower we still find the person eg BOB == bob == bOb
+			return esql.executeQueryAndMap(findCustomerQuery, ShopRows.Customer.MAPPER, lname);
+		}//end if
+		List<ShopRows.Customer> found = index.find(esql, lname);
+		if (!found.isEmpty() && !CustomerIndex.normalize(found.get(0).lname).equals(CustomerIndex.normalize(lname))){
+			System.out.println("No customer named " + lname.trim() + ", customers with a similar last name:");
+		}//end if
+		return found;
+	}
+
+	/**
+	 * Inserts a car and its ownership by an existing customer.
+	 *
+	 * @return the ownership_id of the new Owns row
+	 */
+	public static int insertCarForOwner(MechanicShop esql, int ownerID, String vin, String make, String model, int year) throws SQLException {
+		int ownershipID = esql.executeInsertAndReturnKey(
+			"WITH car AS (INSERT INTO Car(vin,make,model,year) VALUES (?,?,?,?) RETURNING vin) "
+			+ "INSERT INTO Owns(customer_id,car_vin) SELECT ?, car.vin FROM car RETURNING ownership_id",
+			vin, make, model, year, ownerID);
+		CARS_BY_OWNER.invalidate(ownerID);
+		OWNER_BY_VIN.invalidate(vin);
+		ColumnarSnapshot snapshot = _columnarSnapshot;
+		if (snapshot != null){
+			snapshot.addCar(vin, make, model, year);
+		}//end if
+		return ownershipID;
+	}
+
+	/**
+	 * @return the id of the new mechanic
+	 */
+	public static int insertMechanic(MechanicShop esql, String fname, String lname, int experience) throws SQLException {
+		int id = esql.executeInsertAndReturnKey("INSERT INTO Mechanic(fname,lname,experience) VALUES (?,?,?) RETURNING id",
+			fname, lname, experience);
+		MECHANICS.invalidate(id);
+		return id;
+	}
+
+	/**
+	 * Opens a service request dated today.
+	 *
+	 * @return the rid of the new request
+	 */
+	public static int insertServiceRequest(MechanicShop esql, int customerID, String vin, int odometer, String complaint) throws SQLException {
+		int rid = esql.executeInsertAndReturnKey(
+			"INSERT INTO Service_Request(customer_id,car_vin,date,odometer,complain) VALUES (?,?,?,?,?) RETURNING rid",
+			customerID, vin, new java.sql.Date(System.currentTimeMillis()), odometer, complaint);
+		ColumnarSnapshot snapshot = _columnarSnapshot;
+		if (snapshot != null){
+			snapshot.addServiceRequest(rid, customerID, vin, odometer);
+		}//end if
+		return rid;
+	}
+
+	/**
+	 * Closes a service request, dated today.
+	 *
+	 * @return the wid of the new closed request
+	 */
+	public static int closeServiceRequest(MechanicShop esql, int rid, int mid, String comment, int bill) throws SQLException {
+		java.sql.Date today = new java.sql.Date(System.currentTimeMillis());
+		int wid = esql.executeInsertAndReturnKey(
+			"INSERT INTO Closed_Request(rid,mid,date,comment,bill) VALUES (?,?,?,?,?) RETURNING wid",
+			rid, mid, today, comment, bill);
+		ColumnarSnapshot snapshot = _columnarSnapshot;
+		if (snapshot != null){
+			snapshot.addClosedRequest(wid, rid, bill, today.toLocalDate(), comment);
+		}//end if
+		return wid;
+	}
+
 	public static void AddCustomer(MechanicShop esql){//1
+		AddCustomer(esql, null);
+	}
+
+	/**
+	 * Asks for a new customer and, unless it was already entered by AddCar,
+	 * for the car the customer comes in with, then inserts the customer, the
+	 * car and the ownership in one statement.
+	 *
+	 * @param car vin, make, model and year already entered, or null to ask for them
+	 * @return the id of the new customer, or -1 when nothing was inserted
+	 */
+	static int AddCustomer(MechanicShop esql, String[] car){
  try{	
 				System.out.print("\tEnter first name: $");
 				String f_name = in.readLine();
@@ -433,20 +1324,25 @@ public class MechanicShop{
 					System.out.print("\nERROR: Address is too long or too short! Enter address again: $");
 					address = in.readLine();
 				}
+
+				//According to ER diagram, a customer must own at least one car, so the car is entered together with the customer
+				if(car == null){
+					car = readNewCar(esql);
+					if(car == null){
+						return -1;
+					}
+				}
 		
-				//Gets the largest ID value and adds 1 so we have our ID for new entry
-				String query = "SELECT MAX(id) AS maxID FROM Customer";
-				List<List<String>> maxIDStr = esql.executeQueryAndReturnResult(query);
-				int maxIDint = Integer.parseInt(maxIDStr.get(0).get(0)) + 1;
+				//Customer, Car and Owns go in with one statement; the ID comes from customer_id_seq (column default)
+				int newID = insertCustomerWithCar(esql, f_name, l_name, phone, address, car[0], car[1], car[2], Integer.parseInt(car[3]));
 
-        System.out.print("INSERT INTO Customer (id,fname,lname,phone,address) VALUES (" + maxIDint + "," + f_name + "," + l_name + "," + phone + "," + address + ")\n");
-        
-				esql.executeUpdate("INSERT INTO Customer(id,fname,lname,phone,address) VALUES (" + maxIDint + ",'" + f_name + "','" + l_name + "','" + phone + "','" + address + "')");
-        
-        AddCar(esql);
+        System.out.print("INSERT INTO Customer (id,fname,lname,phone,address) VALUES (" + newID + "," + f_name + "," + l_name + "," + phone + "," + address + ")\n");
+        System.out.print("INSERT INTO Car (vin,make,model,year) VALUES (" + car[0] + "," + car[1] + "," + car[2] + "," + car[3] + ")\n");
+        return newID;
       }
 			catch(Exception e){
 				System.err.println(e.getMessage());
+				return -1;
 			}
 	}
 //------------------------------------------------------------------------------------------------	
@@ -475,19 +1371,10 @@ public class MechanicShop{
 		 
 
 
-		// 	//I want to find the largest ID in the system and add 1 to it. That will be our unique id. I have no idea how to do this though. Once we get it, we can add the value in
-		String query = "SELECT MAX(id) AS maxID FROM Mechanic";
-		List<List<String>> maxIDStr = esql.executeQueryAndReturnResult(query);
-		int maxIDint = Integer.parseInt(maxIDStr.get(0).get(0)) + 1;
-
-
-
-     	// 	//Statement statement = conn.createStatement();
-     	// 	esql.executeUpdate("INSERT INTO Mechanic " + "VALUES (1,f_name,l_name,experience)");
+		//The ID comes from mechanic_id_seq (column default) and is returned by the insert itself
+		int newID = insertMechanic(esql, f_name, l_name, Integer.parseInt(experience));
       
-              System.out.print("INSERT INTO Mechanic (id,fname,lname,experience) VALUES (" + maxIDint + "," + f_name + "," + l_name + "," + experience + ")\n");
-        
-				esql.executeUpdate("INSERT INTO Mechanic(id,fname,lname,experience) VALUES (" + maxIDint + ",'" + f_name + "','" + l_name + "','" + experience + "')");
+              System.out.print("INSERT INTO Mechanic (id,fname,lname,experience) VALUES (" + newID + "," + f_name + "," + l_name + "," + experience + ")\n");
       
 		}
 		catch(Exception e){
@@ -496,48 +1383,27 @@ public class MechanicShop{
 	}
 //--------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------	
 	public static void AddCar(MechanicShop esql){//3
+		AddCar(esql, -1);
+	}
+
+	/**
+	 * Asks for a new car and, unless the owner is already known, for the
+	 * customer who owns it, then inserts the car and the ownership in one
+	 * statement.
+	 *
+	 * @param ownerID the customer the car is added for, or -1 to ask for the owner
+	 * @return the VIN of the new car, or null when nothing was inserted
+	 */
+	static String AddCar(MechanicShop esql, int ownerID){
 		try{
-			System.out.print("\tEnter vehicle identification number (11 to 17 characters long): $"); //ASUMPTION: Vin is between 11 and 17 long according to https://www.autocheck.com/vehiclehistory/autocheck/en/vinbasics
-			 String vin = in.readLine();
-			 while(!vinCheck(vin)){
-				System.out.print("\nERROR: VIN is less than 11 or greater than 17! Enter VIN again: $");
-				vin = in.readLine();
-			 }
-        
-        //CHECK IF VIN ALREADY EXISTS IN SYSTEM!!!!!
-			 String searchVin = "SELECT DISTINCT car.vin FROM Car car WHERE car.vin = '";
-        searchVin += vin + "';";
-			 List<List<String>> existingCarsTable = esql.executeQueryAndReturnResult(searchVin);
-			 System.out.print(existingCarsTable);
-       if(existingCarsTable.size() != 0 ){
-				System.out.print("\nERROR: Car already in system! Going back to menu!\n");
-				return;
-			 }
-        
-     		System.out.print("\tEnter make: $");
-			String make = in.readLine();
-			while(!charCheck32(make)){
-				System.out.print("\nERROR: Make character length is less than 1 or greater than 32! Enter make again: $");
-				make = in.readLine();
+			String[] car = readNewCar(esql);
+			if(car == null){
+				return null;
 			}
-     		System.out.print("\tEnter model: $");
-			String model = in.readLine();
-			while(!charCheck32(model)){
-				System.out.print("\nERROR: Model character length is less than 1 or greater than 32! Enter model again: $");
-				model = in.readLine();
-			}
-     		System.out.print("\tEnter year: $");
-			String year = in.readLine();
-			while(!yearCheck(year)){
-				System.out.print("\nERROR: Year is less than 1970! Enter year again with value equal to or greater than 1970: $");
-				year = in.readLine();
-			}
-
-      //How do we know who owns the car????
+			String vin = car[0];
+			int currCustID = ownerID;
 
-			 //Statement statement = conn.createStatement();
-				 //statement.executeUpdate("INSERT INTO Car " + "VALUES (vin,make,model,year)");
-				 
+			if(currCustID < 0){
 			//ask for an owner to assign as according to ER diagram, a car must have an owner
 			System.out.print("\tEnter the last name of the customer who owns this car: $");
 			String l_name = in.readLine();
@@ -545,8 +1411,7 @@ public class MechanicShop{
 					System.out.print("\nERROR: Last name too long or too short! Enter last name again: $");
 					l_name = in.readLine();
 				}
-			String findCustomerQuery = "SELECT * FROM Customer customer WHERE UPPER(customer.lname) = UPPER('" + l_name + "')"; //This makes sure if someone enters all upper or mix of upper or lower we still find the person eg BOB == bob == bOb
-			List<List<String>> customersTable = esql.executeQueryAndReturnResult(findCustomerQuery);
+			List<ShopRows.Customer> customersTable = findCustomers(esql, l_name);
 
 			if(customersTable.size() == 0){
 				System.out.print("\nNo customer found! Would you like to make a new customer (you can't insert a car without a customer)? (Enter 'Y' or 'N'): $");
@@ -556,17 +1421,17 @@ public class MechanicShop{
 					choice_1 = in.readLine();
 				}
 				if(choice_1.equals("Y")){
-					AddCustomer(esql);
-					return;
+					//the new customer is inserted together with the car entered above
+					return AddCustomer(esql, car) < 0 ? null : vin;
 				}
 				else{
-					return;
+					return null;
 				}
 			}
 			else{ //customers exist
 				for(int i = 0; i < customersTable.size(); ++i){
 					//Index | Fname | Lname | Phone | Address
-					System.out.println("INDEX: " + Integer.toString(i + 1) + " FIRST NAME: " + customersTable.get(i).get(1) + " LAST NAME: " + customersTable.get(i).get(2) + " PHONE: " + customersTable.get(i).get(3) + " ADDRESS: " + customersTable.get(i).get(4) + "\n");//CHECK HERE IF OUTOFBOUND OCCURS 
+					System.out.println("INDEX: " + Integer.toString(i + 1) + " FIRST NAME: " + customersTable.get(i).fname + " LAST NAME: " + customersTable.get(i).lname + " PHONE: " + customersTable.get(i).phone + " ADDRESS: " + customersTable.get(i).address + "\n");//CHECK HERE IF OUTOFBOUND OCCURS 
 				}
         
 				System.out.print("\nIs the customer you are looking for listed? (Enter 'Y' or 'N'): $");
@@ -583,36 +1448,13 @@ public class MechanicShop{
 					        indexLength = in.readLine();
                }
                int custIndex = Integer.parseInt(indexLength);
-               System.out.print(custIndex + "\n");
                int tableSize = customersTable.size();
-               System.out.print(tableSize + "\n");
                while(custIndex < 1 || custIndex > tableSize){ //CHECK TO SEE IF THIS IS THE CORRECT BOUND!!!!!
                System.out.print("\nERROR: Invalid index value. Please enter a valid index value: $");
                custIndex = Integer.parseInt(in.readLine());
 					}
            
-           int currCustID = Integer.parseInt(customersTable.get(custIndex - 1).get(0));
-
-					System.out.print("INSERT INTO Car (vin,make,model,year) VALUES (" + vin + "," + make + "," + model + "," + year + ")\n");
-        
-				  esql.executeUpdate("INSERT INTO Car(vin,make,model,year) VALUES ('" + vin + "','" + make + "','" + model + "'," + year + ")");
-          
-          String q = "SELECT MAX(ownership_id) FROM Owns";
-				  List<List<String>> maxIDStr = esql.executeQueryAndReturnResult(q);
-				  int maxIDint = Integer.parseInt(maxIDStr.get(0).get(0)) + 1;
-                                       
-          System.out.print("INSERT INTO Owns(ownership_id,customer_id,car_vin) VALUES (" + maxIDint + "," + currCustID + "," + vin + ")\n");
-        
-				  esql.executeUpdate("INSERT INTO Owns(ownership_id,customer_id,car_vin) VALUES (" + maxIDint + "," + currCustID + ",'" + vin + "')");                             
-
-					//statement.executeUpdate("INSERT INTO Car " + "VALUES (vin,make,model,year)"); //FIXME: Also what happens if a car already exists?
-
-					//Adding an Owns record
-					//Find the largest OwnsID (ownership_id)
-					//Insert new Owns record using the customer ID, VIN, and ownership ID
-						//currCustID is the customerID (I think). Use this in the owns function!
-				
-					//statement.executeUpdate("INSERT INTO Owns " + "VALUES (vin,make,model,year)")
+           currCustID = customersTable.get(custIndex - 1).id;
 				}
 				else{
 					System.out.print("\nWould you like to make a new customer (you can't insert a car without a customer)? (Enter 'Y' or 'N'): $");
@@ -621,27 +1463,69 @@ public class MechanicShop{
 					System.out.print("\nERROR: Invalid value entered. Please enter 'Y' or 'N': $");
 					choice_3 = in.readLine();
 					}
-					if(choice_3 == "Y"){
-						AddCustomer(esql);
-						return;
+					if(choice_3.equals("Y")){
+						return AddCustomer(esql, car) < 0 ? null : vin;
 					}
 					else{
-						return; //goes to menu
+						return null; //goes to menu
 					}
 				}
 			}
+			}
 
+			//Car and Owns go in with one statement; ownership_id comes from owns_ownership_id_seq (column default)
+			int ownershipID = insertCarForOwner(esql, currCustID, vin, car[1], car[2], Integer.parseInt(car[3]));
 
-//			 System.out.print("INSERT INTO Car (vin,make,model,year) VALUES (" + vin + "," + make + "," + model + "," + year + ")\n");
-        
-//				esql.executeUpdate("INSERT INTO Car(vin,make,model,year) VALUES (" + vin + ",'" + make + "','" + model + "','" + year + "')");
-   
-   
+			System.out.print("INSERT INTO Car (vin,make,model,year) VALUES (" + vin + "," + car[1] + "," + car[2] + "," + car[3] + ")\n");
+          System.out.print("INSERT INTO Owns(ownership_id,customer_id,car_vin) VALUES (" + ownershipID + "," + currCustID + "," + vin + ")\n");
+			return vin;
 		}
 		catch(Exception e){
 			System.err.println(e.getMessage());
+			return null;
 		}
 	}
+
+	/**
+	 * Asks for the VIN, make, model and year of a car that is not in the
+	 * system yet.
+	 *
+	 * @return vin, make, model and year, or null when the VIN already exists
+	 */
+	static String[] readNewCar(MechanicShop esql) throws Exception {
+			System.out.print("\tEnter vehicle identification number (11 to 17 characters long): $"); //ASUMPTION: Vin is between 11 and 17 long according to https://www.autocheck.com/vehiclehistory/autocheck/en/vinbasics
+			 String vin = in.readLine();
+			 while(!vinCheck(vin)){
+				System.out.print("\nERROR: VIN is less than 11 or greater than 17! Enter VIN again: $");
+				vin = in.readLine();
+			 }
+        
+        //CHECK IF VIN ALREADY EXISTS IN SYSTEM!!!!!
+       if(findOwnerOfVin(esql, vin) != null){
+				System.out.print("\nERROR: Car already in system! Going back to menu!\n");
+				return null;
+			 }
+        
+     		System.out.print("\tEnter make: $");
+			String make = in.readLine();
+			while(!charCheck32(make)){
+				System.out.print("\nERROR: Make character length is less than 1 or greater than 32! Enter make again: $");
+				make = in.readLine();
+			}
+     		System.out.print("\tEnter model: $");
+			String model = in.readLine();
+			while(!charCheck32(model)){
+				System.out.print("\nERROR: Model character length is less than 1 or greater than 32! Enter model again: $");
+				model = in.readLine();
+			}
+     		System.out.print("\tEnter year: $");
+			String year = in.readLine();
+			while(!yearCheck(year)){
+				System.out.print("\nERROR: Year is less than 1970! Enter year again with value equal to or greater than 1970: $");
+				year = in.readLine();
+			}
+			return new String[]{ vin, make, model, year };
+	}
  
 //-----------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------	
 	public static void InsertServiceRequest(MechanicShop esql){//4
@@ -656,8 +1540,7 @@ public class MechanicShop{
 					System.out.print("\nERROR: Last name too long or too short! Enter last name again: $");
 					l_name = in.readLine();
 				}
-			String findCustomerQuery = "SELECT * FROM Customer customer WHERE UPPER(customer.lname) = UPPER('" + l_name + "')"; //This makes sure if someone enters all upper or mix of upper or lower we still find the person eg BOB == bob == bOb
-			List<List<String>> customersTable = esql.executeQueryAndReturnResult(findCustomerQuery);
+			List<ShopRows.Customer> customersTable = findCustomers(esql, l_name);
 
 			if(customersTable.size() == 0){
 				//No customer found. Ask if insert new one? If yes, do it and continue. Else, go back to menu
@@ -684,7 +1567,7 @@ public class MechanicShop{
 				for(int i = 0; i < customersTable.size(); ++i){
 					//Index | Fname | Lname | Phone | Address
 
-					System.out.println("INDEX: " + Integer.toString(i + 1) + " FIRST NAME: " + customersTable.get(i).get(1) + " LAST NAME: " + customersTable.get(i).get(2) + " PHONE: " + customersTable.get(i).get(3) + " ADDRESS: " + customersTable.get(i).get(4) + "\n");//CHECK HERE IF OUTOFBOUND OCCURS 
+					System.out.println("INDEX: " + Integer.toString(i + 1) + " FIRST NAME: " + customersTable.get(i).fname + " LAST NAME: " + customersTable.get(i).lname + " PHONE: " + customersTable.get(i).phone + " ADDRESS: " + customersTable.get(i).address + "\n");//CHECK HERE IF OUTOFBOUND OCCURS 
 				}
 				System.out.print("\nIs the customer you are looking for listed? (Enter 'Y' or 'N'): $");
 				String choice_2 = in.readLine();
@@ -708,10 +1591,9 @@ public class MechanicShop{
 						custIndex = Integer.parseInt(in.readLine());
 					}
            
-           			int currCustID = Integer.parseInt(customersTable.get(custIndex - 1).get(0));
+           			int currCustID = customersTable.get(custIndex - 1).id;
 
-					String getCars = "SELECT owns.car_vin, car.make, car.model, car.year FROM Owns owns, Car car WHERE owns.customer_id = " + currCustID + " AND car.vin = owns.car_vin;";
-					List<List<String>> ownedCarsTable = esql.executeQueryAndReturnResult(getCars);
+					List<ShopRows.Car> ownedCarsTable = findCarsOfOwner(esql, currCustID);
 
 					if(ownedCarsTable.size() == 0){
 						System.out.print("\n!!!!!!!!!!!!!! IF WE SEE THIS, THERE IS A CUSTOMER WITH NO CAR!!!!!!!!!!!!!!\n");
@@ -721,7 +1603,7 @@ public class MechanicShop{
 					//else{
 						//Choose exisitng car or add new one
 						for(int i = 0; i < ownedCarsTable.size(); ++i){
-							System.out.println("INDEX: " + Integer.toString(i + 1) + " CAR VIN: " + ownedCarsTable.get(i).get(0) + " CAR MAKE: " + ownedCarsTable.get(i).get(1) + " CAR MODEL: " + ownedCarsTable.get(i).get(2) + " CAR YEAR: " + ownedCarsTable.get(i).get(3));	
+							System.out.println("INDEX: " + Integer.toString(i + 1) + " CAR VIN: " + ownedCarsTable.get(i).vin + " CAR MAKE: " + ownedCarsTable.get(i).make + " CAR MODEL: " + ownedCarsTable.get(i).model + " CAR YEAR: " + ownedCarsTable.get(i).year);	
 						}
 						System.out.print("\nTo select a car and create a service request, enter '1'. If you would like to add a new car and enter a service request, enter '2': $");
 						String newChoice = in.readLine();
@@ -731,23 +1613,11 @@ public class MechanicShop{
 						}
 						if(newChoice.equals("2")){
 							
-							AddCar(esql);
-							//So we added a car. If we run the below, we should get the latest ownershrip_ID of the car we just put in
-							
-							getCars = "SELECT MAX(owns.ownership_id) FROM Owns owns, Car car WHERE owns.customer_id = " + currCustID + " AND car.vin = owns.car_vin;"; 
-							List<List<String>> custLastCar = esql.executeQueryAndReturnResult(getCars);
-
-							String ownedID = custLastCar.get(0).get(0);
-							
-							
-							getCars = "SELECT car_vin FROM Owns WHERE ownership_id = " + ownedID + ";";
-							List<List<String>> custCar = esql.executeQueryAndReturnResult(getCars);
-							
-							vin = custCar.get(0).get(0);
-
-							//DEBUG
-							System.out.print(vin);
-
+							//the new car is inserted for this customer and its VIN comes back directly
+							vin = AddCar(esql, currCustID);
+							if(vin == null){
+								return;
+							}
 
 							//proceed to add request
 						}
@@ -766,7 +1636,7 @@ public class MechanicShop{
 								carIndex = Integer.parseInt(in.readLine());
 							}
 
-							vin = ownedCarsTable.get(carIndex - 1).get(0);
+							vin = ownedCarsTable.get(carIndex - 1).vin;
                                                  //System.out.println(vin);
 
 
@@ -775,11 +1645,7 @@ public class MechanicShop{
 						}
 							//We have the vin from above
 
-							String currRidquery = "SELECT MAX(rid) FROM Service_Request";
-							List<List<String>> currRid = esql.executeQueryAndReturnResult(currRidquery);
-							int rid = Integer.parseInt(currRid.get(0).get(0)) + 1;
-
-							//We now have the rid
+							//The rid comes from service_request_rid_seq (column default) when the request is inserted
 
 							//The date util gives us the date
 							
@@ -791,13 +1657,8 @@ public class MechanicShop{
 
 							String today = ft.format(currDate);
 
-							//String insertQuery = "INSERT INTO Service_Request " vin;
-							//Get customer id and keep it to add to insert (we can get it from the Own table where vin matches)'
-
-							
-							String quickID = "SELECT customer_id FROM Owns WHERE car_vin = '" + vin + "';";
-							List<List<String>> custIDTable = esql.executeQueryAndReturnResult(quickID);
-							custIDVal = Integer.parseInt(custIDTable.get(0).get(0));
+							//the car was picked from or added to the selected customer's cars, so they are the owner
+							custIDVal = currCustID;
 
 
 							System.out.print("\n Enter the odometer value of the car you would like to create request for: $");
@@ -812,9 +1673,10 @@ public class MechanicShop{
          
          
          
+		        //the service_request_service_count trigger adds the request to the car's service count
+		        int rid = insertServiceRequest(esql, custIDVal, vin, odometerVal, complaint);
+
              System.out.print("INSERT INTO Service_Request(rid,customer_id,car_vin,date,odometer,complain) VALUES (" + rid + "," + custIDVal + "," + vin + "," + today + "," + odometerVal + "," + complaint + ")\n");
-        
-		        esql.executeUpdate("INSERT INTO Service_Request(rid,customer_id,car_vin,date,odometer,complain) VALUES (" + rid + ",'" + custIDVal + "','" + vin + "','" + today + "','" + odometerVal + "','" + complaint + "')");
 					//}
 
 				}
@@ -875,9 +1737,22 @@ public class MechanicShop{
             employeeID = in.readLine();
 		  }
 		  System.out.print("\nRUNNING SEARCH");
-		  //String findServiceRequest = "SELECT * FROM Service_Request WHERE rid = " + serveRequestNum + ";";
-		  String findServiceRequest = "SELECT * FROM Service_Request WHERE rid = " + serveRequestNum + ";";
-		  List<List<String>> serviceTable = esql.executeQueryAndReturnResult(findServiceRequest);
+		  //the service request is read on this session; only a mechanic missing from the cache is looked up at the same time on a second connection
+		  final int mechanicID = Integer.parseInt(employeeID);
+		  ShopRows.Mechanic mechanic = MECHANICS.peek(mechanicID);
+		  CompletableFuture<ShopRows.Mechanic> mechanicLookup = null;
+		  if (mechanic == null){
+		  	mechanicLookup = esql.async().submit(new AsyncShop.Work<ShopRows.Mechanic>(){
+		  		public ShopRows.Mechanic run(MechanicShop session) throws SQLException {
+		  			return findMechanic(session, mechanicID);
+		  		}
+		  	});
+		  }//end if
+		  String findServiceRequest = "SELECT * FROM Service_Request WHERE rid = ?";
+		  List<ShopRows.ServiceRequest> serviceTable = esql.lookupSession().executeQueryAndMap(findServiceRequest, ShopRows.ServiceRequest.MAPPER, serveRequestNum);
+		  if (mechanicLookup != null){
+		  	mechanic = AsyncShop.await(mechanicLookup);
+		  }//end if
 
 		  System.out.print("\n SEARCH HAS RUN");
 		  			
@@ -886,22 +1761,15 @@ public class MechanicShop{
 						return; //go to menu
 		}
 		System.out.print("\n SERVICE REQUEST FOUND\n");
-		System.out.print("Request: rid =" + serviceTable.get(0).get(0) + ", customer ID =" + serviceTable.get(0).get(1) + ", car vin =" + serviceTable.get(0).get(2) + "\n");								  
+		System.out.print("Request: rid =" + serviceTable.get(0).rid + ", customer ID =" + serviceTable.get(0).customerId + ", car vin =" + serviceTable.get(0).carVin + "\n");								  
 	
-	String findEmployeeID = "SELECT * FROM Mechanic mechanic WHERE mechanic.id = '" + employeeID + "';";
-		  List<List<String>> employeeTable = esql.executeQueryAndReturnResult(findEmployeeID);
-		  				
-	if(employeeTable.size() == 0){
+	if(mechanic == null){
 				System.out.print("\nNo employeeID found! Returning to menu\n");
 						return; //go to menu
 	}
 	System.out.print("\nEMPLOYEE ID FOUND\n");
-	System.out.print("Mechanic: mechanic ID = " + employeeTable.get(0).get(0) + "\n");
- 
+	System.out.print("Mechanic: mechanic ID = " + mechanic.id + "\n");
  
-       String query = "SELECT MAX(wid) AS maxID FROM Closed_Request";
-		    List<List<String>> maxIDStr = esql.executeQueryAndReturnResult(query);
-		    int maxIDint = Integer.parseInt(maxIDStr.get(0).get(0)) + 1;
  
        Date currDate = new Date();
         SimpleDateFormat ft = new SimpleDateFormat("MM/dd/yyyy");
@@ -923,25 +1791,141 @@ public class MechanicShop{
             System.out.print("\nInvalid input. Enter bill number: $");
             bill = in.readLine();
 		      }
-       System.out.print("INSERT INTO Closed_Request(wid,rid,mid,date,comment,bill) VALUES (" + maxIDint + "," + serveRequestNum + "," + employeeID + "," + today + "," + comment + "," + bill + ")\n");
-			esql.executeUpdate("INSERT INTO Closed_Request(wid,rid,mid,date,comment,bill) VALUES (" + maxIDint + ",'" + serveRequestNum + "','" + employeeID + "','" + today + "','" + comment + "','" + bill + "')");
+			//wid comes from closed_request_wid_seq (column default); the closed_request_bill_total trigger adds the bill to the customer's total
+			int wid = closeServiceRequest(esql, serveRequestNum, Integer.parseInt(employeeID), comment, Integer.parseInt(bill));
+       System.out.print("INSERT INTO Closed_Request(wid,rid,mid,date,comment,bill) VALUES (" + wid + "," + serveRequestNum + "," + employeeID + "," + today + "," + comment + "," + bill + ")\n");
 		}
 		catch(Exception e){
 			System.err.println(e.getMessage());
 		}
 	}
 //--------------------------------------------------------------------------------------------------------------------------------------------------------------------------		
+	/*
+	 * The report queries, shared by the menu and the HTTP service.
+	 */
+	//ASSUMING THAT IT MEANS EACH CUSTOMER'S BILL < 100, AND NOT TOTAL CUSTOMER'S BILL < 100
+	public static final String BILL_UNDER_100_REPORT = "SELECT customer.fname, customer.lname ,close.date, close.comment, close.bill FROM Customer customer, Service_Request service, Closed_Request close WHERE customer.id = service.customer_id AND service.rid = close.rid AND close.bill < 100";
+	public static final String MORE_THAN_20_CARS_REPORT = "SELECT customer.id, customer.fname, customer.lname FROM (SELECT owns.customer_id FROM Owns owns GROUP BY owns.customer_id HAVING COUNT(owns.customer_id) > 20) AS owntwenty, Customer customer WHERE customer.id = owntwenty.customer_id";
+	public static final String CARS_BEFORE_1995_REPORT = "SELECT DISTINCT car.make, car.model, car.year FROM Car car, Service_Request service WHERE car.vin = service.car_vin AND car.year < 1995 AND service.odometer < 50000";
+	//the counts are kept in Car_Service_Count by a trigger on Service_Request (sql/migrations/004_car_service_count.sql)
+	public static final String TOP_K_CARS_REPORT = "SELECT car.make, car.model, counts.service_count FROM Car_Service_Count counts, Car car WHERE counts.car_vin = car.vin ORDER BY counts.service_count DESC, counts.car_vin LIMIT ?";
+	//the sums are kept in Customer_Bill_Total by a trigger on Closed_Request (sql/migrations/003_customer_bill_total.sql)
+	public static final String TOTAL_BILL_REPORT = "SELECT customer.id, customer.fname, customer.lname, total.bill_sum FROM Customer_Bill_Total total, Customer customer WHERE total.customer_id = customer.id ORDER BY total.bill_sum DESC";
+
+	/*
+	 * -Dmechanicshop.report.pageSize=N prints the reports N rows at a time,
+	 * each page read from where the last one stopped (see ReportPager).
+	 * Unset or 0 prints a report in one go.
+	 */
+	static final int REPORT_PAGE_SIZE = Integer.getInteger("mechanicshop.report.pageSize", 0);
+
+	/*
+	 * -Dmechanicshop.report.exportDir=DIR writes the console reports to
+	 * DIR/<report name>.csv instead of printing them (see ReportExporter);
+	 * -Dmechanicshop.report.exportFormat=ndjson writes NDJSON and
+	 * -Dmechanicshop.report.exportGzip=true compresses the file.
+	 */
+	static final String REPORT_EXPORT_DIR = System.getProperty("mechanicshop.report.exportDir");
+	static final String REPORT_EXPORT_FORMAT = System.getProperty("mechanicshop.report.exportFormat", "csv");
+	static final boolean REPORT_EXPORT_GZIP = Boolean.getBoolean("mechanicshop.report.exportGzip");
+
+	/**
+	 * Method to print a report, in one go or one page at a time, or to
+	 * export it to a file when an export directory is set.  A report
+	 * printed in one go is printed from the report cache when its tables
+	 * have not changed since it was last run.
+	 *
+	 * @param query the whole report
+	 * @param pager reads the same report one page at a time
+	 * @param printer prints a row
+	 * @param limit the most rows of the report, bound to the LIMIT of the query, or null when it has none
+	 */
+	static void streamReport(MechanicShop esql, String query, ReportPager pager, RowPrinter printer, Integer limit) throws Exception {
+		esql = esql.reportSession();
+		if (REPORT_CACHE != null && REPORT_PAGE_SIZE <= 0 && REPORT_EXPORT_DIR == null){
+			//the versions and the rows are read on one session, so on one server and in agreement
+			String[] tables = ReportCache.tablesOf(query);
+			long[] versions = REPORT_CACHE.versions(esql, tables);
+			if (versions != null){
+				Object[] params = limit != null ? new Object[]{ limit } : new Object[0];
+				String key = ReportCache.key(query, params);
+				List<String[]> cached = REPORT_CACHE.get(key, versions);
+				if (cached != null){
+					printer.printAll(cached);
+					return;
+				}//end if
+				long start = System.currentTimeMillis();
+				printer.keep(REPORT_CACHE.getMaxRows());
+				esql.executeQueryAndStream(query, printer, params);
+				if (printer.kept() != null){
+					REPORT_CACHE.put(key, versions, REPORT_CACHE.versions(esql, tables), printer.kept(), start);
+				}//end if
+				return;
+			}//end if
+		}//end if
+		if (REPORT_EXPORT_DIR != null){
+			File file = new File(REPORT_EXPORT_DIR, pager.getName() + "." + REPORT_EXPORT_FORMAT + (REPORT_EXPORT_GZIP ? ".gz" : ""));
+			long start = System.nanoTime();
+			ReportExporter exporter = ReportExporter.export(esql, query, limit, file);
+			System.out.println("Exported " + exporter.summary(file, System.nanoTime() - start));
+			return;
+		}//end if
+		if (REPORT_PAGE_SIZE <= 0){
+			if (limit != null){
+				esql.executeQueryAndStream(query, printer, limit);
+			}else{
+				esql.executeQueryAndStream(query, printer);
+			}//end if
+			return;
+		}//end if
+		String cursor = pager.page(esql, null, REPORT_PAGE_SIZE, printer, limit);
+		while (cursor != null){
+			System.out.print("-- more (Enter for the next page, q to stop; cursor " + cursor + ") --");
+			String answer = in.readLine();
+			if (answer == null || answer.trim().equalsIgnoreCase("q")){
+				break;
+			}//end if
+			cursor = pager.page(esql, cursor, REPORT_PAGE_SIZE, printer, limit);
+		}//end while
+	}//end streamReport
+
+	/**
+	 * Method to return the columnar snapshot for a report printed in one go.
+	 * Returns null, to run the report in the database, when the snapshot is
+	 * turned off, the report is paged or exported or the snapshot cannot be
+	 * loaded.
+	 */
+	static ColumnarSnapshot reportSnapshot(MechanicShop esql){
+		if (REPORT_PAGE_SIZE > 0 || REPORT_EXPORT_DIR != null){
+			return null;
+		}//end if
+		try{
+			return columnarSnapshot(esql);
+		}catch (SQLException e){
+			System.err.println("Columnar snapshot not loaded, running the report in the database: " + e.getMessage());
+			return null;
+		}
+	}//end reportSnapshot
+
 	public static void ListCustomersWithBillLessThan100(MechanicShop esql){//6
 		try{
    //ASSUMING THAT IT MEANS EACH CUSTOMER'S BILL < 100, AND NOT TOTAL CUSTOMER'S BILL < 100
    //Look through closed requests bills and if that number is < 100, store the customers name that belongs to that customers sid
-     			String query = "SELECT customer.fname, customer.lname ,close.date, close.comment, close.bill FROM Customer customer, Service_Request service, Closed_Request close WHERE customer.id = service.customer_id AND service.rid = close.rid AND close.bill < 100";
-     			List<List<String>> rows = esql.executeQueryAndReturnResult(query);
+     			String query = BILL_UNDER_100_REPORT;
      		
         System.out.println( "-> Customer First Name and Last Name, Closed Request Date, Comment, and Bill");
-       for(int i = 0; i < rows.size(); ++i){
-				System.out.println((i + 1) + "); Fname: " + rows.get(i).get(0) + "; Lname: " + rows.get(i).get(1) + "; date: " + rows.get(i).get(2) + "; comment: " + rows.get(i).get(3) + "; bill: $" + rows.get(i).get(4));
-      }
+        //streamed, so the first rows print while the rest are still being fetched
+     			RowPrinter printer = new RowPrinter(){
+     				void print(int i, String[] row){
+						System.out.println(i + "); Fname: " + row[0] + "; Lname: " + row[1] + "; date: " + row[2] + "; comment: " + row[3] + "; bill: $" + row[4]);
+     				}
+     			};
+     			ColumnarSnapshot snapshot = reportSnapshot(esql);
+     			if (snapshot != null){
+     				printer.printAll(snapshot.billsUnder100());
+     			}else{
+     				streamReport(esql, query, ReportPager.BILL_UNDER_100, printer, null);
+     			}//end if
           
    		}catch(Exception e){
      			System.err.println(e.getMessage());
@@ -952,12 +1936,12 @@ public class MechanicShop{
 		try{
          //For each customer, count the number of car vins they have in the owns relation. If the customer sid is connected to more than 20 vins, then store it in a list.
 
-          String query = "SELECT customer.id, customer.fname, customer.lname FROM (SELECT owns.customer_id FROM Owns owns GROUP BY owns.customer_id HAVING COUNT(owns.customer_id) > 20) AS owntwenty, Customer customer WHERE customer.id = owntwenty.customer_id";
-     			List<List<String>> rows = esql.executeQueryAndReturnResult(query);
-     		  
-            for(int i = 0; i < rows.size(); ++i){
-				System.out.println((i + 1) + ") ID: " + rows.get(i).get(0) + "; Fname: " + rows.get(i).get(1) + "; Lname: " + rows.get(i).get(1));
-      }
+          String query = MORE_THAN_20_CARS_REPORT;
+     			streamReport(esql, query, ReportPager.MORE_THAN_20_CARS, new RowPrinter(){
+     				void print(int i, String[] row){
+						System.out.println(i + ") ID: " + row[0] + "; Fname: " + row[1] + "; Lname: " + row[2]);
+     				}
+     			}, null);
             
    		}catch(Exception e){
      			System.err.println(e.getMessage());
@@ -968,12 +1952,18 @@ public class MechanicShop{
 		try{
        //For each car, check to see if the cars year is less than 1995. Then, check to see if the odometer reading for those cars service requests is lower than 50000 miles
 
-	 		String query = "SELECT DISTINCT car.make, car.model, car.year FROM Car car, Service_Request service WHERE car.vin = service.car_vin AND car.year < 1995 AND service.odometer < 50000";
-      List<List<String>> rows = esql.executeQueryAndReturnResult(query);
-	 		
-      for(int i = 0; i < rows.size(); ++i){
-				System.out.println((i + 1) + ") make: " + rows.get(i).get(0) + "; model: " + rows.get(i).get(1) + "; year: " + rows.get(i).get(2));
-      }                   
+	 		String query = CARS_BEFORE_1995_REPORT;
+      RowPrinter printer = new RowPrinter(){
+      	void print(int i, String[] row){
+				System.out.println(i + ") make: " + row[0] + "; model: " + row[1] + "; year: " + row[2]);
+      	}
+      };
+      ColumnarSnapshot snapshot = reportSnapshot(esql);
+      if (snapshot != null){
+      	printer.printAll(snapshot.carsBefore1995());
+      }else{
+      	streamReport(esql, query, ReportPager.CARS_BEFORE_1995, printer, null);
+      }//end if
                          
 	   }catch(Exception e){
 	 		System.err.println(e.getMessage());
@@ -983,7 +1973,8 @@ public class MechanicShop{
 	public static void ListKCarsWithTheMostServices(MechanicShop esql){//9
 		try{      
       //Count the the number of service requests for each vin. Order cars based on number of service requests with the car with the most service requests at the top. User input for k determines how far you loop through the car table
-       String query = "SELECT car.make, car.model, COUNT(*) FROM Service_Request service, Car car WHERE service.car_vin = car.vin GROUP BY car.vin ORDER BY COUNT(*) DESC LIMIT ";      
+      //The counts are kept in Car_Service_Count by a trigger on Service_Request (sql/migrations/004_car_service_count.sql), so only the top K index entries are read
+       String query = TOP_K_CARS_REPORT;      
      
       System.out.print("\tEnter a value for K: $");
          String input = in.readLine();
@@ -992,12 +1983,11 @@ public class MechanicShop{
            System.out.print("\tValue incorrectly entered. Enter a value for K: $");
          input = in.readLine();
          }
-         query += input;
-      List<List<String>> rows = esql.executeQueryAndReturnResult(query);
-	 		
-      for(int i = 0; i < rows.size(); ++i){
-				System.out.println((i + 1) + ") make: " + rows.get(i).get(0) + "; model: " + rows.get(i).get(1) + "; # of service requests: " + rows.get(i).get(2));
-      }                     
+      streamReport(esql, query, ReportPager.TOP_K_CARS, new RowPrinter(){
+      	void print(int i, String[] row){
+				System.out.println(i + ") make: " + row[0] + "; model: " + row[1] + "; # of service requests: " + row[2]);
+      	}
+      }, Integer.parseInt(input));
                          
 	   }catch(Exception e){
 	 		System.err.println(e.getMessage());
@@ -1007,17 +1997,151 @@ public class MechanicShop{
 	public static void ListCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql){//10	
 		try{
    //Sum up all of the bills for each customer. Order customers based on total bill with the highest bill at the top
-
-	 		String query = "SELECT customer.id, customer.fname, customer.lname, billSum FROM (SELECT SUM(close.bill) AS billSum, service.customer_id FROM Service_Request service, Closed_Request close WHERE service.rid = close.rid GROUP BY service.customer_id) AS all_request, Customer customer WHERE all_request.customer_id = customer.id ORDER BY all_request.billSum DESC";
-      List<List<String>> rows = esql.executeQueryAndReturnResult(query);
-	 		
-      for(int i = 0; i < rows.size(); ++i){
-				System.out.println((i + 1) + ") ID: " + rows.get(i).get(0) + "; Fname:" + rows.get(i).get(1) + "; Lname:" + rows.get(i).get(2)  + "; TotalBill: $" + rows.get(i).get(3));
-      }                   
+   //The sums are kept in Customer_Bill_Total by a trigger on Closed_Request (sql/migrations/003_customer_bill_total.sql), so this is an ordered index read
+
+	 		String query = TOTAL_BILL_REPORT;
+      RowPrinter printer = new RowPrinter(){
+      	void print(int i, String[] row){
+				System.out.println(i + ") ID: " + row[0] + "; Fname:" + row[1] + "; Lname:" + row[2]  + "; TotalBill: $" + row[3]);
+      	}
+      };
+      ColumnarSnapshot snapshot = reportSnapshot(esql);
+      if (snapshot != null){
+      	printer.printAll(snapshot.totalBills());
+      }else{
+      	streamReport(esql, query, ReportPager.TOTAL_BILL, printer, null);
+      }//end if
                          
 	   }catch(Exception e){
 	 		System.err.println(e.getMessage());
     }
 	}
+
+	/**
+	 * One report of the dashboard: its rows as text, labelled by column,
+	 * and how long its query took.
+	 */
+	static final class DashboardSection{
+		final String title;
+		final List<String> labels = new ArrayList<String>();
+		final List<String[]> rows = new ArrayList<String[]>();
+		//from the start of the report to its last row, of which waitNanos waiting for a free connection
+		long nanos;
+		long waitNanos;
+
+		DashboardSection(String title){
+			this.title = title;
+		}
+	}
+
+	/**
+	 * Method to run a report of the dashboard in the background, on a
+	 * pooled connection of its own.  The time it waits for the connection
+	 * is recorded apart from the query.
+	 */
+	static CompletableFuture<DashboardSection> dashboardSection(AsyncShop async, final String title, final String query,
+			final Object... params){
+		return async.submit(new AsyncShop.Work<DashboardSection>(){
+			public DashboardSection run(MechanicShop session) throws SQLException {
+				final DashboardSection section = new DashboardSection(title);
+				long start = System.nanoTime();
+				session.bind();
+				section.waitNanos = System.nanoTime() - start;
+				session.executeQueryAndStream(query, new RowHandler(){
+					public void handle(ResultSet rs) throws SQLException {
+						ResultSetMetaData meta = rs.getMetaData();
+						if (section.labels.isEmpty()){
+							for (int i = 1; i <= meta.getColumnCount(); ++i){
+								section.labels.add(meta.getColumnLabel(i));
+							}
+						}//end if
+						String[] row = new String[section.labels.size()];
+						for (int i = 0; i < row.length; ++i){
+							String value = rs.getString(i + 1);
+							row[i] = value == null ? null : value.trim();
+						}
+						section.rows.add(row);
+					}
+				}, params);
+				section.nanos = System.nanoTime() - start;
+				return section;
+			}
+		});
+	}//end dashboardSection
+
+	//runs the five reports of the dashboard, so they neither queue behind nor hold up the shared async executor
+	private static ThreadPoolExecutor _dashboardExecutor = null;
+
+	private static synchronized ThreadPoolExecutor dashboardExecutor(){
+		if (_dashboardExecutor == null){
+			_dashboardExecutor = AsyncShop.newExecutor("dashboard", 5, 5);
+		}//end if
+		return _dashboardExecutor;
+	}
+
+	public static void Dashboard(MechanicShop esql){//12
+		try{
+      //Run reports 6 to 10 at the same time, each on a pooled connection of its own, so the dashboard takes as long as the slowest report instead of all five one after the other
+      //once the pool has five connections free; until then the reports wait for one, and each report shows how long it waited
+      System.out.print("\tEnter a value for K of the most serviced cars: $");
+         String input = in.readLine();
+         while(input.length() == 0 || !input.matches("[0-9]+"))
+         {
+           System.out.print("\tValue incorrectly entered. Enter a value for K: $");
+         input = in.readLine();
+         }
+      int k = Integer.parseInt(input);
+
+      ConnectionPool pool = esql.reportSession().getPool();
+      if (pool.getMaxSize() < 5){
+      	System.out.println("The pool has " + pool.getMaxSize() + " connections, so not all five reports run at once (-Dmechanicshop.pool.size=5)");
+      }//end if
+      AsyncShop async = new AsyncShop(pool, dashboardExecutor());
+      long start = System.nanoTime();
+      List<CompletableFuture<DashboardSection>> running = new ArrayList<CompletableFuture<DashboardSection>>();
+      running.add(dashboardSection(async, "6. Customers with a bill under $100", BILL_UNDER_100_REPORT));
+      running.add(dashboardSection(async, "7. Customers with more than 20 cars", MORE_THAN_20_CARS_REPORT));
+      running.add(dashboardSection(async, "8. Cars before 1995 serviced under 50000 miles", CARS_BEFORE_1995_REPORT));
+      running.add(dashboardSection(async, "9. The " + k + " cars with the most service requests", TOP_K_CARS_REPORT, k));
+      running.add(dashboardSection(async, "10. Customers by total bill", TOTAL_BILL_REPORT));
+
+      //wait for every report before printing, so the dashboard is one snapshot and a failed report does not hide the others
+      List<Object> results = new ArrayList<Object>();
+      for (CompletableFuture<DashboardSection> section : running){
+      	try{
+      		results.add(AsyncShop.await(section));
+      	}catch (Exception e){
+      		results.add(e);
+      	}
+      }
+      long wall = System.nanoTime() - start;
+
+      long total = 0;
+      System.out.println("-> Dashboard");
+      for (Object result : results){
+      	if (!(result instanceof DashboardSection)){
+      		System.out.println("== report failed: " + ((Exception) result).getMessage());
+      		continue;
+      	}//end if
+      	DashboardSection section = (DashboardSection) result;
+      	total += section.nanos;
+      	System.out.println("== " + section.title + " (" + section.rows.size() + " rows in " + (section.nanos / 1000000) + " ms, "
+      		+ (section.waitNanos / 1000000) + " ms of it waiting for a connection)");
+      	int i = 0;
+      	for (String[] row : section.rows){
+      		StringBuilder line = new StringBuilder().append(++i).append(")");
+      		for (int c = 0; c < row.length; ++c){
+      			line.append(c == 0 ? " " : "; ").append(section.labels.get(c)).append(": ").append(row[c]);
+      		}
+      		System.out.println(line);
+      	}
+      }
+      //the report times overlapped and slowed each other down, so their sum is not what a sequential run would take
+      System.out.println("Dashboard took " + (wall / 1000000) + " ms; the report times add up to " + (total / 1000000) + " ms");
+
+	   }catch(Exception e){
+	 		System.err.println(e.getMessage());
+    }
+	}
  
 }
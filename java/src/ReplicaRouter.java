@@ -0,0 +1,274 @@
+/*
+ * Read replica routing
+ * ====================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class sends reads to a second database, a hot standby of the
+ * primary or another local Postgres instance for testing, through a pool
+ * of read-only connections of its own.  The reports run there so a slow
+ * report does not hold a primary connection the front desk is waiting
+ * for; writes always stay on the primary.
+ *
+ * Reads are routed by how far the replica is behind.  A background thread
+ * samples it every -Dmechanicshop.replica.lagInterval milliseconds (1000)
+ * on a connection of its own, so routing never waits for the replica or
+ * for a connection of its pool.  The lag is the age of the last
+ * transaction the standby replayed, or 0 when it has replayed everything
+ * it received or is not a standby at all.  When the lag is over
+ * -Dmechanicshop.replica.maxLag milliseconds (10000), or cannot be read,
+ * or the last sample is older than that, reads go to the primary.
+ *
+ * A lookup whose result is kept, in the lookup caches, the customer index
+ * or the columnar snapshot, must see the writes made before it.  After
+ * each write the primary's current WAL position (LSN) is recorded, and
+ * such a lookup goes to the replica only when the position the standby
+ * had replayed at the last sample is at or past the highest one recorded
+ * in this JVM.  A replica that is not a standby never gets there once
+ * this JVM has written.  Reports read whatever the replica has.
+ */
+
+public class ReplicaRouter{
+	//the lag: 0 on a primary or a standby that is replaying everything it received, null before the first replay;
+	//and the WAL position replayed, null when the replica is not a standby
+	private static final String SAMPLE_SQL = "SELECT CASE WHEN NOT pg_is_in_recovery() THEN 0 "
+		+ "WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+		+ "ELSE (EXTRACT(EPOCH FROM clock_timestamp() - pg_last_xact_replay_timestamp()) * 1000)::bigint END, "
+		+ "CASE WHEN pg_is_in_recovery() THEN pg_last_wal_replay_lsn()::text END";
+	//run on the primary after a write committed
+	private static final String WRITE_LSN_SQL = "SELECT pg_current_wal_lsn()::text";
+	//recorded when the position of a write could not be read, so lookups stay on the primary until the next write
+	private static final long UNKNOWN_LSN = Long.MAX_VALUE;
+
+	private final ConnectionPool _pool;
+	private final long _maxLagMs;
+	private final long _lagIntervalMs;
+	private final ScheduledExecutorService _sampler;
+	//the sampler's own connection to the replica, null until opened or after it failed
+	private Connection _samplerConnection = null;
+
+	//the last sample: lag, -1 when it could not be read, the WAL position replayed, -1 when unknown, and when it was taken
+	private volatile long _lagMs = -1;
+	private volatile long _replayedLsn = -1;
+	private volatile long _sampledAt = 0;
+	//the highest WAL position of a write of this JVM, 0 before the first one
+	private final AtomicLong _writtenLsn = new AtomicLong();
+
+	//reads sent to the replica, and to the primary for lag or for a recent write
+	private final AtomicLong _replicaReads = new AtomicLong();
+	private final AtomicLong _laggingReads = new AtomicLong();
+	private final AtomicLong _recentWriteReads = new AtomicLong();
+
+	/**
+	 * @param pool the read-only connections to the replica
+	 * @param maxLagMs reads go to the primary while the replica is further behind
+	 * @param lagIntervalMs the lag is sampled at most this often
+	 */
+	public ReplicaRouter(ConnectionPool pool, long maxLagMs, long lagIntervalMs){
+		this._pool = pool;
+		this._maxLagMs = maxLagMs;
+		this._lagIntervalMs = lagIntervalMs;
+		this._sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "replica-lag-sampler");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this._sampler.scheduleWithFixedDelay(new Runnable(){
+			public void run(){
+				sample();
+			}
+		}, 0, lagIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to create the router configured by the mechanicshop.replica.*
+	 * system properties, with the credentials of the primary.  A replica is
+	 * given as a JDBC URL with -Dmechanicshop.replica.url, or as the port of
+	 * a second instance on this machine with -Dmechanicshop.replica.port
+	 * (and -Dmechanicshop.replica.dbname when the database name differs).
+	 *
+	 * @return the router, or null when no replica is configured
+	 */
+	public static ReplicaRouter configure(ConnectionPool primary){
+		String url = System.getProperty("mechanicshop.replica.url");
+		String port = System.getProperty("mechanicshop.replica.port");
+		if (url == null && port == null){
+			return null;
+		}//end if
+		if (url == null){
+			String dbname = System.getProperty("mechanicshop.replica.dbname");
+			if (dbname == null){
+				//jdbc:postgresql://localhost:5432/dbname
+				dbname = primary.getUrl().substring(primary.getUrl().lastIndexOf('/') + 1);
+			}//end if
+			url = MechanicShop.buildUrl(dbname, port);
+		}//end if
+		Properties props = new Properties();
+		props.putAll(primary.getProperties());
+		props.setProperty("readOnly", "true");
+		ConnectionPool pool = new ConnectionPool(url, props,
+			Integer.getInteger("mechanicshop.replica.pool.size", primary.getMaxSize()),
+			Long.getLong("mechanicshop.pool.timeout", 30000L),
+			Integer.getInteger("mechanicshop.pool.validationTimeout", 2),
+			Long.getLong("mechanicshop.pool.validationInterval", 5000L),
+			Long.getLong("mechanicshop.pool.leakThreshold", 300000L));
+		return new ReplicaRouter(pool, Long.getLong("mechanicshop.replica.maxLag", 10000L),
+			Long.getLong("mechanicshop.replica.lagInterval", 1000L));
+	}//end configure
+
+	public ConnectionPool getPool(){
+		return this._pool;
+	}
+
+	/**
+	 * Method to decide where a read goes.
+	 *
+	 * @param afterWrites true when the read must see the writes of this JVM
+	 * @return true to read from the replica, false to read from the primary
+	 */
+	public boolean useReplica(boolean afterWrites){
+		long lag = this._lagMs;
+		if (lag < 0 || lag > this._maxLagMs || System.currentTimeMillis() - this._sampledAt > this._maxLagMs){
+			this._laggingReads.incrementAndGet();
+			return false;
+		}//end if
+		//until a later sample shows the write replayed
+		long written = this._writtenLsn.get();
+		if (afterWrites && written > 0 && this._replayedLsn < written){
+			this._recentWriteReads.incrementAndGet();
+			return false;
+		}//end if
+		this._replicaReads.incrementAndGet();
+		return true;
+	}//end useReplica
+
+	/**
+	 * Method to record the WAL position of the primary after a write
+	 * committed on one of its connections.  When it cannot be read,
+	 * lookups go to the primary until a later write records one.
+	 *
+	 * @param primary the connection the write committed on, outside a transaction
+	 */
+	public void wrote(Connection primary){
+		long lsn;
+		try{
+			Statement stmt = primary.createStatement();
+			try{
+				ResultSet rs = stmt.executeQuery(WRITE_LSN_SQL);
+				lsn = rs.next() ? parseLsn(rs.getString(1)) : UNKNOWN_LSN;
+			}finally{
+				stmt.close();
+			}
+		}catch (SQLException e){
+			lsn = UNKNOWN_LSN;
+		}
+		while (true){
+			long written = this._writtenLsn.get();
+			//a position read later is at or past every write committed before it, including one whose position was unknown
+			long next = written == UNKNOWN_LSN || lsn == UNKNOWN_LSN ? lsn : Math.max(written, lsn);
+			if (this._writtenLsn.compareAndSet(written, next)){
+				return;
+			}//end if
+		}//end while
+	}//end wrote
+
+	/**
+	 * @return a WAL position written as two hexadecimal halves, e.g. 16/B374D848, as one number
+	 */
+	static long parseLsn(String lsn){
+		int slash = lsn.indexOf('/');
+		return (Long.parseLong(lsn.substring(0, slash), 16) << 32) | Long.parseLong(lsn.substring(slash + 1), 16);
+	}
+
+	/**
+	 * Method to read the lag and the replayed WAL position of the replica,
+	 * run by the sampler thread on its own connection.
+	 */
+	private void sample(){
+		long lag = -1;
+		long replayed = -1;
+		try{
+			if (this._samplerConnection == null){
+				this._samplerConnection = DriverManager.getConnection(this._pool.getUrl(), this._pool.getProperties());
+			}//end if
+			Statement stmt = this._samplerConnection.createStatement();
+			try{
+				ResultSet rs = stmt.executeQuery(SAMPLE_SQL);
+				if (rs.next()){
+					lag = rs.getLong(1);
+					if (rs.wasNull()){
+						lag = -1;
+					}//end if
+					String lsn = rs.getString(2);
+					replayed = lsn == null ? -1 : parseLsn(lsn);
+				}//end if
+			}finally{
+				stmt.close();
+			}
+		}catch (SQLException e){
+			lag = -1;
+			closeSamplerConnection();
+		}
+		this._lagMs = lag;
+		this._replayedLsn = replayed;
+		this._sampledAt = System.currentTimeMillis();
+	}//end sample
+
+	private void closeSamplerConnection(){
+		if (this._samplerConnection != null){
+			try{
+				this._samplerConnection.close();
+			}catch (SQLException e){
+				// ignored.
+			}
+			this._samplerConnection = null;
+		}//end if
+	}
+
+	/**
+	 * @return the lag at the last sample in milliseconds, -1 when unknown
+	 */
+	public long getLagMs(){
+		return this._lagMs;
+	}
+
+	/**
+	 * Method to render the replica lag and the routing counters on one line,
+	 * followed by the statistics of the replica pool.
+	 */
+	public String getStats(){
+		long lag = this._lagMs;
+		return String.format("replica: lag %s (max %d ms), %d reads on the replica, %d on the primary for lag, "
+				+ "%d on the primary after a write%n%s", lag < 0 ? "unknown" : lag + " ms", this._maxLagMs,
+			this._replicaReads.get(), this._laggingReads.get(), this._recentWriteReads.get(), this._pool.getStats());
+	}//end getStats
+
+	public void close(){
+		this._sampler.shutdownNow();
+		try{
+			this._sampler.awaitTermination(5, TimeUnit.SECONDS);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		closeSamplerConnection();
+		this._pool.close();
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Versioned report cache
+ * ======================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This class keeps the rows of the reports, keyed by query and parameters
+ * (such as K of report 9), so a report that is run again while its tables
+ * are unchanged prints from memory instead of querying the database.
+ *
+ * Every table has a version counter in the database, in Table_Version,
+ * that a deferred trigger bumps once at the commit of every transaction
+ * that wrote to the table, whichever process it runs in
+ * (sql/migrations/007_table_version.sql).
+ * An entry records the versions of the tables its report reads, taken
+ * before the report query ran, and is only served while they are all
+ * unchanged, which one query for all the versions tells before a hit: a
+ * write to one of those tables invalidates exactly the reports that read
+ * it, and the rows of a query that a write committed during are not kept
+ * at all.  The versions and the rows must be read on the same server.
+ * Without Table_Version the cache turns itself off.  An entry older than
+ * the time to live is dropped as well.
+ *
+ * One cache is shared by every session of the JVM.  It holds at most
+ * maxSize entries, evicting the least recently used one first.  The
+ * MechanicShop console only keeps one when
+ * -Dmechanicshop.reportCache.size is set.
+ */
+
+public class ReportCache{
+	/**
+	 * The rows of one report and the versions of its tables when it ran.
+	 */
+	private static final class Entry{
+		final List<String[]> rows;
+		final long[] versions;
+		final long loadedAt;
+
+		Entry(List<String[]> rows, long[] versions, long loadedAt){
+			this.rows = rows;
+			this.versions = versions;
+			this.loadedAt = loadedAt;
+		}
+	}
+
+	private static final String VERSIONS_SQL = "SELECT table_name, version FROM Table_Version";
+
+	//the tables each report reads, the summary tables counted as the tables their triggers follow
+	private static final Map<String, String[]> TABLES = new HashMap<String, String[]>();
+	static{
+		TABLES.put(MechanicShop.BILL_UNDER_100_REPORT, new String[]{ "Customer", "Service_Request", "Closed_Request" });
+		TABLES.put(MechanicShop.MORE_THAN_20_CARS_REPORT, new String[]{ "Customer", "Owns" });
+		TABLES.put(MechanicShop.CARS_BEFORE_1995_REPORT, new String[]{ "Car", "Service_Request" });
+		//Car_Service_Count follows Service_Request, apart from its rebuild after a bulk load
+		TABLES.put(MechanicShop.TOP_K_CARS_REPORT, new String[]{ "Car", "Service_Request", "Car_Service_Count" });
+		//Customer_Bill_Total follows Closed_Request, apart from its rebuild after a bulk load
+		TABLES.put(MechanicShop.TOTAL_BILL_REPORT, new String[]{ "Customer", "Closed_Request", "Customer_Bill_Total" });
+	}
+
+	private final int _maxSize;
+	private final long _ttlMs;
+	private final int _maxRows;
+	//set when the database has no Table_Version, which turns the cache off
+	private volatile boolean _unavailable = false;
+	private final LinkedHashMap<String, Entry> _entries;
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _invalidations = 0;
+	private long _evictions = 0;
+	private long _expirations = 0;
+
+	/**
+	 * @param maxSize the most entries kept
+	 * @param ttlMs how long an entry is served at most, 0 for no limit
+	 * @param maxRows reports with more rows are not kept
+	 */
+	public ReportCache(final int maxSize, long ttlMs, int maxRows){
+		this._maxSize = maxSize;
+		this._ttlMs = ttlMs;
+		this._maxRows = maxRows;
+		//access ordered so the eldest entry is the least recently used one
+		this._entries = new LinkedHashMap<String, Entry>(16, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest){
+				if (size() > maxSize){
+					++_evictions;
+					return true;
+				}//end if
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return the tables a report query reads, or null when it is not one of the reports
+	 */
+	public static String[] tablesOf(String query){
+		return TABLES.get(query);
+	}
+
+	/**
+	 * @return the cache key of a query and its parameters
+	 */
+	public static String key(String query, Object... params){
+		StringBuilder key = new StringBuilder(query);
+		for (Object param : params){
+			key.append('\0').append(param);
+		}
+		return key.toString();
+	}
+
+	public int getMaxRows(){
+		return this._maxRows;
+	}
+
+	/**
+	 * Method to read the current versions of tables from the database, in
+	 * one query for all of them: before a hit is served, and before and
+	 * after the query whose rows are put() with them runs.
+	 *
+	 * @param esql the session the report rows are read on
+	 * @return the versions in the order of the tables, or null when the
+	 *         database has no Table_Version and the cache is off
+	 * @throws java.sql.SQLException when the versions cannot be read
+	 */
+	public long[] versions(MechanicShop esql, String[] tables) throws SQLException {
+		if (this._unavailable){
+			return null;
+		}//end if
+		final Map<String, Long> current = new HashMap<String, Long>();
+		try{
+			esql.executeQueryAndMap(VERSIONS_SQL, new MechanicShop.RowMapper<Void>(){
+				public Void map(ResultSet rs) throws SQLException {
+					current.put(rs.getString(1), rs.getLong(2));
+					return null;
+				}
+			});
+		}catch (SQLException e){
+			if (!"42P01".equals(e.getSQLState())){
+				throw e;
+			}//end if
+			//undefined table: migration 007 is not applied
+			this._unavailable = true;
+			return null;
+		}
+		long[] versions = new long[tables.length];
+		for (int i = 0; i < tables.length; ++i){
+			Long version = current.get(tables[i].toLowerCase(Locale.ROOT));
+			versions[i] = version == null ? 0L : version;
+		}
+		return versions;
+	}//end versions
+
+	/**
+	 * Method to return the rows of a report when they are cached and its
+	 * tables have not changed since.
+	 *
+	 * @param versions the current versions of the tables of the report
+	 * @return the rows, or null on a miss
+	 */
+	public synchronized List<String[]> get(String key, long[] versions){
+		Entry entry = this._entries.get(key);
+		if (entry == null){
+			++this._misses;
+			return null;
+		}//end if
+		if (!Arrays.equals(entry.versions, versions)){
+			this._entries.remove(key);
+			++this._invalidations;
+			++this._misses;
+			return null;
+		}//end if
+		if (this._ttlMs > 0 && System.currentTimeMillis() - entry.loadedAt >= this._ttlMs){
+			this._entries.remove(key);
+			++this._expirations;
+			++this._misses;
+			return null;
+		}//end if
+		++this._hits;
+		return entry.rows;
+	}//end get
+
+	/**
+	 * Method to keep the rows of a report.  They are dropped at once when
+	 * one of its tables was written while the query ran.
+	 *
+	 * @param versions the versions of the tables read before the query ran
+	 * @param after the versions read after it, null when they could not be
+	 * @param loadedAt when the query started
+	 */
+	public synchronized void put(String key, long[] versions, long[] after, List<String[]> rows, long loadedAt){
+		if (this._maxSize <= 0 || rows.size() > this._maxRows || !Arrays.equals(versions, after)){
+			return;
+		}//end if
+		this._entries.put(key, new Entry(Collections.unmodifiableList(rows), versions, loadedAt));
+	}//end put
+
+	/**
+	 * Method to render the cache counters on one line: entries, hits,
+	 * misses, entries invalidated by writes, evictions and expired entries.
+	 */
+	public synchronized String getStats(){
+		if (this._unavailable){
+			return "report cache: off, the database has no Table_Version (sql/migrations/007_table_version.sql)";
+		}//end if
+		long lookups = this._hits + this._misses;
+		return String.format("report cache: %d/%d entries, %d hits, %d misses, %.1f%% hit rate, %d invalidated, %d evictions, %d expired",
+			this._entries.size(), this._maxSize, this._hits, this._misses, lookups == 0 ? 0.0 : 100.0 * this._hits / lookups,
+			this._invalidations, this._evictions, this._expirations);
+	}
+}
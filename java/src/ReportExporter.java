@@ -0,0 +1,337 @@
+/*
+ * Report export
+ * =============
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class writes a report to a file as CSV, with a header row of the
+ * column labels, or as NDJSON, one JSON object per row.  Rows are streamed
+ * from the report's cursor (see MechanicShop.executeQueryAndStream), encoded
+ * into one large direct buffer and written to a file channel when the
+ * buffer fills, so an export of any size runs in constant memory and hands
+ * the disk large writes.  A file name ending in .gz is gzip compressed.
+ * The export is written to a temporary file next to the target and renamed
+ * over it once complete, so a failed export never leaves a partial file.
+ *
+ * Values are trimmed of the padding of the CHAR columns like the reports
+ * print them.  CSV quotes a value that holds a comma, a quote or a line
+ * break (RFC 4180) and writes NULL as an empty field.
+ */
+
+public class ReportExporter implements MechanicShop.ColumnHandler{
+	//-Dmechanicshop.export.bufferSize=BYTES sizes the write buffer
+	static final int BUFFER_SIZE = Integer.getInteger("mechanicshop.export.bufferSize", 1 << 20);
+
+	//the reports by the names the HTTP service uses, with their queries
+	static final String[][] REPORTS = {
+		{ ReportPager.BILL_UNDER_100.getName(), MechanicShop.BILL_UNDER_100_REPORT },
+		{ ReportPager.MORE_THAN_20_CARS.getName(), MechanicShop.MORE_THAN_20_CARS_REPORT },
+		{ ReportPager.CARS_BEFORE_1995.getName(), MechanicShop.CARS_BEFORE_1995_REPORT },
+		{ ReportPager.TOP_K_CARS.getName(), MechanicShop.TOP_K_CARS_REPORT },
+		{ ReportPager.TOTAL_BILL.getName(), MechanicShop.TOTAL_BILL_REPORT }
+	};
+
+	private final WritableByteChannel _channel;
+	private final boolean _ndjson;
+	private final ByteBuffer _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final CharsetEncoder _encoder = StandardCharsets.UTF_8.newEncoder();
+	//one row of text, reused for every row
+	private final StringBuilder _line = new StringBuilder(256);
+	private String[] _labels = null;
+	private boolean[] _numeric;
+	private long _rows = 0;
+	private long _bytes = 0;
+
+	/**
+	 * @param channel receives the encoded rows; closed by finish()
+	 * @param ndjson true for NDJSON, false for CSV
+	 */
+	public ReportExporter(WritableByteChannel channel, boolean ndjson){
+		this._channel = channel;
+		this._ndjson = ndjson;
+	}
+
+	public void columns(ResultSetMetaData meta) throws SQLException {
+		try{
+			open(meta);
+		}catch (IOException e){
+			throw new SQLException("Export failed: " + e.getMessage(), e);
+		}
+	}//end columns
+
+	public void handle(ResultSet rs) throws SQLException {
+		try{
+			if (this._labels == null){
+				open(rs.getMetaData());
+			}//end if
+			this._line.setLength(0);
+			if (this._ndjson){
+				this._line.append('{');
+				for (int i = 0; i < this._labels.length; ++i){
+					if (i > 0){
+						this._line.append(',');
+					}//end if
+					this._line.append(this._labels[i]);
+					if (this._numeric[i]){
+						long value = rs.getLong(i + 1);
+						this._line.append(rs.wasNull() ? "null" : Long.toString(value));
+					}else{
+						String value = rs.getString(i + 1);
+						this._line.append(Json.quote(value == null ? null : value.trim()));
+					}//end if
+				}
+				this._line.append("}\n");
+			}else{
+				for (int i = 0; i < this._labels.length; ++i){
+					if (i > 0){
+						this._line.append(',');
+					}//end if
+					String value = rs.getString(i + 1);
+					if (value != null){
+						csv(this._line, value.trim());
+					}//end if
+				}
+				this._line.append("\r\n");
+			}//end if
+			write(this._line);
+			++this._rows;
+		}catch (IOException e){
+			throw new SQLException("Export failed: " + e.getMessage(), e);
+		}
+	}//end handle
+
+	private void open(ResultSetMetaData meta) throws SQLException, IOException {
+		int columns = meta.getColumnCount();
+		this._labels = new String[columns];
+		this._numeric = new boolean[columns];
+		this._line.setLength(0);
+		for (int i = 0; i < columns; ++i){
+			String label = meta.getColumnLabel(i + 1);
+			int type = meta.getColumnType(i + 1);
+			this._numeric[i] = type == Types.INTEGER || type == Types.BIGINT || type == Types.SMALLINT;
+			this._labels[i] = this._ndjson ? Json.quote(label) + ":" : label;
+			if (!this._ndjson){
+				if (i > 0){
+					this._line.append(',');
+				}//end if
+				csv(this._line, label);
+			}//end if
+		}
+		if (!this._ndjson){
+			write(this._line.append("\r\n"));
+		}//end if
+	}//end open
+
+	private static void csv(StringBuilder out, String value){
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; ++i){
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+		}
+		if (!quote){
+			out.append(value);
+			return;
+		}//end if
+		out.append('"');
+		for (int i = 0; i < value.length(); ++i){
+			char c = value.charAt(i);
+			if (c == '"'){
+				out.append('"');
+			}//end if
+			out.append(c);
+		}
+		out.append('"');
+	}//end csv
+
+	/**
+	 * Method to encode text into the buffer, writing the buffer out each
+	 * time it fills.
+	 */
+	private void write(CharSequence text) throws IOException {
+		CharBuffer chars = CharBuffer.wrap(text);
+		this._encoder.reset();
+		while (true){
+			CoderResult result = this._encoder.encode(chars, this._buffer, true);
+			if (result.isOverflow()){
+				drain();
+			}else if (result.isError()){
+				result.throwException();
+			}else{
+				break;
+			}//end if
+		}//end while
+	}//end write
+
+	private void drain() throws IOException {
+		this._buffer.flip();
+		while (this._buffer.hasRemaining()){
+			this._bytes += this._channel.write(this._buffer);
+		}//end while
+		this._buffer.clear();
+	}//end drain
+
+	/**
+	 * Method to write out what is left in the buffer and close the channel.
+	 */
+	public void finish() throws IOException {
+		try{
+			drain();
+		}finally{
+			this._channel.close();
+		}
+	}//end finish
+
+	public long getRows(){
+		return this._rows;
+	}
+
+	/**
+	 * @return the bytes written to the channel, before compression
+	 */
+	public long getBytes(){
+		return this._bytes;
+	}
+
+	/**
+	 * @return the query of a report by its name, or null
+	 */
+	static String query(String report){
+		for (String[] entry : REPORTS){
+			if (entry[0].equals(report)){
+				return entry[1];
+			}//end if
+		}
+		return null;
+	}//end query
+
+	/**
+	 * Method to export a report to a file, NDJSON when the name ends in
+	 * .ndjson or .json (before an optional .gz) and CSV otherwise.
+	 *
+	 * @param query the report
+	 * @param limit bound to the LIMIT of the query, or null when it has none
+	 * @return the finished exporter, for its counts
+	 */
+	public static ReportExporter export(MechanicShop esql, String query, Integer limit, File file) throws SQLException, IOException {
+		String name = file.getName().toLowerCase();
+		boolean gzip = name.endsWith(".gz");
+		if (gzip){
+			name = name.substring(0, name.length() - 3);
+		}//end if
+		boolean ndjson = name.endsWith(".ndjson") || name.endsWith(".json");
+
+		File temp = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+		boolean done = false;
+		try{
+			WritableByteChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+			if (gzip){
+				channel = Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16));
+			}//end if
+			ReportExporter exporter = new ReportExporter(channel, ndjson);
+			try{
+				if (limit != null){
+					esql.executeQueryAndStream(query, exporter, limit);
+				}else{
+					esql.executeQueryAndStream(query, exporter);
+				}//end if
+			}catch (Throwable e){
+				//the file is dropped, so only the channel needs closing
+				try{
+					channel.close();
+				}catch (IOException closeError){
+					e.addSuppressed(closeError);
+				}
+				throw e;
+			}
+			exporter.finish();
+			try{
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}catch (AtomicMoveNotSupportedException e){
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			done = true;
+			return exporter;
+		}finally{
+			if (!done){
+				temp.delete();
+			}//end if
+		}
+	}//end export
+
+	/**
+	 * @return the rows, size and rate of an export that took nanos
+	 */
+	String summary(File file, long nanos){
+		double seconds = Math.max(nanos, 1L) / 1e9;
+		return String.format("%d rows, %.1f MB to %s in %.2f s (%.1f MB/s)", this._rows, this._bytes / 1e6,
+			file.getPath(), seconds, this._bytes / 1e6 / seconds);
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args <dbname> <port> <user> <report> <file> [--k N]
+	 */
+	public static void main (String[] args) {
+		if ((args.length != 5 && args.length != 7) || (args.length == 7 && !args[5].equals("--k"))) {
+			StringBuilder names = new StringBuilder();
+			for (String[] entry : REPORTS){
+				names.append(names.length() == 0 ? "" : "|").append(entry[0]);
+			}
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + ReportExporter.class.getName () +
+		            " <dbname> <port> <user> <" + names + "> <file.csv|file.ndjson>[.gz] [--k N]");
+			return;
+		}//end if
+		try{
+			String query = query(args[3]);
+			if (query == null){
+				throw new IllegalArgumentException("Unknown report " + args[3]);
+			}//end if
+			int k = args.length == 7 ? Integer.parseInt(args[6]) : 10;
+			boolean limited = query.equals(MechanicShop.TOP_K_CARS_REPORT);
+			File file = new File(args[4]);
+
+			Class.forName("org.postgresql.Driver");
+			ConnectionPool pool = new ConnectionPool(MechanicShop.buildUrl(args[0], args[1]),
+				MechanicShop.buildProperties(args[2], ""), 1, 30000L, 2, 5000L, 0L);
+			MechanicShop session = new MechanicShop(pool);
+			try{
+				long start = System.nanoTime();
+				ReportExporter exporter = export(session, query, limited ? Integer.valueOf(k) : null, file);
+				System.out.println(exporter.summary(file, System.nanoTime() - start));
+			}finally{
+				session.releaseConnection();
+				pool.close();
+			}
+		}catch(Exception e){
+			System.err.println("Export failed: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,251 @@
+/*
+ * Keyset pagination of the reports
+ * ================================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class reads the five reports one page at a time with the seek
+ * method: every report is ordered by a unique key, and a page starts right
+ * after the key of the last row of the page before it.  The next page is
+ * therefore an index range scan from that key, whatever the page number,
+ * instead of an OFFSET that reads and throws away every earlier row.
+ *
+ * The position is handed to the caller as an opaque cursor token, so a
+ * client can resume a report later or from another session.  Rows added
+ * after a page was read show up on a later page when their key sorts
+ * after the cursor; nothing is read twice.
+ *
+ * A cursor is signed with an HMAC, so a client cannot edit the rows it
+ * has left, e.g. to read past K of the top K cars, and the rows left are
+ * capped at the limit of the request as well.  The key is drawn at random
+ * per JVM unless -Dmechanicshop.report.cursorKey sets one that several
+ * servers share.
+ *
+ * The indexes the page queries seek on are created by
+ * sql/migrations/006_report_keyset_indexes.sql.
+ */
+
+public class ReportPager{
+	//bytes of the HMAC-SHA256 of a cursor kept at its end
+	private static final int MAC_LENGTH = 16;
+	private static final SecretKeySpec CURSOR_KEY = cursorKey();
+	//ASSUMING THAT IT MEANS EACH CUSTOMER'S BILL < 100, AND NOT TOTAL CUSTOMER'S BILL < 100
+	public static final ReportPager BILL_UNDER_100 = new ReportPager("bills-under-100",
+		"SELECT customer.fname, customer.lname, close.date, close.comment, close.bill, close.wid FROM Customer customer, Service_Request service, Closed_Request close WHERE customer.id = service.customer_id AND service.rid = close.rid AND close.bill < 100 %s ORDER BY close.bill, close.wid LIMIT ?",
+		"AND (close.bill, close.wid) > (?, ?)",
+		new String[]{ "bill", "wid" }, "ii", new int[]{ 0, 1 });
+
+	public static final ReportPager MORE_THAN_20_CARS = new ReportPager("more-than-20-cars",
+		"SELECT customer.id, customer.fname, customer.lname FROM (SELECT owns.customer_id FROM Owns owns WHERE TRUE %s GROUP BY owns.customer_id HAVING COUNT(owns.customer_id) > 20 ORDER BY owns.customer_id LIMIT ?) AS owntwenty, Customer customer WHERE customer.id = owntwenty.customer_id ORDER BY customer.id",
+		"AND owns.customer_id > ?",
+		new String[]{ "id" }, "i", new int[]{ 0 });
+
+	public static final ReportPager CARS_BEFORE_1995 = new ReportPager("cars-before-1995",
+		"SELECT DISTINCT car.make, car.model, car.year FROM Car car, Service_Request service WHERE car.vin = service.car_vin AND car.year < 1995 AND service.odometer < 50000 %s ORDER BY car.make, car.model, car.year LIMIT ?",
+		"AND (car.make, car.model, car.year) > (?, ?, ?)",
+		new String[]{ "make", "model", "year" }, "ssi", new int[]{ 0, 1, 2 });
+
+	//descending counts: the repeated count bounds the index range, the OR breaks ties on the VIN
+	public static final ReportPager TOP_K_CARS = new ReportPager("top-cars",
+		"SELECT car.make, car.model, counts.service_count, counts.car_vin FROM Car_Service_Count counts, Car car WHERE counts.car_vin = car.vin %s ORDER BY counts.service_count DESC, counts.car_vin LIMIT ?",
+		"AND counts.service_count <= ? AND (counts.service_count < ? OR counts.car_vin > ?)",
+		new String[]{ "service_count", "car_vin" }, "is", new int[]{ 0, 0, 1 });
+
+	public static final ReportPager TOTAL_BILL = new ReportPager("customers-by-total-bill",
+		"SELECT customer.id, customer.fname, customer.lname, total.bill_sum FROM Customer_Bill_Total total, Customer customer WHERE total.customer_id = customer.id %s ORDER BY total.bill_sum DESC, total.customer_id LIMIT ?",
+		"AND total.bill_sum <= ? AND (total.bill_sum < ? OR total.customer_id > ?)",
+		new String[]{ "bill_sum", "id" }, "li", new int[]{ 0, 0, 1 });
+
+	private final String _name;
+	private final String _firstSql;
+	private final String _nextSql;
+	private final String[] _keyLabels;
+	//'i' int, 'l' long, 's' string, one per key column
+	private final String _keyTypes;
+	//which key value goes into each placeholder of the seek condition
+	private final int[] _seekParams;
+
+	/**
+	 * @param name the report name, also recorded in its cursors
+	 * @param sql the report ordered by its key and ending in LIMIT ?, with %s where the seek condition goes
+	 * @param seek the condition that starts a page after the last key
+	 * @param keyLabels the labels of the key columns in the select list
+	 * @param keyTypes the types of the key columns
+	 * @param seekParams the key index bound to each placeholder of the seek condition
+	 */
+	ReportPager(String name, String sql, String seek, String[] keyLabels, String keyTypes, int[] seekParams){
+		this._name = name;
+		this._firstSql = String.format(sql, "");
+		this._nextSql = String.format(sql, seek);
+		this._keyLabels = keyLabels;
+		this._keyTypes = keyTypes;
+		this._seekParams = seekParams;
+	}
+
+	public String getName(){
+		return this._name;
+	}
+
+	/**
+	 * Method to stream one page of the report to a handler.
+	 *
+	 * @param esql the session the page query runs on
+	 * @param cursor the token returned for the page before, or null for the first page
+	 * @param pageSize the most rows handed to the handler
+	 * @param handler receives the rows of the page
+	 * @param limit the most rows of the whole report, e.g. K of the top K cars, or null for no limit
+	 * @return the cursor of the next page, or null when this was the last page
+	 * @throws java.sql.SQLException when the page query fails
+	 * @throws IllegalArgumentException when the cursor is not one of this report's
+	 */
+	public String page(MechanicShop esql, String cursor, final int pageSize, final MechanicShop.RowHandler handler,
+			Integer limit) throws SQLException {
+		if (pageSize < 1){
+			throw new IllegalArgumentException("page size must be at least 1: " + pageSize);
+		}//end if
+		String[] keys = null;
+		int remaining = limit != null ? limit : Integer.MAX_VALUE;
+		if (cursor != null){
+			String[] decoded = decode(cursor);
+			remaining = Math.min(remaining, Integer.parseInt(decoded[0]));
+			keys = new String[decoded.length - 1];
+			System.arraycopy(decoded, 1, keys, 0, keys.length);
+		}//end if
+		if (remaining <= 0){
+			return null;
+		}//end if
+		final int rows = Math.min(pageSize, remaining);
+
+		Object[] params = new Object[keys == null ? 1 : this._seekParams.length + 1];
+		if (keys != null){
+			for (int i = 0; i < this._seekParams.length; ++i){
+				params[i] = typed(keys[this._seekParams[i]], this._keyTypes.charAt(this._seekParams[i]));
+			}
+		}//end if
+		//one row more than the page tells whether there is a next page
+		params[params.length - 1] = rows + 1;
+
+		final String[] last = new String[this._keyLabels.length];
+		final int[] seen = new int[1];
+		esql.executeQueryAndStream(keys == null ? this._firstSql : this._nextSql, rows + 1, new MechanicShop.RowHandler(){
+			public void handle(ResultSet rs) throws SQLException {
+				if (++seen[0] > rows){
+					return;
+				}//end if
+				handler.handle(rs);
+				for (int i = 0; i < last.length; ++i){
+					last[i] = rs.getString(_keyLabels[i]);
+				}
+			}
+		}, params);
+
+		int left = remaining == Integer.MAX_VALUE ? remaining : remaining - Math.min(seen[0], rows);
+		if (seen[0] <= rows || left <= 0){
+			return null;
+		}//end if
+		return encode(left, last);
+	}//end page
+
+	private static Object typed(String value, char type){
+		switch (type){
+			case 'i': return Integer.valueOf(value);
+			case 'l': return Long.valueOf(value);
+			default: return value;
+		}
+	}//end typed
+
+	private String encode(int remaining, String[] keys){
+		try{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeUTF(this._name);
+			out.writeInt(remaining);
+			for (String key : keys){
+				out.writeUTF(key);
+			}
+			out.close();
+			byte[] payload = bytes.toByteArray();
+			byte[] token = Arrays.copyOf(payload, payload.length + MAC_LENGTH);
+			System.arraycopy(mac(payload), 0, token, payload.length, MAC_LENGTH);
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+		}catch (IOException e){
+			throw new IllegalStateException(e);
+		}
+	}//end encode
+
+	/**
+	 * @return the remaining row count followed by the key values
+	 */
+	private String[] decode(String cursor){
+		try{
+			byte[] token = Base64.getUrlDecoder().decode(cursor);
+			if (token.length < MAC_LENGTH){
+				throw new IllegalArgumentException("malformed cursor");
+			}//end if
+			byte[] payload = Arrays.copyOf(token, token.length - MAC_LENGTH);
+			if (!MessageDigest.isEqual(Arrays.copyOf(mac(payload), MAC_LENGTH), Arrays.copyOfRange(token, payload.length, token.length))){
+				throw new IllegalArgumentException("cursor was not issued by this server");
+			}//end if
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+			if (!this._name.equals(in.readUTF())){
+				throw new IllegalArgumentException("cursor belongs to another report");
+			}//end if
+			String[] result = new String[this._keyLabels.length + 1];
+			result[0] = Integer.toString(in.readInt());
+			for (int i = 1; i < result.length; ++i){
+				result[i] = in.readUTF();
+				typed(result[i], this._keyTypes.charAt(i - 1));
+			}
+			if (in.read() != -1){
+				throw new IllegalArgumentException("malformed cursor");
+			}//end if
+			return result;
+		}catch (IOException e){
+			throw new IllegalArgumentException("malformed cursor");
+		}catch (NumberFormatException e){
+			throw new IllegalArgumentException("malformed cursor");
+		}
+	}//end decode
+
+	private static byte[] mac(byte[] payload){
+		try{
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(CURSOR_KEY);
+			return mac.doFinal(payload);
+		}catch (GeneralSecurityException e){
+			throw new IllegalStateException(e);
+		}
+	}//end mac
+
+	private static SecretKeySpec cursorKey(){
+		String key = System.getProperty("mechanicshop.report.cursorKey");
+		byte[] bytes;
+		if (key != null && !key.isEmpty()){
+			bytes = key.getBytes(StandardCharsets.UTF_8);
+		}else{
+			bytes = new byte[32];
+			new SecureRandom().nextBytes(bytes);
+		}//end if
+		return new SecretKeySpec(bytes, "HmacSHA256");
+	}//end cursorKey
+}
@@ -0,0 +1,100 @@
+/*
+ * Per-session console routing
+ * ===========================
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * This class lets several menu sessions share one JVM.  The menu operations
+ * read from MechanicShop.in and write to System.out/System.err; a session
+ * thread binds its own reader and output stream here and both are routed to
+ * it, while threads without a binding keep using the real console.
+ */
+
+public class SessionIO{
+	private static final ThreadLocal<BufferedReader> _input = new ThreadLocal<BufferedReader>();
+	private static final ThreadLocal<OutputStream> _output = new ThreadLocal<OutputStream>();
+
+	/**
+	 * Method to route the console of the calling thread to a session.
+	 *
+	 * @param input where MechanicShop.in reads from
+	 * @param output where System.out and System.err write to
+	 */
+	public static void bind(BufferedReader input, OutputStream output){
+		_input.set(input);
+		_output.set(output);
+	}
+
+	/**
+	 * Method to restore the real console for the calling thread.
+	 */
+	public static void unbind(){
+		_input.remove();
+		_output.remove();
+	}
+
+	/**
+	 * Method to wrap a console stream so writes from bound threads go to
+	 * their session instead.  Install it with System.setOut/System.setErr.
+	 *
+	 * @param console the stream used by threads without a session
+	 * @return the routing stream
+	 */
+	public static PrintStream routed(final PrintStream console){
+		return new PrintStream(new OutputStream(){
+			public void write(int b) throws IOException {
+				OutputStream out = _output.get();
+				if (out == null){
+					console.write(b);
+				}else{
+					out.write(b);
+					out.flush();
+				}//end if
+			}
+
+			public void write(byte[] b, int off, int len) throws IOException {
+				OutputStream out = _output.get();
+				if (out == null){
+					console.write(b, off, len);
+				}else{
+					//prompts are printed without a newline, so flush every write
+					out.write(b, off, len);
+					out.flush();
+				}//end if
+			}
+
+			public void flush() throws IOException {
+				OutputStream out = _output.get();
+				if (out == null){
+					console.flush();
+				}else{
+					out.flush();
+				}//end if
+			}
+		}, true);
+	}//end routed
+
+	/**
+	 * The reader behind MechanicShop.in.  readLine() reads from the session
+	 * bound to the calling thread, or from standard in when there is none.
+	 */
+	public static class Input extends BufferedReader{
+		public Input(InputStream console){
+			super(new InputStreamReader(console));
+		}
+
+		public String readLine() throws IOException {
+			BufferedReader session = _input.get();
+			return session == null ? super.readLine() : session.readLine();
+		}
+	}
+}
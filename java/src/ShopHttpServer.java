@@ -0,0 +1,597 @@
+/*
+ * HTTP/JSON service
+ * =================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class serves the menu operations as JSON over HTTP, for front ends
+ * such as the counter terminals that cannot drive the console menu.
+ *
+ *   POST /customers                      {fname, lname, phone, address, car: {vin, make, model, year}}
+ *   POST /mechanics                      {fname, lname, experience}
+ *   POST /cars                           {customerId, vin, make, model, year}
+ *   POST /service-requests               {customerId, vin, odometer, complaint}
+ *   POST /service-requests/{rid}/close   {mechanicId, comment, bill}
+ *   GET  /customers?lname=               the customer picker
+ *   GET  /customers/{id}/cars            the car picker
+ *   GET  /reports/{name}                 bills-under-100, more-than-20-cars,
+ *                                        cars-before-1995, top-cars?k=, customers-by-total-bill;
+ *                                        &pageSize=N[&cursor=] for one page: {rows, next}
+ *
+ * Input is checked with the same helpers as the console menu and written
+ * with the same core insert helpers.  Errors come back as {"error": ...}
+ * with 400 for malformed input, 404 for unknown rows, 409 for a VIN that is
+ * already in the system, 422 for input the database rejects and 503 when
+ * the database cannot be reached.
+ *
+ * Reports are streamed: rows are written as the cursor delivers them, in
+ * a chunked response, so a large report neither sits in memory nor waits
+ * for its last row.  A report that fails after its first rows were sent
+ * has its connection dropped before the last chunk, which the client sees
+ * as a truncated response rather than a short result.  With pageSize
+ * a report comes back one page at a time with the cursor of the next page,
+ * or null after the last one; see ReportPager.  Connections are
+ * kept alive between requests, and requests pipelined on one connection
+ * are answered in order.
+ */
+
+public class ShopHttpServer{
+	/**
+	 * A request that is answered with an error status instead of a result.
+	 */
+	static class HttpError extends Exception{
+		private static final long serialVersionUID = 1L;
+
+		final int status;
+
+		HttpError(int status, String message){
+			super(message);
+			this.status = status;
+		}
+	}
+
+	/**
+	 * One endpoint.  handle() runs it on a session of its own and turns
+	 * its exceptions into error responses.  An exception after a streamed
+	 * response has started is rethrown instead, and the server drops the
+	 * connection: closing the exchange would end the chunked body and the
+	 * client would take the rows sent so far for the whole result.
+	 */
+	abstract class Endpoint implements HttpHandler{
+		private final String _name;
+		private final List<String> _methods;
+
+		Endpoint(String name, String... methods){
+			this._name = name;
+			this._methods = Arrays.asList(methods);
+		}
+
+		abstract void serve(HttpExchange exchange, MechanicShop session) throws Exception;
+
+		public void handle(HttpExchange exchange) throws IOException {
+			MechanicShop session = new MechanicShop(_pool);
+			ShopMetrics.beginOperation();
+			boolean aborted = false;
+			try{
+				if (!this._methods.contains(exchange.getRequestMethod())){
+					exchange.getResponseHeaders().set("Allow", String.join(", ", this._methods));
+					throw new HttpError(405, exchange.getRequestMethod() + " is not allowed here");
+				}//end if
+				serve(exchange, session);
+			}catch (Exception e){
+				if (exchange.getResponseCode() != -1){
+					aborted = true;
+					throw new IOException("Response cut off: " + e.getMessage(), e);
+				}//end if
+				if (e instanceof HttpError){
+					sendError(exchange, ((HttpError) e).status, e.getMessage());
+				}else if (e instanceof SQLException){
+					sendError(exchange, statusOf((SQLException) e), e.getMessage());
+				}else if (e instanceof IllegalArgumentException){
+					sendError(exchange, 400, e.getMessage());
+				}else{
+					sendError(exchange, 500, String.valueOf(e.getMessage()));
+				}//end if
+			}finally{
+				session.releaseConnection();
+				ShopMetrics.endOperation("http " + this._name);
+				if (!aborted){
+					exchange.close();
+				}//end if
+			}
+		}//end handle
+	}
+
+	private static final int MAX_BODY = 64 * 1024;
+
+	private final ConnectionPool _pool;
+	private final HttpServer _server;
+	//serves the requests; its threads keep the JVM alive until stop()
+	private final ExecutorService _executor;
+
+	/**
+	 * @param pool where the requests borrow their connections
+	 * @param port the port to listen on, 0 for any free one
+	 * @param threads the number of requests served at the same time
+	 */
+	public ShopHttpServer(ConnectionPool pool, int port, int threads) throws IOException {
+		this._pool = pool;
+		this._server = HttpServer.create(new InetSocketAddress(port), 0);
+		this._executor = Executors.newFixedThreadPool(threads);
+		this._server.setExecutor(this._executor);
+		this._server.createContext("/customers", new Endpoint("customers", "GET", "POST"){
+			void serve(HttpExchange exchange, MechanicShop session) throws Exception {
+				if ("POST".equals(exchange.getRequestMethod())){
+					addCustomer(exchange, session);
+				}else{
+					findCustomers(exchange, session);
+				}//end if
+			}
+		});
+		this._server.createContext("/mechanics", new Endpoint("mechanics", "POST"){
+			void serve(HttpExchange exchange, MechanicShop session) throws Exception {
+				addMechanic(exchange, session);
+			}
+		});
+		this._server.createContext("/cars", new Endpoint("cars", "POST"){
+			void serve(HttpExchange exchange, MechanicShop session) throws Exception {
+				addCar(exchange, session);
+			}
+		});
+		this._server.createContext("/service-requests", new Endpoint("service-requests", "POST"){
+			void serve(HttpExchange exchange, MechanicShop session) throws Exception {
+				String[] path = path(exchange, "/service-requests");
+				if (path.length == 0){
+					openServiceRequest(exchange, session);
+				}else if (path.length == 2 && "close".equals(path[1])){
+					closeServiceRequest(exchange, session, id(path[0], "service request number"));
+				}else{
+					throw new HttpError(404, "No such resource: " + exchange.getRequestURI().getPath());
+				}//end if
+			}
+		});
+		this._server.createContext("/reports", new Endpoint("reports", "GET"){
+			void serve(HttpExchange exchange, MechanicShop session) throws Exception {
+				report(exchange, session);
+			}
+		});
+	}
+
+	public void start(){
+		this._server.start();
+	}
+
+	public int getPort(){
+		return this._server.getAddress().getPort();
+	}
+
+	public void stop(){
+		this._server.stop(0);
+		this._executor.shutdown();
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args the command line arguments <dbname> <port> <user> <http port>
+	 */
+	public static void main (String[] args) throws Exception {
+		if (args.length != 4) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + ShopHttpServer.class.getName () +
+		            " <dbname> <port> <user> <http port>");
+			return;
+		}//end if
+		Class.forName("org.postgresql.Driver");
+
+		ConnectionPool pool = new ConnectionPool(
+			MechanicShop.buildUrl(args[0], args[1]), MechanicShop.buildProperties(args[2], ""));
+		//fails at startup on a bad URL and warms the customer index
+		MechanicShop warmup = new MechanicShop(pool);
+		try{
+			MechanicShop.customerIndex(warmup);
+		}finally{
+			warmup.releaseConnection();
+		}
+		ShopMetrics.startExporters();
+
+		ShopHttpServer server = new ShopHttpServer(pool, Integer.parseInt(args[3]),
+			Integer.getInteger("mechanicshop.http.threads", pool.getMaxSize()));
+		server.start();
+		System.out.println("Serving the MechanicShop API on port " + server.getPort());
+	}
+
+	//---------------------------------------------------------------------------------------------
+	// writes
+
+	private void addCustomer(HttpExchange exchange, MechanicShop session) throws Exception {
+		Map<String, Object> body = body(exchange);
+		String fname = text(body, "fname");
+		String lname = text(body, "lname");
+		String phone = text(body, "phone");
+		String address = text(body, "address");
+		check(MechanicShop.charCheck32(fname), "fname must be 1 to 32 characters");
+		check(MechanicShop.charCheck32(lname), "lname must be 1 to 32 characters");
+		check(MechanicShop.phoneCheck(phone), "phone must look like (###)###-####");
+		check(MechanicShop.addrCheck(address), "address must be 1 to 256 characters");
+		Object car = body.get("car");
+		if (!(car instanceof Map)){
+			throw new HttpError(400, "car is required: a customer must own at least one car");
+		}//end if
+		@SuppressWarnings("unchecked")
+		Map<String, Object> carBody = (Map<String, Object>) car;
+		String[] carFields = carFields(session, carBody);
+
+		int id = MechanicShop.insertCustomerWithCar(session, fname, lname, phone, address,
+			carFields[0], carFields[1], carFields[2], Integer.parseInt(carFields[3]));
+		sendJson(exchange, 201, "{\"id\":" + id + ",\"vin\":" + Json.quote(carFields[0]) + "}");
+	}//end addCustomer
+
+	private void addMechanic(HttpExchange exchange, MechanicShop session) throws Exception {
+		Map<String, Object> body = body(exchange);
+		String fname = text(body, "fname");
+		String lname = text(body, "lname");
+		String experience = text(body, "experience");
+		check(MechanicShop.charCheck32(fname), "fname must be 1 to 32 characters");
+		check(MechanicShop.charCheck32(lname), "lname must be 1 to 32 characters");
+		check(MechanicShop.experienceCheck(experience), "experience must be 0 to 99 years");
+
+		int id = MechanicShop.insertMechanic(session, fname, lname, Integer.parseInt(experience));
+		sendJson(exchange, 201, "{\"id\":" + id + "}");
+	}//end addMechanic
+
+	private void addCar(HttpExchange exchange, MechanicShop session) throws Exception {
+		Map<String, Object> body = body(exchange);
+		int customerID = id(text(body, "customerId"), "customerId");
+		String[] car = carFields(session, body);
+
+		int ownershipID = MechanicShop.insertCarForOwner(session, customerID, car[0], car[1], car[2], Integer.parseInt(car[3]));
+		sendJson(exchange, 201, "{\"ownershipId\":" + ownershipID + ",\"vin\":" + Json.quote(car[0]) + "}");
+	}//end addCar
+
+	private void openServiceRequest(HttpExchange exchange, MechanicShop session) throws Exception {
+		Map<String, Object> body = body(exchange);
+		int customerID = id(text(body, "customerId"), "customerId");
+		String vin = text(body, "vin");
+		String odometer = text(body, "odometer");
+		Object complaint = body.get("complaint");
+		check(odometer.matches("[0-9]+") && odometer.length() < 10 && Integer.parseInt(odometer) > 0,
+			"odometer must be a positive number");
+		boolean owned = false;
+		for (ShopRows.Car car : MechanicShop.findCarsOfOwner(session, customerID)){
+			owned |= car.vin.equals(vin);
+		}
+		if (!owned){
+			throw new HttpError(422, "Customer " + customerID + " does not own car " + vin);
+		}//end if
+
+		int rid = MechanicShop.insertServiceRequest(session, customerID, vin, Integer.parseInt(odometer),
+			complaint == null ? "" : String.valueOf(complaint));
+		sendJson(exchange, 201, "{\"rid\":" + rid + "}");
+	}//end openServiceRequest
+
+	private void closeServiceRequest(HttpExchange exchange, MechanicShop session, int rid) throws Exception {
+		Map<String, Object> body = body(exchange);
+		final int mechanicID = id(text(body, "mechanicId"), "mechanicId");
+		String comment = text(body, "comment");
+		String bill = text(body, "bill");
+		check(comment.length() > 0, "comment must not be empty");
+		check(bill.matches("[0-9]+") && bill.length() < 10 && Integer.parseInt(bill) > 0, "bill must be a positive number");
+
+		//the same concurrent lookups as CloseServiceRequest
+		CompletableFuture<List<ShopRows.ServiceRequest>> serviceLookup = session.lookupSession().async().executeQueryAndMap(
+			"SELECT * FROM Service_Request WHERE rid = ?", ShopRows.ServiceRequest.MAPPER, rid);
+		CompletableFuture<ShopRows.Mechanic> mechanicLookup = session.async().submit(new AsyncShop.Work<ShopRows.Mechanic>(){
+			public ShopRows.Mechanic run(MechanicShop lookup) throws SQLException {
+				return MechanicShop.findMechanic(lookup, mechanicID);
+			}
+		});
+		if (AsyncShop.await(serviceLookup).isEmpty()){
+			throw new HttpError(404, "No service request " + rid);
+		}//end if
+		if (AsyncShop.await(mechanicLookup) == null){
+			throw new HttpError(404, "No mechanic " + mechanicID);
+		}//end if
+
+		int wid = MechanicShop.closeServiceRequest(session, rid, mechanicID, comment, Integer.parseInt(bill));
+		sendJson(exchange, 201, "{\"wid\":" + wid + "}");
+	}//end closeServiceRequest
+
+	/**
+	 * Method to check the car fields of a request and that the VIN is new.
+	 *
+	 * @return vin, make, model and year
+	 */
+	private static String[] carFields(MechanicShop session, Map<String, Object> body) throws Exception {
+		String vin = text(body, "vin");
+		String make = text(body, "make");
+		String model = text(body, "model");
+		String year = text(body, "year");
+		check(MechanicShop.vinCheck(vin), "vin must be 11 to 17 characters");
+		check(MechanicShop.charCheck32(make), "make must be 1 to 32 characters");
+		check(MechanicShop.charCheck32(model), "model must be 1 to 32 characters");
+		check(MechanicShop.yearCheck(year) && year.length() < 10, "year must be 1970 or later");
+		if (MechanicShop.findOwnerOfVin(session, vin) != null){
+			throw new HttpError(409, "Car " + vin + " is already in the system");
+		}//end if
+		return new String[]{ vin, make, model, year };
+	}//end carFields
+
+	//---------------------------------------------------------------------------------------------
+	// reads
+
+	private void findCustomers(HttpExchange exchange, MechanicShop session) throws Exception {
+		String[] path = path(exchange, "/customers");
+		StringBuilder out = new StringBuilder("[");
+		if (path.length == 2 && "cars".equals(path[1])){
+			for (ShopRows.Car car : MechanicShop.findCarsOfOwner(session, id(path[0], "customer id"))){
+				out.append(out.length() > 1 ? "," : "").append("{\"vin\":").append(Json.quote(car.vin))
+					.append(",\"make\":").append(Json.quote(car.make)).append(",\"model\":").append(Json.quote(car.model))
+					.append(",\"year\":").append(car.year).append('}');
+			}
+		}else if (path.length == 0){
+			String lname = query(exchange).get("lname");
+			check(lname != null && MechanicShop.charCheck32(lname), "lname must be 1 to 32 characters");
+			for (ShopRows.Customer customer : MechanicShop.findCustomers(session, lname)){
+				out.append(out.length() > 1 ? "," : "").append("{\"id\":").append(customer.id)
+					.append(",\"fname\":").append(Json.quote(customer.fname)).append(",\"lname\":").append(Json.quote(customer.lname))
+					.append(",\"phone\":").append(Json.quote(customer.phone)).append(",\"address\":").append(Json.quote(customer.address))
+					.append('}');
+			}
+		}else{
+			throw new HttpError(404, "No such resource: " + exchange.getRequestURI().getPath());
+		}//end if
+		sendJson(exchange, 200, out.append(']').toString());
+	}//end findCustomers
+
+	private void report(HttpExchange exchange, MechanicShop session) throws Exception {
+		String[] path = path(exchange, "/reports");
+		String name = path.length == 1 ? path[0] : "";
+		Map<String, String> query = query(exchange);
+		String sql;
+		ReportPager pager;
+		Integer limit = null;
+		if ("bills-under-100".equals(name)){
+			sql = MechanicShop.BILL_UNDER_100_REPORT;
+			pager = ReportPager.BILL_UNDER_100;
+		}else if ("more-than-20-cars".equals(name)){
+			sql = MechanicShop.MORE_THAN_20_CARS_REPORT;
+			pager = ReportPager.MORE_THAN_20_CARS;
+		}else if ("cars-before-1995".equals(name)){
+			sql = MechanicShop.CARS_BEFORE_1995_REPORT;
+			pager = ReportPager.CARS_BEFORE_1995;
+		}else if ("top-cars".equals(name)){
+			String k = query.get("k");
+			check(k != null && k.matches("[0-9]+") && k.length() < 10, "k must be a number");
+			sql = MechanicShop.TOP_K_CARS_REPORT;
+			pager = ReportPager.TOP_K_CARS;
+			limit = Integer.parseInt(k);
+		}else if ("customers-by-total-bill".equals(name)){
+			sql = MechanicShop.TOTAL_BILL_REPORT;
+			pager = ReportPager.TOTAL_BILL;
+		}else{
+			throw new HttpError(404, "No such report: " + name);
+		}//end if
+
+		session = session.reportSession();
+		String pageSize = query.get("pageSize");
+		if (pageSize == null){
+			check(query.get("cursor") == null, "cursor needs a pageSize");
+			JsonRowWriter rows = new JsonRowWriter(exchange, false);
+			if (limit != null){
+				session.executeQueryAndStream(sql, rows, limit);
+			}else{
+				session.executeQueryAndStream(sql, rows);
+			}//end if
+			rows.finish(null);
+			return;
+		}//end if
+		check(pageSize.matches("[0-9]+") && pageSize.length() < 5 && Integer.parseInt(pageSize) > 0,
+			"pageSize must be a number from 1 to 9999");
+		JsonRowWriter rows = new JsonRowWriter(exchange, true);
+		rows.finish(pager.page(session, query.get("cursor"), Integer.parseInt(pageSize), rows, limit));
+	}//end report
+
+	/**
+	 * Writes the rows of a streamed query as a JSON array of objects keyed
+	 * by column label, or for a page as {"rows": [...], "next": cursor}.
+	 * The response headers go out with the first row, so a query that fails
+	 * before it returns anything still gets an error status.
+	 */
+	static class JsonRowWriter implements MechanicShop.RowHandler{
+		private final HttpExchange _exchange;
+		private final boolean _page;
+		private Writer _out = null;
+		private String[] _labels;
+		private boolean[] _numeric;
+
+		JsonRowWriter(HttpExchange exchange, boolean page){
+			this._exchange = exchange;
+			this._page = page;
+		}
+
+		public void handle(ResultSet rs) throws SQLException {
+			try{
+				if (this._out == null){
+					open(rs.getMetaData());
+					this._out.write(this._page ? "{\"rows\":[" : "[");
+				}else{
+					this._out.write(',');
+				}//end if
+				this._out.write('{');
+				for (int i = 0; i < this._labels.length; ++i){
+					if (i > 0){
+						this._out.write(',');
+					}//end if
+					this._out.write(this._labels[i]);
+					if (this._numeric[i]){
+						long value = rs.getLong(i + 1);
+						this._out.write(rs.wasNull() ? "null" : Long.toString(value));
+					}else{
+						String value = rs.getString(i + 1);
+						this._out.write(Json.quote(value == null ? null : value.trim()));
+					}//end if
+				}
+				this._out.write('}');
+			}catch (IOException e){
+				throw new SQLException("Client went away: " + e.getMessage(), e);
+			}
+		}//end handle
+
+		private void open(ResultSetMetaData meta) throws SQLException, IOException {
+			int columns = meta.getColumnCount();
+			this._labels = new String[columns];
+			this._numeric = new boolean[columns];
+			for (int i = 0; i < columns; ++i){
+				this._labels[i] = Json.quote(meta.getColumnLabel(i + 1)) + ":";
+				int type = meta.getColumnType(i + 1);
+				this._numeric[i] = type == Types.INTEGER || type == Types.BIGINT || type == Types.SMALLINT;
+			}
+			this._exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			//0 selects a chunked response
+			this._exchange.sendResponseHeaders(200, 0);
+			this._out = new BufferedWriter(new OutputStreamWriter(this._exchange.getResponseBody(), StandardCharsets.UTF_8), 8192);
+		}//end open
+
+		/**
+		 * @param next the cursor of the next page, written when this is a page
+		 */
+		void finish(String next) throws IOException {
+			String end = this._page ? "],\"next\":" + Json.quote(next) + "}" : "]";
+			if (this._out == null){
+				sendJson(this._exchange, 200, (this._page ? "{\"rows\":[" : "[") + end);
+				return;
+			}//end if
+			this._out.write(end);
+			this._out.close();
+		}//end finish
+	}
+
+	//---------------------------------------------------------------------------------------------
+	// request and response helpers
+
+	private static Map<String, Object> body(HttpExchange exchange) throws IOException, HttpError {
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) > 0){
+			bytes.write(buffer, 0, read);
+			if (bytes.size() > MAX_BODY){
+				throw new HttpError(413, "Request body larger than " + MAX_BODY + " bytes");
+			}//end if
+		}//end while
+		return Json.parseObject(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+	}//end body
+
+	/**
+	 * Method to read a required field as text; numbers are accepted for
+	 * numeric fields and turned into their digits.
+	 */
+	private static String text(Map<String, Object> body, String field) throws HttpError {
+		Object value = body.get(field);
+		if (value == null){
+			throw new HttpError(400, field + " is required");
+		}//end if
+		if (value instanceof Map || value instanceof List || value instanceof Boolean){
+			throw new HttpError(400, field + " must be a string or a number");
+		}//end if
+		return String.valueOf(value).trim();
+	}//end text
+
+	private static int id(String value, String what) throws HttpError {
+		check(value.matches("[0-9]+") && value.length() < 10, what + " must be a number");
+		return Integer.parseInt(value);
+	}
+
+	private static void check(boolean valid, String message) throws HttpError {
+		if (!valid){
+			throw new HttpError(400, message);
+		}//end if
+	}
+
+	/**
+	 * Method to split the part of the request path after the context into
+	 * its segments.
+	 */
+	private static String[] path(HttpExchange exchange, String context){
+		String rest = exchange.getRequestURI().getPath().substring(context.length());
+		while (rest.startsWith("/")){
+			rest = rest.substring(1);
+		}//end while
+		return rest.length() == 0 ? new String[0] : rest.split("/");
+	}//end path
+
+	private static Map<String, String> query(HttpExchange exchange){
+		Map<String, String> result = new HashMap<String, String>();
+		String raw = exchange.getRequestURI().getRawQuery();
+		if (raw != null){
+			for (String pair : raw.split("&")){
+				int eq = pair.indexOf('=');
+				String key = eq < 0 ? pair : pair.substring(0, eq);
+				String value = eq < 0 ? "" : pair.substring(eq + 1);
+				result.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+			}
+		}//end if
+		return result;
+	}//end query
+
+	private static int statusOf(SQLException e){
+		String state = e.getSQLState();
+		if ("23505".equals(state)){
+			return 409; //unique violation, e.g. a VIN inserted by someone else meanwhile
+		}//end if
+		if (state != null && (state.startsWith("22") || state.startsWith("23"))){
+			return 422; //data exception or other constraint violation
+		}//end if
+		if (state != null && state.startsWith("08")){
+			return 503; //the database cannot be reached
+		}//end if
+		return 500;
+	}//end statusOf
+
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		sendJson(exchange, status, "{\"error\":" + Json.quote(message) + "}");
+	}
+
+	static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		try{
+			out.write(body);
+		}finally{
+			out.close();
+		}
+	}//end sendJson
+}
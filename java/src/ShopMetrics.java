@@ -0,0 +1,412 @@
+/*
+ * Statement and operation metrics
+ * ===============================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class records how long every SQL statement and every menu operation
+ * takes, so slow queries can be found on a running system.
+ *
+ * The execute methods of MechanicShop report each statement here, keyed by
+ * its SQL template, with the rows it returned or changed, the bytes of the
+ * values read as text and whether it failed.  A menu operation is timed as
+ * the database time of the statements it ran on its thread, so the time
+ * the user spends typing at a prompt is not counted.  Latencies go into
+ * log-linear histograms (16 buckets per power of two, so percentiles are
+ * within about 6%) that are updated without locks.
+ *
+ * The metrics are available as text, JSON and in the Prometheus exposition
+ * format.  startExporters() serves the last two over HTTP on
+ * -Dmechanicshop.metrics.port (/metrics and /metrics.json) and writes a
+ * dump every -Dmechanicshop.metrics.dumpInterval seconds to standard out or
+ * to -Dmechanicshop.metrics.dumpFile (-Dmechanicshop.metrics.dumpFormat is
+ * text or json).  -Dmechanicshop.metrics=false turns the recording off.
+ */
+
+public class ShopMetrics{
+	/**
+	 * A latency histogram over log-linear buckets of nanoseconds.
+	 */
+	public static final class Histogram{
+		private static final int SUB_BITS = 4;
+		private static final int SUB = 1 << SUB_BITS;
+		private static final int BUCKETS = (63 - SUB_BITS + 1) * SUB;
+
+		private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+		private final AtomicLong _count = new AtomicLong();
+		private final AtomicLong _sum = new AtomicLong();
+		private final AtomicLong _max = new AtomicLong();
+
+		public void record(long nanos){
+			long value = Math.max(0L, nanos);
+			this._counts.incrementAndGet(bucket(value));
+			this._count.incrementAndGet();
+			this._sum.addAndGet(value);
+			long max;
+			while (value > (max = this._max.get())){
+				if (this._max.compareAndSet(max, value)){
+					break;
+				}//end if
+			}//end while
+		}//end record
+
+		public long getCount(){
+			return this._count.get();
+		}
+
+		public long getSumNanos(){
+			return this._sum.get();
+		}
+
+		public long getMaxNanos(){
+			return this._max.get();
+		}
+
+		/**
+		 * Method to return the latency below which a share q of the
+		 * recordings fall, as the upper edge of its bucket.
+		 *
+		 * @param q the quantile, between 0 and 1
+		 */
+		public long percentile(double q){
+			long count = this._count.get();
+			if (count == 0){
+				return 0L;
+			}//end if
+			long rank = Math.max(1L, (long) Math.ceil(q * count));
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; ++i){
+				seen += this._counts.get(i);
+				if (seen >= rank){
+					return Math.min(upperEdge(i), this._max.get());
+				}//end if
+			}
+			return this._max.get();
+		}//end percentile
+
+		private static int bucket(long value){
+			if (value < SUB){
+				return (int) value;
+			}//end if
+			int exp = 63 - Long.numberOfLeadingZeros(value);
+			int shift = exp - SUB_BITS;
+			return (shift + 1) * SUB + (int) ((value >>> shift) - SUB);
+		}//end bucket
+
+		private static long upperEdge(int bucket){
+			if (bucket < SUB){
+				return bucket;
+			}//end if
+			int shift = bucket / SUB - 1;
+			return ((long) (SUB + bucket % SUB + 1) << shift) - 1;
+		}//end upperEdge
+	}
+
+	/**
+	 * The latency histogram and counters of one statement or operation.
+	 */
+	public static final class Timer{
+		final Histogram latency = new Histogram();
+		final AtomicLong rows = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+
+		void record(long nanos, long rowCount, long byteCount, boolean failed){
+			this.latency.record(nanos);
+			this.rows.addAndGet(rowCount);
+			this.bytes.addAndGet(byteCount);
+			if (failed){
+				this.errors.incrementAndGet();
+			}//end if
+		}
+	}
+
+	static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("mechanicshop.metrics", "true"));
+
+	private static final ConcurrentHashMap<String, Timer> STATEMENTS = new ConcurrentHashMap<String, Timer>();
+	private static final ConcurrentHashMap<String, Timer> OPERATIONS = new ConcurrentHashMap<String, Timer>();
+	//database time, rows, bytes and errors of the operation running on this thread
+	private static final ThreadLocal<long[]> CURRENT = new ThreadLocal<long[]>();
+
+	private static HttpServer _endpoint = null;
+	private static ScheduledExecutorService _dumper = null;
+
+	/**
+	 * Method to record one executed statement.
+	 *
+	 * @param sql the SQL template
+	 * @param nanos how long it took
+	 * @param rows the rows it returned or changed
+	 * @param bytes the bytes of the values read as text
+	 * @param failed true when it threw
+	 */
+	public static void statement(String sql, long nanos, long rows, long bytes, boolean failed){
+		if (!ENABLED){
+			return;
+		}//end if
+		timer(STATEMENTS, sql).record(nanos, rows, bytes, failed);
+		long[] current = CURRENT.get();
+		if (current != null){
+			current[0] += nanos;
+			current[1] += rows;
+			current[2] += bytes;
+			current[3] += failed ? 1 : 0;
+		}//end if
+	}//end statement
+
+	/**
+	 * Method to start timing a menu operation on the calling thread.
+	 */
+	public static void beginOperation(){
+		if (ENABLED){
+			CURRENT.set(new long[4]);
+		}//end if
+	}
+
+	/**
+	 * Method to record the operation started with beginOperation().
+	 *
+	 * @param name the name of the operation
+	 */
+	public static void endOperation(String name){
+		long[] current = CURRENT.get();
+		CURRENT.remove();
+		if (current != null && name != null){
+			timer(OPERATIONS, name).record(current[0], current[1], current[2], current[3] > 0);
+		}//end if
+	}//end endOperation
+
+	private static Timer timer(ConcurrentHashMap<String, Timer> timers, String key){
+		Timer timer = timers.get(key);
+		if (timer == null){
+			Timer created = new Timer();
+			timer = timers.putIfAbsent(key, created);
+			if (timer == null){
+				timer = created;
+			}//end if
+		}//end if
+		return timer;
+	}//end timer
+
+	/**
+	 * Method to render the metrics as a table, slowest p99 first.
+	 */
+	public static String toText(){
+		StringBuilder out = new StringBuilder();
+		appendText(out, "operation", OPERATIONS);
+		appendText(out, "statement", STATEMENTS);
+		return out.toString();
+	}
+
+	private static void appendText(StringBuilder out, String kind, Map<String, Timer> timers){
+		List<Map.Entry<String, Timer>> entries = new ArrayList<Map.Entry<String, Timer>>(timers.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Timer>>(){
+			public int compare(Map.Entry<String, Timer> a, Map.Entry<String, Timer> b){
+				return Long.compare(b.getValue().latency.percentile(0.99), a.getValue().latency.percentile(0.99));
+			}
+		});
+		for (Map.Entry<String, Timer> entry : entries){
+			Timer t = entry.getValue();
+			Histogram h = t.latency;
+			out.append(String.format("%-9s %8d calls  p50 %9.3f  p90 %9.3f  p99 %9.3f  max %9.3f ms  %10d rows  %12d bytes  %6d errors  %s%n",
+				kind, h.getCount(), ms(h.percentile(0.50)), ms(h.percentile(0.90)), ms(h.percentile(0.99)),
+				ms(h.getMaxNanos()), t.rows.get(), t.bytes.get(), t.errors.get(), entry.getKey()));
+		}
+	}//end appendText
+
+	/**
+	 * Method to render the metrics as one JSON object.
+	 */
+	public static String toJson(){
+		StringBuilder out = new StringBuilder("{\"operations\":");
+		appendJson(out, OPERATIONS);
+		out.append(",\"statements\":");
+		appendJson(out, STATEMENTS);
+		return out.append('}').toString();
+	}
+
+	private static void appendJson(StringBuilder out, Map<String, Timer> timers){
+		out.append('[');
+		boolean first = true;
+		for (Map.Entry<String, Timer> entry : new TreeMap<String, Timer>(timers).entrySet()){
+			Timer t = entry.getValue();
+			Histogram h = t.latency;
+			if (!first){
+				out.append(',');
+			}//end if
+			first = false;
+			out.append("{\"name\":").append(Json.quote(entry.getKey()))
+				.append(",\"count\":").append(h.getCount())
+				.append(",\"sumMs\":").append(ms(h.getSumNanos()))
+				.append(",\"p50Ms\":").append(ms(h.percentile(0.50)))
+				.append(",\"p90Ms\":").append(ms(h.percentile(0.90)))
+				.append(",\"p99Ms\":").append(ms(h.percentile(0.99)))
+				.append(",\"p999Ms\":").append(ms(h.percentile(0.999)))
+				.append(",\"maxMs\":").append(ms(h.getMaxNanos()))
+				.append(",\"rows\":").append(t.rows.get())
+				.append(",\"bytes\":").append(t.bytes.get())
+				.append(",\"errors\":").append(t.errors.get())
+				.append('}');
+		}
+		out.append(']');
+	}//end appendJson
+
+	/**
+	 * Method to render the metrics in the Prometheus text exposition
+	 * format, latencies as summaries in seconds.
+	 */
+	public static String toPrometheus(){
+		StringBuilder out = new StringBuilder();
+		appendPrometheus(out, "mechanicshop_operation", "operation", OPERATIONS);
+		appendPrometheus(out, "mechanicshop_statement", "sql", STATEMENTS);
+		long lag = MechanicShop.getReplicaLagMs();
+		if (lag >= 0){
+			out.append("# TYPE mechanicshop_replica_lag_seconds gauge\n");
+			out.append("mechanicshop_replica_lag_seconds ").append(lag / 1e3).append('\n');
+		}//end if
+		return out.toString();
+	}
+
+	private static void appendPrometheus(StringBuilder out, String prefix, String label, Map<String, Timer> timers){
+		Map<String, Timer> sorted = new TreeMap<String, Timer>(timers);
+		out.append("# TYPE ").append(prefix).append("_seconds summary\n");
+		for (Map.Entry<String, Timer> entry : sorted.entrySet()){
+			Histogram h = entry.getValue().latency;
+			String key = label + "=\"" + labelValue(entry.getKey()) + "\"";
+			for (double q : new double[]{ 0.5, 0.9, 0.99, 0.999 }){
+				out.append(prefix).append("_seconds{").append(key).append(",quantile=\"").append(q).append("\"} ")
+					.append(h.percentile(q) / 1e9).append('\n');
+			}
+			out.append(prefix).append("_seconds_sum{").append(key).append("} ").append(h.getSumNanos() / 1e9).append('\n');
+			out.append(prefix).append("_seconds_count{").append(key).append("} ").append(h.getCount()).append('\n');
+		}
+		String[] counters = { "rows", "bytes", "errors" };
+		for (int c = 0; c < counters.length; ++c){
+			out.append("# TYPE ").append(prefix).append('_').append(counters[c]).append("_total counter\n");
+			for (Map.Entry<String, Timer> entry : sorted.entrySet()){
+				Timer t = entry.getValue();
+				long value = c == 0 ? t.rows.get() : c == 1 ? t.bytes.get() : t.errors.get();
+				out.append(prefix).append('_').append(counters[c]).append("_total{").append(label).append("=\"")
+					.append(labelValue(entry.getKey())).append("\"} ").append(value).append('\n');
+			}
+		}
+	}//end appendPrometheus
+
+	/**
+	 * Method to start the HTTP endpoint and the periodic dump when they are
+	 * configured.  stopExporters() ends them.
+	 */
+	public static synchronized void startExporters() throws IOException {
+		Integer port = Integer.getInteger("mechanicshop.metrics.port");
+		if (port != null && _endpoint == null){
+			_endpoint = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+			_endpoint.createContext("/metrics", new HttpHandler(){
+				public void handle(HttpExchange exchange) throws IOException {
+					boolean json = exchange.getRequestURI().getPath().endsWith(".json");
+					byte[] body = (json ? toJson() : toPrometheus()).getBytes(StandardCharsets.UTF_8);
+					exchange.getResponseHeaders().set("Content-Type",
+						json ? "application/json" : "text/plain; version=0.0.4; charset=utf-8");
+					exchange.sendResponseHeaders(200, body.length);
+					OutputStream out = exchange.getResponseBody();
+					try{
+						out.write(body);
+					}finally{
+						out.close();
+					}
+				}
+			});
+			_endpoint.setExecutor(Executors.newSingleThreadExecutor(daemon("metrics-endpoint")));
+			_endpoint.start();
+			System.out.println("Metrics on http://127.0.0.1:" + _endpoint.getAddress().getPort() + "/metrics");
+		}//end if
+
+		long interval = Long.getLong("mechanicshop.metrics.dumpInterval", 0L);
+		if (interval > 0 && _dumper == null){
+			final String file = System.getProperty("mechanicshop.metrics.dumpFile");
+			final boolean json = "json".equals(System.getProperty("mechanicshop.metrics.dumpFormat", "text"));
+			_dumper = Executors.newSingleThreadScheduledExecutor(daemon("metrics-dump"));
+			_dumper.scheduleAtFixedRate(new Runnable(){
+				public void run(){
+					dump(file, json);
+				}
+			}, interval, interval, TimeUnit.SECONDS);
+		}//end if
+	}//end startExporters
+
+	/**
+	 * Method to stop the HTTP endpoint and the periodic dump.
+	 */
+	public static synchronized void stopExporters(){
+		if (_endpoint != null){
+			_endpoint.stop(0);
+			_endpoint = null;
+		}//end if
+		if (_dumper != null){
+			_dumper.shutdownNow();
+			_dumper = null;
+		}//end if
+	}//end stopExporters
+
+	private static void dump(String file, boolean json){
+		String body = json ? toJson() + "\n" : toText();
+		if (file == null){
+			System.out.print(body);
+			return;
+		}//end if
+		try{
+			PrintStream out = new PrintStream(new FileOutputStream(file, true), false, "UTF-8");
+			try{
+				out.print(body);
+			}finally{
+				out.close();
+			}
+		}catch (IOException e){
+			System.err.println("Cannot write metrics to " + file + ": " + e.getMessage());
+		}
+	}//end dump
+
+	private static ThreadFactory daemon(final String name){
+		return new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}//end daemon
+
+	private static double ms(long nanos){
+		return nanos / 1e6;
+	}
+
+	private static String labelValue(String value){
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
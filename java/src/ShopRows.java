@@ -0,0 +1,121 @@
+/*
+ * Typed rows of the MechanicShop schema
+ * =====================================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This class holds one compact, immutable row type per table of
+ * sql/create.sql that the lookups read, together with the mapper that
+ * builds it.  Mappers read
+ * the columns straight from the ResultSet with getInt/getDate, so keys,
+ * years, bills and odometer readings are kept as primitives instead of
+ * being copied into strings and parsed back.  CHAR(n) columns are trimmed
+ * of their blank padding.
+ *
+ * Mappers look columns up by name, so they work on SELECT * as well as on
+ * any projection that keeps the table's column names.
+ */
+
+public class ShopRows{
+
+	public static final class Customer{
+		public final int id;
+		public final String fname;
+		public final String lname;
+		public final String phone;
+		public final String address;
+
+		public Customer(int id, String fname, String lname, String phone, String address){
+			this.id = id;
+			this.fname = fname;
+			this.lname = lname;
+			this.phone = phone;
+			this.address = address;
+		}
+
+		public static final MechanicShop.RowMapper<Customer> MAPPER = new MechanicShop.RowMapper<Customer>(){
+			public Customer map(ResultSet rs) throws SQLException {
+				return new Customer(rs.getInt("id"), trim(rs.getString("fname")), trim(rs.getString("lname")),
+					trim(rs.getString("phone")), trim(rs.getString("address")));
+			}
+		};
+	}
+
+	public static final class Mechanic{
+		public final int id;
+		public final String fname;
+		public final String lname;
+		public final int experience;
+
+		public Mechanic(int id, String fname, String lname, int experience){
+			this.id = id;
+			this.fname = fname;
+			this.lname = lname;
+			this.experience = experience;
+		}
+
+		public static final MechanicShop.RowMapper<Mechanic> MAPPER = new MechanicShop.RowMapper<Mechanic>(){
+			public Mechanic map(ResultSet rs) throws SQLException {
+				return new Mechanic(rs.getInt("id"), trim(rs.getString("fname")), trim(rs.getString("lname")),
+					rs.getInt("experience"));
+			}
+		};
+	}
+
+	public static final class Car{
+		public final String vin;
+		public final String make;
+		public final String model;
+		public final int year;
+
+		public Car(String vin, String make, String model, int year){
+			this.vin = vin;
+			this.make = make;
+			this.model = model;
+			this.year = year;
+		}
+
+		public static final MechanicShop.RowMapper<Car> MAPPER = new MechanicShop.RowMapper<Car>(){
+			public Car map(ResultSet rs) throws SQLException {
+				return new Car(rs.getString("vin"), rs.getString("make"), rs.getString("model"), rs.getInt("year"));
+			}
+		};
+	}
+
+	public static final class ServiceRequest{
+		public final int rid;
+		public final int customerId;
+		public final String carVin;
+		public final Date date;
+		public final int odometer;
+		public final String complain;
+
+		public ServiceRequest(int rid, int customerId, String carVin, Date date, int odometer, String complain){
+			this.rid = rid;
+			this.customerId = customerId;
+			this.carVin = carVin;
+			this.date = date;
+			this.odometer = odometer;
+			this.complain = complain;
+		}
+
+		public static final MechanicShop.RowMapper<ServiceRequest> MAPPER = new MechanicShop.RowMapper<ServiceRequest>(){
+			public ServiceRequest map(ResultSet rs) throws SQLException {
+				return new ServiceRequest(rs.getInt("rid"), rs.getInt("customer_id"), rs.getString("car_vin"),
+					rs.getDate("date"), rs.getInt("odometer"), rs.getString("complain"));
+			}
+		};
+	}
+
+	private static String trim(String value){
+		return value == null ? null : value.trim();
+	}
+}
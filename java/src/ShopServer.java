@@ -0,0 +1,127 @@
+/*
+ * Multi-session server mode
+ * =========================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class serves the MechanicShop main menu to many terminals from one
+ * JVM.  Every TCP client (e.g. `nc localhost 5555` at a service bay) gets
+ * its own session thread running the usual menu, and all sessions borrow
+ * their connections from one shared ConnectionPool.
+ *
+ * Limits are set with system properties: mechanicshop.pool.* for the pool
+ * (see ConnectionPool), mechanicshop.server.maxSessions for the number of
+ * concurrent sessions and mechanicshop.server.statsInterval for how often,
+ * in seconds, the pool metrics are printed on the server console.
+ */
+
+public class ShopServer{
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args the command line arguments <dbname> <port> <user> <listen port>
+	 */
+	public static void main (String[] args) throws Exception {
+		if (args.length != 4) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + ShopServer.class.getName () +
+		            " <dbname> <port> <user> <listen port>");
+			return;
+		}//end if
+		Class.forName("org.postgresql.Driver");
+
+		final PrintStream console = System.out;
+		System.setOut(SessionIO.routed(console));
+		System.setErr(SessionIO.routed(System.err));
+
+		final ConnectionPool pool = new ConnectionPool(
+			MechanicShop.buildUrl(args[0], args[1]), MechanicShop.buildProperties(args[2], ""));
+		//opens the first connection so a bad URL fails at startup instead of on the first client
+		pool.release(pool.acquire());
+		MechanicShop warmup = new MechanicShop(pool);
+		try{
+			MechanicShop.customerIndex(warmup);
+		}finally{
+			warmup.releaseConnection();
+		}
+
+		ShopMetrics.startExporters();
+
+		ExecutorService sessions = Executors.newFixedThreadPool(Integer.getInteger("mechanicshop.server.maxSessions", 64));
+		ScheduledExecutorService stats = Executors.newSingleThreadScheduledExecutor();
+		long interval = Long.getLong("mechanicshop.server.statsInterval", 60L);
+		stats.scheduleAtFixedRate(new Runnable(){
+			public void run(){
+				console.println(pool.getStats());
+				if (MechanicShop.getReplicaStats() != null){
+					console.println(MechanicShop.getReplicaStats());
+				}//end if
+				console.println(MechanicShop.getCacheStats());
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+
+		ServerSocket server = new ServerSocket(Integer.parseInt(args[3]));
+		console.println("Serving the MechanicShop menu on port " + server.getLocalPort());
+		try{
+			while (true){
+				final Socket client = server.accept();
+				sessions.execute(new Runnable(){
+					public void run(){
+						runSession(client, pool, console);
+					}
+				});
+			}//end while
+		}finally{
+			server.close();
+			sessions.shutdownNow();
+			stats.shutdownNow();
+			ShopMetrics.stopExporters();
+			pool.close();
+		}
+	}
+
+	/**
+	 * Method to run the main menu for one client until it exits or
+	 * disconnects.
+	 */
+	private static void runSession(Socket client, ConnectionPool pool, PrintStream console){
+		String peer = String.valueOf(client.getRemoteSocketAddress());
+		console.println("Session opened: " + peer);
+		MechanicShop esql = new MechanicShop(pool);
+		try{
+			BufferedReader input = new BufferedReader(new InputStreamReader(client.getInputStream()));
+			OutputStream output = new BufferedOutputStream(client.getOutputStream());
+			SessionIO.bind(input, output);
+			MechanicShop.runMenu(esql);
+			System.out.println("Bye !");
+		}catch(Exception e){
+			console.println("Session " + peer + " failed: " + e.getMessage());
+		}finally{
+			SessionIO.unbind();
+			esql.cleanup();
+			try{
+				client.close();
+			}catch(Exception e){
+				// ignored.
+			}
+			console.println("Session closed: " + peer);
+		}
+	}//end runSession
+}
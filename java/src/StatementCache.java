@@ -0,0 +1,129 @@
+/*
+ * Prepared statement cache
+ * ========================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps the prepared statements of one physical connection so
+ * every SQL template is parsed and planned once and then only re-bound.
+ * Statements are keyed by their SQL text and evicted least recently used
+ * first once the cache is full.
+ *
+ * A cache belongs to exactly one connection and, like the connection, must
+ * only be used by one thread at a time.
+ */
+
+public class StatementCache{
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private final Connection _connection;
+	private final int _capacity;
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+	private long _hits = 0;
+	private long _misses = 0;
+
+	public StatementCache(Connection connection){
+		this(connection, DEFAULT_CAPACITY);
+	}
+
+	public StatementCache(Connection connection, int capacity){
+		this._connection = connection;
+		this._capacity = capacity;
+		//access ordered so iteration starts at the least recently used statement
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+	}
+
+	/**
+	 * Method to return the prepared statement for a SQL template, preparing
+	 * it on the first use.  The returned statement stays owned by the cache
+	 * and must not be closed by the caller.
+	 *
+	 * @param sql the SQL template with '?' placeholders
+	 * @return the cached prepared statement
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = this._statements.get(sql);
+		if (stmt != null && !stmt.isClosed()){
+			++this._hits;
+			stmt.clearParameters();
+			return stmt;
+		}//end if
+		++this._misses;
+		stmt = this._connection.prepareStatement(sql);
+		this._statements.put(sql, stmt);
+		evict();
+		return stmt;
+	}//end prepare
+
+	/**
+	 * Method to bind the parameters of a statement in order.  Integers,
+	 * strings and java.sql.Date values are bound with their own types so the
+	 * server never sees them as quoted text.
+	 *
+	 * @param stmt the statement to bind
+	 * @param params the parameter values, in placeholder order
+	 * @throws java.sql.SQLException when a value cannot be bound
+	 */
+	public static void bind(PreparedStatement stmt, Object... params) throws SQLException {
+		for (int i = 0; i < params.length; ++i){
+			if (params[i] == null){
+				stmt.setNull(i + 1, Types.NULL);
+			}else{
+				stmt.setObject(i + 1, params[i]);
+			}
+		}
+	}//end bind
+
+	private void evict(){
+		Iterator<Map.Entry<String, PreparedStatement>> it = this._statements.entrySet().iterator();
+		while (this._statements.size() > this._capacity && it.hasNext()){
+			PreparedStatement eldest = it.next().getValue();
+			it.remove();
+			try{
+				eldest.close();
+			}catch (SQLException e){
+				// ignored.
+			}
+		}
+	}//end evict
+
+	public long getHits(){
+		return this._hits;
+	}
+
+	public long getMisses(){
+		return this._misses;
+	}
+
+	public int size(){
+		return this._statements.size();
+	}
+
+	/**
+	 * Method to close every cached statement.  The connection itself is left
+	 * open.
+	 */
+	public void close(){
+		for (PreparedStatement stmt : this._statements.values()){
+			try{
+				stmt.close();
+			}catch (SQLException e){
+				// ignored.
+			}
+		}
+		this._statements.clear();
+	}//end close
+}
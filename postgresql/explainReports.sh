@@ -0,0 +1,25 @@
+#! /bin/bash
+# Records EXPLAIN ANALYZE of the List* reports without and with the report
+# indexes: drops them, writes the plans of the original report SQL
+# (../sql/explain_reports_original.sql) to explain_before.txt, re-applies
+# ../sql/migrations/002_report_indexes.sql and 006_report_keyset_indexes.sql
+# in order and writes the plans of the current SQL (../sql/explain_reports.sql)
+# to explain_after.txt.
+DB=$USER"_DB"
+
+echo "Dropping report indexes .. "
+psql -h localhost -p $PGPORT $DB -c "DROP INDEX IF EXISTS service_request_car_vin_idx, service_request_customer_id_idx, closed_request_rid_idx, closed_request_bill_idx, closed_request_bill_wid_idx, owns_customer_id_idx, owns_car_vin_idx, car_year_idx, car_before_1995_idx, customer_upper_lname_idx;"
+psql -h localhost -p $PGPORT $DB -c "ANALYZE;"
+
+echo "Explaining reports without indexes .. "
+psql -h localhost -p $PGPORT $DB < ../sql/explain_reports_original.sql > explain_before.txt
+
+echo "Applying report indexes .. "
+psql -h localhost -p $PGPORT $DB < ../sql/migrations/002_report_indexes.sql
+# 006 replaces the bill index 002 creates with (bill, wid)
+psql -h localhost -p $PGPORT $DB < ../sql/migrations/006_report_keyset_indexes.sql
+
+echo "Explaining reports with indexes .. "
+psql -h localhost -p $PGPORT $DB < ../sql/explain_reports.sql > explain_after.txt
+
+echo "Plans written to explain_before.txt and explain_after.txt"
@@ -0,0 +1,7 @@
+#! /bin/bash
+# Applies every schema migration in ../sql/migrations, in file name order.
+# The migrations are idempotent, so this can be re-run on an existing DB.
+for migration in ../sql/migrations/*.sql; do
+	echo "Applying $migration .. "
+	psql -h localhost -p $PGPORT $USER"_DB" < $migration
+done
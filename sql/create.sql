@@ -147,4 +147,10 @@ COPY Closed_Request (
 	bill
 )
 FROM 'closed_request.csv'
-WITH DELIMITER ',';
\ No newline at end of file
+WITH DELIMITER ',';
+
+----------------
+-- STATISTICS --
+----------------
+
+ANALYZE;
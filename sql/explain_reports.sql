@@ -0,0 +1,34 @@
+-- EXPLAIN ANALYZE of the five List* reports, with the SQL issued by
+-- MechanicShop.java. Report 9 runs with K = 10.
+-- postgresql/explainReports.sh writes its plans to explain_after.txt, with the
+-- report indexes, to compare with the original SQL without them
+-- (explain_reports_original.sql, explain_before.txt).
+
+\echo '== 6. ListCustomersWithBillLessThan100'
+EXPLAIN (ANALYZE, BUFFERS) SELECT customer.fname, customer.lname ,close.date, close.comment, close.bill FROM Customer customer, Service_Request service, Closed_Request close WHERE customer.id = service.customer_id AND service.rid = close.rid AND close.bill < 100;
+
+\echo '== 7. ListCustomersWithMoreThan20Cars'
+EXPLAIN (ANALYZE, BUFFERS) SELECT customer.id, customer.fname, customer.lname FROM (SELECT owns.customer_id FROM Owns owns GROUP BY owns.customer_id HAVING COUNT(owns.customer_id) > 20) AS owntwenty, Customer customer WHERE customer.id = owntwenty.customer_id;
+
+\echo '== 8. ListCarsBefore1995With50000Milles'
+EXPLAIN (ANALYZE, BUFFERS) SELECT DISTINCT car.make, car.model, car.year FROM Car car, Service_Request service WHERE car.vin = service.car_vin AND car.year < 1995 AND service.odometer < 50000;
+
+\echo '== 9. ListKCarsWithTheMostServices (K = 10)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT car.make, car.model, counts.service_count FROM Car_Service_Count counts, Car car WHERE counts.car_vin = car.vin ORDER BY counts.service_count DESC, counts.car_vin LIMIT 10;
+
+\echo '== 10. ListCustomersInDescendingOrderOfTheirTotalBill'
+EXPLAIN (ANALYZE, BUFFERS) SELECT customer.id, customer.fname, customer.lname, total.bill_sum FROM Customer_Bill_Total total, Customer customer WHERE total.customer_id = customer.id ORDER BY total.bill_sum DESC;
+
+\echo '== customer lookup of AddCar / InsertServiceRequest'
+EXPLAIN (ANALYZE, BUFFERS) SELECT * FROM Customer customer WHERE UPPER(customer.lname) = UPPER('Enderle');
+
+-- Second pages of the paged reports (ReportPager.java, 50 rows a page),
+-- which should start with an index range scan at the cursor's key.
+\echo '== 6. page after (bill 50, wid 1)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT customer.fname, customer.lname, close.date, close.comment, close.bill, close.wid FROM Customer customer, Service_Request service, Closed_Request close WHERE customer.id = service.customer_id AND service.rid = close.rid AND close.bill < 100 AND (close.bill, close.wid) > (50, 1) ORDER BY close.bill, close.wid LIMIT 51;
+
+\echo '== 8. page after (Ford, Mustang, 1990)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT DISTINCT car.make, car.model, car.year FROM Car car, Service_Request service WHERE car.vin = service.car_vin AND car.year < 1995 AND service.odometer < 50000 AND (car.make, car.model, car.year) > ('Ford', 'Mustang', 1990) ORDER BY car.make, car.model, car.year LIMIT 51;
+
+\echo '== 10. page after (bill_sum 1000, customer 1)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT customer.id, customer.fname, customer.lname, total.bill_sum FROM Customer_Bill_Total total, Customer customer WHERE total.customer_id = customer.id AND total.bill_sum <= 1000 AND (total.bill_sum < 1000 OR total.customer_id > 1) ORDER BY total.bill_sum DESC, total.customer_id LIMIT 51;
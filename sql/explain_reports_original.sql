@@ -0,0 +1,25 @@
+-- EXPLAIN ANALYZE of the five List* reports as MechanicShop.java first issued
+-- them, before reports 9 and 10 read the summary tables of
+-- sql/migrations/003_customer_bill_total.sql and 004_car_service_count.sql.
+-- Report 9 runs with K = 10.
+-- postgresql/explainReports.sh runs it without the report indexes for
+-- explain_before.txt; explain_reports.sql is the current SQL for
+-- explain_after.txt.
+
+\echo '== 6. ListCustomersWithBillLessThan100'
+EXPLAIN (ANALYZE, BUFFERS) SELECT customer.fname, customer.lname ,close.date, close.comment, close.bill FROM Customer customer, Service_Request service, Closed_Request close WHERE customer.id = service.customer_id AND service.rid = close.rid AND close.bill < 100;
+
+\echo '== 7. ListCustomersWithMoreThan20Cars'
+EXPLAIN (ANALYZE, BUFFERS) SELECT customer.id, customer.fname, customer.lname FROM (SELECT owns.customer_id FROM Owns owns GROUP BY owns.customer_id HAVING COUNT(owns.customer_id) > 20) AS owntwenty, Customer customer WHERE customer.id = owntwenty.customer_id;
+
+\echo '== 8. ListCarsBefore1995With50000Milles'
+EXPLAIN (ANALYZE, BUFFERS) SELECT DISTINCT car.make, car.model, car.year FROM Car car, Service_Request service WHERE car.vin = service.car_vin AND car.year < 1995 AND service.odometer < 50000;
+
+\echo '== 9. ListKCarsWithTheMostServices (K = 10)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT car.make, car.model, COUNT(*) FROM Service_Request service, Car car WHERE service.car_vin = car.vin GROUP BY car.vin ORDER BY COUNT(*) DESC LIMIT 10;
+
+\echo '== 10. ListCustomersInDescendingOrderOfTheirTotalBill'
+EXPLAIN (ANALYZE, BUFFERS) SELECT customer.id, customer.fname, customer.lname, billSum FROM (SELECT SUM(close.bill) AS billSum, service.customer_id FROM Service_Request service, Closed_Request close WHERE service.rid = close.rid GROUP BY service.customer_id) AS all_request, Customer customer WHERE all_request.customer_id = customer.id ORDER BY all_request.billSum DESC;
+
+\echo '== customer lookup of AddCar / InsertServiceRequest'
+EXPLAIN (ANALYZE, BUFFERS) SELECT * FROM Customer customer WHERE UPPER(customer.lname) = UPPER('Enderle');
@@ -0,0 +1,26 @@
+-----------------------
+---KEY SEQUENCES-------
+-----------------------
+-- New rows take their keys from these sequences (column defaults) instead
+-- of SELECT MAX(id)+1, so allocating a key costs no extra round trip and two
+-- writers can never pick the same key. CACHE 20 lets every connection
+-- reserve a block of 20 keys in memory; unused keys of a block are skipped.
+-- Safe to re-run: every sequence is moved past the largest existing key.
+
+CREATE SEQUENCE IF NOT EXISTS customer_id_seq MINVALUE 0 CACHE 20 OWNED BY Customer.id;
+CREATE SEQUENCE IF NOT EXISTS mechanic_id_seq MINVALUE 0 CACHE 20 OWNED BY Mechanic.id;
+CREATE SEQUENCE IF NOT EXISTS owns_ownership_id_seq MINVALUE 0 CACHE 20 OWNED BY Owns.ownership_id;
+CREATE SEQUENCE IF NOT EXISTS service_request_rid_seq MINVALUE 0 CACHE 20 OWNED BY Service_Request.rid;
+CREATE SEQUENCE IF NOT EXISTS closed_request_wid_seq MINVALUE 0 CACHE 20 OWNED BY Closed_Request.wid;
+
+ALTER TABLE Customer ALTER COLUMN id SET DEFAULT nextval('customer_id_seq');
+ALTER TABLE Mechanic ALTER COLUMN id SET DEFAULT nextval('mechanic_id_seq');
+ALTER TABLE Owns ALTER COLUMN ownership_id SET DEFAULT nextval('owns_ownership_id_seq');
+ALTER TABLE Service_Request ALTER COLUMN rid SET DEFAULT nextval('service_request_rid_seq');
+ALTER TABLE Closed_Request ALTER COLUMN wid SET DEFAULT nextval('closed_request_wid_seq');
+
+SELECT setval('customer_id_seq', COALESCE(MAX(id) + 1, 0), false) FROM Customer;
+SELECT setval('mechanic_id_seq', COALESCE(MAX(id) + 1, 0), false) FROM Mechanic;
+SELECT setval('owns_ownership_id_seq', COALESCE(MAX(ownership_id) + 1, 0), false) FROM Owns;
+SELECT setval('service_request_rid_seq', COALESCE(MAX(rid) + 1, 0), false) FROM Service_Request;
+SELECT setval('closed_request_wid_seq', COALESCE(MAX(wid) + 1, 0), false) FROM Closed_Request;
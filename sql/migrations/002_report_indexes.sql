@@ -0,0 +1,31 @@
+-----------------------
+---REPORT INDEXES------
+-----------------------
+-- Secondary indexes for the joins and filters of the menu operations and
+-- the five List* reports. Safe to re-run.
+
+-- joins of Service_Request to Car (reports 8 and 9) and to Customer (6 and 10)
+CREATE INDEX IF NOT EXISTS service_request_car_vin_idx ON Service_Request (car_vin);
+CREATE INDEX IF NOT EXISTS service_request_customer_id_idx ON Service_Request (customer_id);
+
+-- join of Closed_Request to Service_Request (reports 6 and 10) and the bill < 100 filter (report 6)
+CREATE INDEX IF NOT EXISTS closed_request_rid_idx ON Closed_Request (rid);
+CREATE INDEX IF NOT EXISTS closed_request_bill_idx ON Closed_Request (bill);
+
+-- cars per customer (report 7, car picker of InsertServiceRequest) and owner of a VIN
+CREATE INDEX IF NOT EXISTS owns_customer_id_idx ON Owns (customer_id);
+CREATE INDEX IF NOT EXISTS owns_car_vin_idx ON Owns (car_vin);
+
+-- year < 1995 filter (report 8)
+CREATE INDEX IF NOT EXISTS car_year_idx ON Car (year);
+
+-- case-insensitive last name lookup of AddCar and InsertServiceRequest:
+-- matches WHERE UPPER(customer.lname) = UPPER(?)
+CREATE INDEX IF NOT EXISTS customer_upper_lname_idx ON Customer (UPPER(lname));
+
+ANALYZE Customer;
+ANALYZE Mechanic;
+ANALYZE Car;
+ANALYZE Owns;
+ANALYZE Service_Request;
+ANALYZE Closed_Request;
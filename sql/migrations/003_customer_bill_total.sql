@@ -0,0 +1,83 @@
+-----------------------------
+---CUSTOMER BILL TOTALS------
+-----------------------------
+-- Per-customer SUM(bill) over Service_Request/Closed_Request, kept up to
+-- date by a trigger on Closed_Request, so report 10
+-- (ListCustomersInDescendingOrderOfTheirTotalBill) is an ordered read of
+-- the bill_sum index instead of a join and GROUP BY over the whole history.
+-- CloseServiceRequest maintains it through the trigger on its insert, and a
+-- second trigger follows service requests that change customer.
+-- Re-running the migration rebuilds the totals from Closed_Request.
+
+CREATE TABLE IF NOT EXISTS Customer_Bill_Total
+(
+	customer_id INTEGER NOT NULL,
+	bill_sum BIGINT NOT NULL,
+	PRIMARY KEY (customer_id),
+	FOREIGN KEY (customer_id) REFERENCES Customer(id)
+);
+
+CREATE INDEX IF NOT EXISTS customer_bill_total_bill_sum_idx ON Customer_Bill_Total (bill_sum DESC, customer_id);
+
+-- Moves the bill of a closed request in or out of its customer's total.
+-- Bills are positive, so a total that drops to 0 has no closed requests
+-- left and its row is removed, as the GROUP BY would not return it.
+CREATE OR REPLACE FUNCTION customer_bill_total_apply() RETURNS trigger AS $$
+DECLARE
+	old_customer INTEGER;
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		SELECT service.customer_id INTO old_customer FROM Service_Request service WHERE service.rid = OLD.rid;
+		UPDATE Customer_Bill_Total SET bill_sum = bill_sum - OLD.bill WHERE customer_id = old_customer;
+		DELETE FROM Customer_Bill_Total WHERE customer_id = old_customer AND bill_sum <= 0;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO Customer_Bill_Total (customer_id, bill_sum)
+		SELECT service.customer_id, NEW.bill FROM Service_Request service WHERE service.rid = NEW.rid
+		ON CONFLICT (customer_id) DO UPDATE SET bill_sum = Customer_Bill_Total.bill_sum + EXCLUDED.bill_sum;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS closed_request_bill_total ON Closed_Request;
+CREATE TRIGGER closed_request_bill_total
+	AFTER INSERT OR UPDATE OF rid, bill OR DELETE ON Closed_Request
+	FOR EACH ROW EXECUTE PROCEDURE customer_bill_total_apply();
+
+-- Moves the bills of a service request's closures to its new customer when
+-- the request is reassigned.
+CREATE OR REPLACE FUNCTION customer_bill_total_reassign() RETURNS trigger AS $$
+DECLARE
+	moved BIGINT;
+BEGIN
+	IF NEW.customer_id IS DISTINCT FROM OLD.customer_id THEN
+		SELECT SUM(close.bill) INTO moved FROM Closed_Request close WHERE close.rid = NEW.rid;
+		IF moved IS NOT NULL THEN
+			UPDATE Customer_Bill_Total SET bill_sum = bill_sum - moved WHERE customer_id = OLD.customer_id;
+			DELETE FROM Customer_Bill_Total WHERE customer_id = OLD.customer_id AND bill_sum <= 0;
+			INSERT INTO Customer_Bill_Total (customer_id, bill_sum) VALUES (NEW.customer_id, moved)
+			ON CONFLICT (customer_id) DO UPDATE SET bill_sum = Customer_Bill_Total.bill_sum + EXCLUDED.bill_sum;
+		END IF;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS service_request_bill_total ON Service_Request;
+CREATE TRIGGER service_request_bill_total
+	AFTER UPDATE OF customer_id ON Service_Request
+	FOR EACH ROW EXECUTE PROCEDURE customer_bill_total_reassign();
+
+-- (re)build the totals; the lock keeps closures from slipping in between
+BEGIN;
+LOCK TABLE Closed_Request IN SHARE MODE;
+TRUNCATE Customer_Bill_Total;
+INSERT INTO Customer_Bill_Total (customer_id, bill_sum)
+SELECT service.customer_id, SUM(close.bill)
+FROM Service_Request service, Closed_Request close
+WHERE service.rid = close.rid
+GROUP BY service.customer_id;
+COMMIT;
+
+ANALYZE Customer_Bill_Total;
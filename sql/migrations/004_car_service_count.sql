@@ -0,0 +1,52 @@
+---------------------------
+---CAR SERVICE COUNTS------
+---------------------------
+-- Per-VIN count of service requests, kept up to date by a trigger on
+-- Service_Request, so report 9 (ListKCarsWithTheMostServices) walks the
+-- first K entries of the service_count index, O(K log N), instead of
+-- grouping and sorting every VIN. InsertServiceRequest maintains it
+-- through the trigger on its insert.
+-- Re-running the migration rebuilds the counts from Service_Request.
+
+CREATE TABLE IF NOT EXISTS Car_Service_Count
+(
+	car_vin VARCHAR(16) NOT NULL,
+	service_count INTEGER NOT NULL,
+	PRIMARY KEY (car_vin),
+	FOREIGN KEY (car_vin) REFERENCES Car(vin)
+);
+
+CREATE INDEX IF NOT EXISTS car_service_count_top_idx ON Car_Service_Count (service_count DESC, car_vin);
+
+-- Moves a service request in or out of its car's count; cars without
+-- requests have no row, as the GROUP BY would not return them.
+CREATE OR REPLACE FUNCTION car_service_count_apply() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		UPDATE Car_Service_Count SET service_count = service_count - 1 WHERE car_vin = OLD.car_vin;
+		DELETE FROM Car_Service_Count WHERE car_vin = OLD.car_vin AND service_count <= 0;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO Car_Service_Count (car_vin, service_count) VALUES (NEW.car_vin, 1)
+		ON CONFLICT (car_vin) DO UPDATE SET service_count = Car_Service_Count.service_count + 1;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS service_request_service_count ON Service_Request;
+CREATE TRIGGER service_request_service_count
+	AFTER INSERT OR UPDATE OF car_vin OR DELETE ON Service_Request
+	FOR EACH ROW EXECUTE PROCEDURE car_service_count_apply();
+
+-- (re)build the counts; the lock keeps new requests from slipping in between
+BEGIN;
+LOCK TABLE Service_Request IN SHARE MODE;
+TRUNCATE Car_Service_Count;
+INSERT INTO Car_Service_Count (car_vin, service_count)
+SELECT service.car_vin, COUNT(*)
+FROM Service_Request service
+GROUP BY service.car_vin;
+COMMIT;
+
+ANALYZE Car_Service_Count;
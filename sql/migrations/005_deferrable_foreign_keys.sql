@@ -0,0 +1,14 @@
+------------------------------
+---DEFERRABLE FOREIGN KEYS----
+------------------------------
+-- The foreign keys stay checked at the end of every statement
+-- (INITIALLY IMMEDIATE), but a transaction may now SET CONSTRAINTS ALL
+-- DEFERRED to check them once at commit. The bulk loader does this for
+-- its COPY transactions. Safe to re-run.
+
+ALTER TABLE Owns ALTER CONSTRAINT owns_customer_id_fkey DEFERRABLE INITIALLY IMMEDIATE;
+ALTER TABLE Owns ALTER CONSTRAINT owns_car_vin_fkey DEFERRABLE INITIALLY IMMEDIATE;
+ALTER TABLE Service_Request ALTER CONSTRAINT service_request_customer_id_fkey DEFERRABLE INITIALLY IMMEDIATE;
+ALTER TABLE Service_Request ALTER CONSTRAINT service_request_car_vin_fkey DEFERRABLE INITIALLY IMMEDIATE;
+ALTER TABLE Closed_Request ALTER CONSTRAINT closed_request_rid_fkey DEFERRABLE INITIALLY IMMEDIATE;
+ALTER TABLE Closed_Request ALTER CONSTRAINT closed_request_mid_fkey DEFERRABLE INITIALLY IMMEDIATE;
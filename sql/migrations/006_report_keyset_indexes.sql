@@ -0,0 +1,19 @@
+-----------------------------
+---REPORT KEYSET INDEXES-----
+-----------------------------
+-- Indexes in the sort order of the paged reports (java/src/ReportPager.java),
+-- so the page after a cursor is a range scan that starts at the cursor's key
+-- instead of a sort of every row. Safe to re-run.
+-- Report 7 pages on owns_customer_id_idx (002), report 9 on
+-- car_service_count_top_idx (004) and report 10 on
+-- customer_bill_total_bill_sum_idx (003).
+
+-- report 6 pages on (bill, wid); the bill index of 002 is its prefix
+CREATE INDEX IF NOT EXISTS closed_request_bill_wid_idx ON Closed_Request (bill, wid);
+DROP INDEX IF EXISTS closed_request_bill_idx;
+
+-- report 8 pages on (make, model, year) over the cars before 1995 only
+CREATE INDEX IF NOT EXISTS car_before_1995_idx ON Car (make, model, year) WHERE year < 1995;
+
+ANALYZE Closed_Request;
+ANALYZE Car;
@@ -0,0 +1,120 @@
+-------------------------
+---TABLE VERSIONS--------
+-------------------------
+-- One counter per table, bumped once by every transaction that inserts,
+-- updates or deletes rows of the table, so the report cache of the Java
+-- client (java/src/ReportCache.java, off unless
+-- -Dmechanicshop.reportCache.size is set) can tell, in one query, whether
+-- a table a cached report read has changed since, whichever process wrote
+-- it. The bump is a deferred constraint trigger: it runs at commit, in the
+-- writing transaction, so it becomes visible exactly when the rows do,
+-- while the counter row is only locked for the commit itself instead of
+-- from the first write on. A transaction-local setting keeps a transaction
+-- of many rows, like a batch of the intake, to one bump per table.
+-- A truncate bumps the counter at once; it locks the whole table anyway.
+-- The summary tables of migrations 003 and 004 follow their base tables
+-- through the row triggers; they only count the truncate that starts
+-- their rebuild after a bulk load (java/src/BulkLoader.java).
+-- Re-running the migration keeps the current versions.
+
+CREATE TABLE IF NOT EXISTS Table_Version
+(
+	table_name TEXT NOT NULL,
+	version BIGINT NOT NULL,
+	PRIMARY KEY (table_name)
+);
+
+INSERT INTO Table_Version (table_name, version)
+VALUES ('customer', 0), ('mechanic', 0), ('car', 0), ('owns', 0), ('service_request', 0), ('closed_request', 0),
+	('customer_bill_total', 0), ('car_service_count', 0)
+ON CONFLICT (table_name) DO NOTHING;
+
+-- TG_TABLE_NAME is the table's name as stored, in lower case
+CREATE OR REPLACE FUNCTION table_version_bump() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP <> 'TRUNCATE' THEN
+		IF current_setting('table_version.' || TG_TABLE_NAME, true) = 'bumped' THEN
+			RETURN NULL;
+		END IF;
+		PERFORM set_config('table_version.' || TG_TABLE_NAME, 'bumped', true);
+	END IF;
+	UPDATE Table_Version SET version = version + 1 WHERE table_name = TG_TABLE_NAME;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS customer_table_version ON Customer;
+CREATE CONSTRAINT TRIGGER customer_table_version
+	AFTER INSERT OR UPDATE OR DELETE ON Customer
+	DEFERRABLE INITIALLY DEFERRED
+	FOR EACH ROW EXECUTE PROCEDURE table_version_bump();
+
+DROP TRIGGER IF EXISTS customer_table_version_truncate ON Customer;
+CREATE TRIGGER customer_table_version_truncate
+	AFTER TRUNCATE ON Customer
+	FOR EACH STATEMENT EXECUTE PROCEDURE table_version_bump();
+
+DROP TRIGGER IF EXISTS mechanic_table_version ON Mechanic;
+CREATE CONSTRAINT TRIGGER mechanic_table_version
+	AFTER INSERT OR UPDATE OR DELETE ON Mechanic
+	DEFERRABLE INITIALLY DEFERRED
+	FOR EACH ROW EXECUTE PROCEDURE table_version_bump();
+
+DROP TRIGGER IF EXISTS mechanic_table_version_truncate ON Mechanic;
+CREATE TRIGGER mechanic_table_version_truncate
+	AFTER TRUNCATE ON Mechanic
+	FOR EACH STATEMENT EXECUTE PROCEDURE table_version_bump();
+
+DROP TRIGGER IF EXISTS car_table_version ON Car;
+CREATE CONSTRAINT TRIGGER car_table_version
+	AFTER INSERT OR UPDATE OR DELETE ON Car
+	DEFERRABLE INITIALLY DEFERRED
+	FOR EACH ROW EXECUTE PROCEDURE table_version_bump();
+
+DROP TRIGGER IF EXISTS car_table_version_truncate ON Car;
+CREATE TRIGGER car_table_version_truncate
+	AFTER TRUNCATE ON Car
+	FOR EACH STATEMENT EXECUTE PROCEDURE table_version_bump();
+
+DROP TRIGGER IF EXISTS owns_table_version ON Owns;
+CREATE CONSTRAINT TRIGGER owns_table_version
+	AFTER INSERT OR UPDATE OR DELETE ON Owns
+	DEFERRABLE INITIALLY DEFERRED
+	FOR EACH ROW EXECUTE PROCEDURE table_version_bump();
+
+DROP TRIGGER IF EXISTS owns_table_version_truncate ON Owns;
+CREATE TRIGGER owns_table_version_truncate
+	AFTER TRUNCATE ON Owns
+	FOR EACH STATEMENT EXECUTE PROCEDURE table_version_bump();
+
+DROP TRIGGER IF EXISTS service_request_table_version ON Service_Request;
+CREATE CONSTRAINT TRIGGER service_request_table_version
+	AFTER INSERT OR UPDATE OR DELETE ON Service_Request
+	DEFERRABLE INITIALLY DEFERRED
+	FOR EACH ROW EXECUTE PROCEDURE table_version_bump();
+
+DROP TRIGGER IF EXISTS service_request_table_version_truncate ON Service_Request;
+CREATE TRIGGER service_request_table_version_truncate
+	AFTER TRUNCATE ON Service_Request
+	FOR EACH STATEMENT EXECUTE PROCEDURE table_version_bump();
+
+DROP TRIGGER IF EXISTS closed_request_table_version ON Closed_Request;
+CREATE CONSTRAINT TRIGGER closed_request_table_version
+	AFTER INSERT OR UPDATE OR DELETE ON Closed_Request
+	DEFERRABLE INITIALLY DEFERRED
+	FOR EACH ROW EXECUTE PROCEDURE table_version_bump();
+
+DROP TRIGGER IF EXISTS closed_request_table_version_truncate ON Closed_Request;
+CREATE TRIGGER closed_request_table_version_truncate
+	AFTER TRUNCATE ON Closed_Request
+	FOR EACH STATEMENT EXECUTE PROCEDURE table_version_bump();
+
+DROP TRIGGER IF EXISTS customer_bill_total_table_version ON Customer_Bill_Total;
+CREATE TRIGGER customer_bill_total_table_version
+	AFTER TRUNCATE ON Customer_Bill_Total
+	FOR EACH STATEMENT EXECUTE PROCEDURE table_version_bump();
+
+DROP TRIGGER IF EXISTS car_service_count_table_version ON Car_Service_Count;
+CREATE TRIGGER car_service_count_table_version
+	AFTER TRUNCATE ON Car_Service_Count
+	FOR EACH STATEMENT EXECUTE PROCEDURE table_version_bump();